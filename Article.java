@@ -6,64 +6,125 @@
   */
 
 import java.util.HashMap;
+import java.util.Locale;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.io.IOException;
+import java.io.Reader;
 
 import java.net.URL;
 import java.net.MalformedURLException;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.DocumentBuilder;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-
 /**
   * Takes an RSS item and parses its information:
   * Title
   * Description
   * Link
   * Date
-  * HashMap of word counts
-  * NOTE: the word count HashMap includes ALL
-  * words contained in the HTML, including non-article
+  * Word counts
+  * NOTE: unless the crawl extracts the text of
+  * each page, the word counts include ALL words
+  * contained in the HTML, including non-article
   * words and markup tokens
   */
 public class Article {
     /**
       * Constructor
-      * Parses the inputted XML entry and
-      * extracts the data and the word count
-      * HashMap
+      * Takes the data from the inputted feed
+      * item and downloads the article to
+      * extract the word counts
       * @throws InvalidArticleException
-      * @param xmlEntry The XML entry to parse
+      * @param item The feed item to build the Article from
+      * @param dictionary The TermDictionary to
+      * intern the Article's words into
+      * @param fetcher The HttpFetcher to download
+      * the article with
+      * @param config The settings of the crawl
       */
-    public Article(Element xmlEntry) throws InvalidArticleException {
-	title=getFirstElementValue(xmlEntry,"title");
-	description=getFirstElementValue(xmlEntry,"description");
-	link=getFirstElementValue(xmlEntry,"link");
-	date=getFirstElementValue(xmlEntry,"pubDate");
+    public Article(FeedItem item, TermDictionary dictionary, HttpFetcher fetcher, CrawlConfig config) throws InvalidArticleException {
+	setItem(item);
+	PageReader page;
 	try {
-	    content=getContent(new URL(link));
+	    page = new PageReader(new URL(link),fetcher,config);
 	}
 	catch (MalformedURLException e) {
-	    System.out.printf("Bad URL: %s\n",link);
-	    throw new InvalidArticleException(e.getMessage());
+	    throw new InvalidArticleException("Bad URL: "+link);
+	}
+	catch (IOException e) {
+	    throw readError(e);
+	}
+	read(page,dictionary,config);
+    }
+
+    /**
+      * Constructor
+      * Takes the data from the inputted feed
+      * item and extracts the word counts from
+      * the article, which has already been fetched
+      * @throws InvalidArticleException
+      * @param item The feed item to build the Article from
+      * @param response The fetched article
+      * @param dictionary The TermDictionary to
+      * intern the Article's words into
+      * @param config The settings of the crawl
+      */
+    public Article(FeedItem item, FetchResponse response, TermDictionary dictionary, CrawlConfig config) throws InvalidArticleException {
+	setItem(item);
+	PageReader page;
+	try {
+	    page = new PageReader(response,config);
 	}
 	catch (IOException e) {
-	    System.out.printf("Error while reading data: %s\n",link);
-	    throw new InvalidArticleException(e.getMessage());
+	    try {
+		response.Close();
+	    }
+	    catch (IOException closing) {}
+	    throw readError(e);
 	}
+	read(page,dictionary,config);
+    }
 
-	wordCountHash=getWordCount(content);
+    /**
+      * Constructor
+      * Rebuilds an Article which has already
+      * been downloaded, such as one loaded by
+      * an IndexStore. Its content is not kept.
+      * @param title The title
+      * @param description The description
+      * @param link The link
+      * @param date The date
+      * @param terms The word counts
+      */
+    public Article(String title, String description, String link, String date, TermFrequencies terms) {
+	this(title,description,link,date,terms,null);
+    }
 
+    /**
+      * Constructor
+      * Rebuilds an Article which has already
+      * been downloaded, with the positions
+      * of its words
+      * @param title The title
+      * @param description The description
+      * @param link The link
+      * @param date The date
+      * @param terms The word counts
+      * @param positions The word positions, or null
+      */
+    public Article(String title, String description, String link, String date, TermFrequencies terms, TermPositions positions) {
+	this.title=title;
+	this.description=description;
+	this.link=link;
+	this.date=date;
+	this.content=null;
+	this.terms=terms;
+	this.positions=positions;
+	this.fingerprint=Fingerprint(title,link);
     }
 
     /**
       * Content Getter
-      * @return Content
+      * @return Content, or null if the crawl
+      * did not store the content of articles
       */
     public String GetContent() {
 	return content;
@@ -87,11 +148,13 @@ public class Article {
 
     /**
       * Word Count HashMap Getter
+      * The counts are not stored as a HashMap,
+      * so a new one is built on every call
       * @return Word Count HashMap
       * @deprecated #GetNumOccurrences(String query) is preferred
       */
     public HashMap<String, Integer> GetHashMap() {
-	return wordCountHash;
+	return terms.ToHashMap();
     }
 
     /**
@@ -102,6 +165,23 @@ public class Article {
 	return link;
     }
 
+    /**
+      * Term Frequencies Getter
+      * @return The word counts of the Article
+      */
+    public TermFrequencies GetTermFrequencies() {
+	return terms;
+    }
+
+    /**
+      * Term Positions Getter
+      * @return The positions of the Article's words,
+      * or null if the crawl did not store positions
+      */
+    public TermPositions GetTermPositions() {
+	return positions;
+    }
+
     /**
       * Title Getter
       * @return Title
@@ -117,117 +197,164 @@ public class Article {
       * @param query The String to check
       * @return Number of occurrences of query in the Article
       */
-    public Integer GetNumOccurrences(String query) {
-	Integer num=wordCountHash.get(query.toLowerCase());
-	return num==null?0:num;
+    public int GetNumOccurrences(String query) {
+	//toLowerCase returns the same String
+	//if the query is already lowercase
+	return terms.GetCount(query.toLowerCase());
     }
 
     /**
       * Checks for equality between two Articles
       * @return false if o is not an Article, otherwise
-      * checks if the title and link domain are the same
+      * checks if the title and link domain are the same,
+      * ignoring case and extra whitespace in the title
       */
     public boolean equals(Object o) {
-	Article a;
-	try {
-	    a=(Article)o;
-	}
-	catch (ClassCastException e) {
+	if(o==this)
+	    return true;
+	if(!(o instanceof Article))
 	    return false;
-	}
+	Article a=(Article)o;
+	//if there's no title or a problem with the
+	//link, the fingerprint is null and nothing is equal
+	return fingerprint!=null && fingerprint.equals(a.fingerprint);
+    }
 
-	boolean sameTitle=title.equals(a.title);
-	boolean sameLink=false;
-	try {
-	    URL myLink = new URL(link);
-	    URL yourLink = new URL(a.link);
-	    sameLink=myLink.getHost().equals(yourLink.getHost());
-	}
-	//if there's a problem with the links,
-	//sameLink will remain false
-	catch (MalformedURLException e) {}
-	return sameTitle && sameLink;
+    /**
+      * Hash code consistent with #equals(Object o)
+      * @return The hash code of the fingerprint
+      */
+    public int hashCode() {
+	return fingerprint==null?System.identityHashCode(this):fingerprint.hashCode();
+    }
 
+    /**
+      * Fingerprint Getter
+      * @return The key two Articles are equal by,
+      * or null if the Article has no title or the
+      * link is not a valid URL
+      */
+    public String GetFingerprint() {
+	return fingerprint;
     }
 
     /**
-      * Gets the value of an element
-      * in the XML Element
-      * Conforms to W3C's DOM specification
-      * @param root DOM Element to check within
-      * @param elementName Element name to search for
-      * @return String value of the element, null if it does not exist
+      * Computes the key two Articles are equal by:
+      * the lowercased title with its whitespace
+      * collapsed, and the host of the link. This is
+      * worked out once per Article so that checking
+      * for duplicates never has to parse URLs.
+      * Items without a title are allowed by RSS 2,
+      * and have no fingerprint, so that they are not
+      * all taken for copies of the first from their
+      * host; they are only matched by link and guid.
+      * @param title The title of the Article
+      * @param link The link of the Article
+      * @return The fingerprint, or null if the title
+      * is empty or the link is not a valid URL
       */
-    private String getFirstElementValue(Element root, String elementName) {
+    public static String Fingerprint(String title, String link) {
+	String host;
 	try {
-	    return root.getElementsByTagName(elementName).item(0).getFirstChild().getNodeValue();
+	    host=new URL(link).getHost().toLowerCase(Locale.ROOT);
 	}
-	//This case is met when there are 0 elements
-	//of name elementName in root, thus the
-	//.item(0) call returns null, and the
-	//.getNodeValue() call throws an exception
-	catch (NullPointerException e) {
+	catch (MalformedURLException e) {
 	    return null;
 	}
-	catch (ArrayIndexOutOfBoundsException e) {
-	    return null;
+	StringBuilder key = new StringBuilder();
+	if(title!=null) {
+	    boolean space=false;
+	    for(int i=0;i<title.length();i++) {
+		char c=title.charAt(i);
+		if(Character.isWhitespace(c))
+		    space=key.length()>0;
+		else {
+		    if(space)
+			key.append(' ');
+		    key.append(Character.toLowerCase(c));
+		    space=false;
+		}
+	    }
 	}
+	if(key.length()==0)
+	    return null;
+	return key.append('\n').append(host).toString();
     }
 
     /**
-      * Gets the content of a given URL
-      * Uses a buffered reader and reads the
-      * URL's InputStream line-by-line into an
-      * output variable, which it returns
-      * @throws IOException if error occurs while reading URL
-      * @return String of the URL's content
+      * Copies the fields which come
+      * straight from the feed item
+      * @param item The feed item
       */
-    private String getContent(URL url) throws IOException {
-	String out="";
-	BufferedReader urlReader = new BufferedReader(new InputStreamReader(url.openStream()));
-	String line=null;
-	while((line=urlReader.readLine()) != null)
-	    out+=line;
-	urlReader.close();
-	return out;
+    private void setItem(FeedItem item) {
+	title=item.GetTitle();
+	description=item.GetDescription();
+	link=item.GetLink();
+	date=item.GetDate();
+	fingerprint=Fingerprint(title,link);
     }
 
     /**
-      * Counts the number of times each word
-      * in the article appears and stores the result
-      * in a HashMap. NOTE that this current
-      * implementation checks EVERY word in the HTML
-      * of the article, including any markup, scripts,
-      * or other non-article text.
-      * @param data The data to parse
-      * @return HashMap of all the words in data paired
-      * with their respective number of occurrences
+      * Reads the article's page, counting its words
+      * and keeping its content if the crawl stores it.
+      * The page is counted as it is read, without
+      * ever being held in memory whole.
+      * @throws InvalidArticleException if the
+      * page cannot be read
+      * @param page The article's page, which is closed
+      * @param dictionary The TermDictionary to
+      * intern the words into
+      * @param config The settings of the crawl
       */
-    private HashMap<String, Integer> getWordCount(String data) {
-	//This removes all punctuation, leaving only
-	//alphanumeric characters
-	final String invalidChars="[^a-zA-Z0-9\\s]";
-	data=data.toLowerCase().replaceAll(invalidChars," ");
-	String[] split=data.split("\\s");
-	HashMap<String, Integer> map = new HashMap<String, Integer>();
-	for(String s : split)
-	    if(s.length()>0)
-		incrementCount(map,s);
-	return map;
+    private void read(PageReader page, TermDictionary dictionary, CrawlConfig config) throws InvalidArticleException {
+	try {
+	    Reader text=page;
+	    if(config.GetExtractText())
+		text = new HtmlTextReader(page);
+	    TermCounter counter=getWordCount(text,config.GetStorePositions());
+	    terms=new TermFrequencies(counter,dictionary);
+	    if(counter.GetRecordPositions())
+		positions=new TermPositions(counter,terms,dictionary);
+	    content=page.GetContent();
+	}
+	catch (IOException e) {
+	    throw readError(e);
+	}
+	finally {
+	    try {
+		page.close();
+	    }
+	    catch (IOException e) {}
+	}
     }
 
     /**
-      * A helper method for getWordCount,
-      * which increments the value of a given
-      * entry in a HashMap.
-      * @param map The HashMap to use
-      * @param entry The entry to increment
+      * Builds the exception for an article
+      * which cannot be read
+      * @param e The cause
+      * @return The exception to throw
+      */
+    private InvalidArticleException readError(IOException e) {
+	return new InvalidArticleException("Error while reading data: "+link+" ("+e.getMessage()+")");
+    }
+
+    /**
+      * Counts the number of times each word
+      * in the article appears. The data is read
+      * once, a word at a time, by a Tokenizer,
+      * so no copies of it are made. Whether markup
+      * is counted is up to the Reader passed in.
+      * @throws IOException if error occurs while reading data
+      * @param data The data to parse
+      * @param recordPositions true to also record
+      * the position of every word
+      * @return TermCounter of all the words in data
+      * paired with their respective number of occurrences
       */
-    private void incrementCount(HashMap<String, Integer> map, String entry) {
-	Integer val = map.get(entry);
-	if(val==null)
-	    val=0;
-	map.put(entry,val+1);
+    private TermCounter getWordCount(Reader data, boolean recordPositions) throws IOException {
+	TermCounter counter = new TermCounter(recordPositions);
+	counter.AddAll(new Tokenizer(data));
+	return counter;
     }
 
     private String title;
@@ -235,6 +362,8 @@ public class Article {
     private String link;
     private String date;
     private String content;
-    private HashMap<String, Integer> wordCountHash;
+    private TermFrequencies terms;
+    private TermPositions positions;
+    private String fingerprint;
 }
 
@@ -31,9 +31,9 @@ public class ArticleComparator implements Comparator<Article> {
       * in a1
       */
     public int compare(Article a1, Article a2) {
-	Integer a1count = a1.GetNumOccurrences(word);
-	Integer a2count = a2.GetNumOccurrences(word);
-	return -a1count.compareTo(a2count);
+	int a1count = a1.GetNumOccurrences(word);
+	int a2count = a2.GetNumOccurrences(word);
+	return -Integer.compare(a1count,a2count);
     }
 
     private String word;
@@ -0,0 +1,88 @@
+/**
+  * ArticleRegistry.java
+  * Holds every Article of a NiftyRSS
+  * by its article id
+  */
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+  * An append-only collection of Articles which
+  * gives each one a dense int id. Adding is done
+  * in two steps so the InvertedIndex can post an
+  * Article under its id before anyone can find it:
+  * #Reserve() hands out the next id, and
+  * #Publish(int id, Article a) stores the Article.
+  * Articles are published in any order, but only a
+  * prefix with no gaps is visible to readers, so
+  * #GetNumArticles() only grows and every id below
+  * it can be read. Neither readers nor writers ever
+  * take a lock, so queries can run while the crawl
+  * is still adding Articles.
+  */
+public class ArticleRegistry {
+    /**
+      * Constructor
+      * Creates an empty registry
+      */
+    public ArticleRegistry() {
+	articles = new ChunkedArray<Article>();
+	reserved = new AtomicInteger();
+	published = new AtomicInteger();
+    }
+
+    /**
+      * Hands out the next article id. Every
+      * reserved id must be published, or no
+      * later Article becomes visible.
+      * @return The new article id
+      */
+    public int Reserve() {
+	return reserved.getAndIncrement();
+    }
+
+    /**
+      * Stores an Article under a reserved id,
+      * making it visible once every smaller id
+      * has been published too. Everything the
+      * caller wrote before publishing, such as
+      * postings, is visible to any thread which
+      * then sees the Article counted by
+      * #GetNumArticles().
+      * @param id The id from #Reserve()
+      * @param a The Article to store
+      */
+    public void Publish(int id, Article a) {
+	articles.Set(id,a);
+	//whichever thread publishes the first missing
+	//id moves the visible prefix past it and past
+	//any later ids which were already published
+	int n=published.get();
+	while(n<reserved.get() && articles.Get(n)!=null) {
+	    published.compareAndSet(n,n+1);
+	    n=published.get();
+	}
+    }
+
+    /**
+      * Gets the number of visible Articles
+      * @return Number of Articles, all of which
+      * have ids below this number
+      */
+    public int GetNumArticles() {
+	return published.get();
+    }
+
+    /**
+      * Gets an Article by id
+      * @param id An id below #GetNumArticles()
+      * @return The Article with that id
+      */
+    public Article Get(int id) {
+	return articles.Get(id);
+    }
+
+    private ChunkedArray<Article> articles;
+    private AtomicInteger reserved;
+    private AtomicInteger published;
+}
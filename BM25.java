@@ -0,0 +1,83 @@
+/**
+  * BM25.java
+  * The Okapi BM25 ranking function
+  */
+
+/**
+  * Scores how well an Article matches a word
+  * with Okapi BM25. A word scores higher the more
+  * often it appears in the Article, but with
+  * diminishing returns, and the longer the Article
+  * the more occurrences it takes, so a long page
+  * does not win just by being long. Rare words
+  * count for more than common ones. The score of
+  * a query with several words is the sum of the
+  * scores of its words.
+  */
+public class BM25 {
+    /**
+      * Gets the inverse document frequency of a
+      * word, which weights the word by how rare it is.
+      * This is never negative, even for a word in
+      * more than half of the Articles.
+      * @param numArticles Number of Articles in the index
+      * @param numMatches Number of Articles containing the word
+      * @return The weight of the word
+      */
+    public static float Idf(int numArticles, int numMatches) {
+	return (float)Math.log(1+(numArticles-numMatches+0.5)/(numMatches+0.5));
+    }
+
+    /**
+      * Gets the length normalization of an Article,
+      * which only depends on the Article, so it is
+      * worked out once for all the words of a query
+      * @param length Number of words in the Article
+      * @param averageLength Average number of words
+      * in an Article of the index
+      * @return The normalization for #Score(float idf,
+      * int count, float norm)
+      */
+    public static float Norm(int length, float averageLength) {
+	return K1*(1-B+B*length/averageLength);
+    }
+
+    /**
+      * Scores one word of a query in one Article
+      * @param idf The weight of the word, from #Idf(int numArticles, int numMatches)
+      * @param count Number of occurrences of the word in the Article
+      * @param norm The normalization of the Article,
+      * from #Norm(int length, float averageLength)
+      * @return The score of the word in the Article
+      */
+    public static float Score(float idf, int count, float norm) {
+	return idf*count*(K1+1)/(count+norm);
+    }
+
+    /**
+      * Gets a bound no score of a word can reach.
+      * The score grows with the count and shrinks
+      * with the length, and no Article is shorter
+      * than one word, so the bound is the score of
+      * the largest count in an empty Article.
+      * @param idf The weight of the word
+      * @param maxCount The largest number of occurrences
+      * of the word in any Article
+      * @return The upper bound on the word's score
+      */
+    public static float UpperBound(float idf, int maxCount) {
+	return Score(idf,maxCount,K1*(1-B));
+    }
+
+    /**
+      * Controls how quickly more occurrences
+      * of a word stop adding to its score
+      */
+    public static final float K1=1.2f;
+
+    /**
+      * Controls how much the length of an
+      * Article counts against it, from 0 to 1
+      */
+    public static final float B=0.75f;
+}
@@ -0,0 +1,81 @@
+/**
+  * BoundedInputStream.java
+  * Stops reading a stream after
+  * a maximum number of bytes
+  */
+
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.io.IOException;
+
+/**
+  * An InputStream which ends after a maximum
+  * number of bytes, so one huge or endless page
+  * or feed cannot use up the memory or time of
+  * the crawl. At the limit one more byte is read,
+  * so that a stream of exactly the limit reaches
+  * its end, but a longer one is not read to its
+  * end, so an HttpFetcher which caches a body as
+  * it is read never caches one cut short.
+  */
+public class BoundedInputStream extends FilterInputStream {
+    /**
+      * Constructor
+      * @param in The stream to read
+      * @param limit The most bytes to read from it
+      */
+    public BoundedInputStream(InputStream in, long limit) {
+	super(in);
+	remaining=limit;
+    }
+
+    public int read() throws IOException {
+	if(remaining<=0)
+	    return atLimit();
+	int b=super.read();
+	if(b>=0)
+	    remaining--;
+	return b;
+    }
+
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+	if(remaining<=0)
+	    return atLimit();
+	int n=super.read(buffer,offset,(int)Math.min(length,remaining));
+	if(n>0)
+	    remaining-=n;
+	return n;
+    }
+
+    public long skip(long n) throws IOException {
+	long skipped=super.skip(Math.min(n,remaining));
+	remaining-=skipped;
+	return skipped;
+    }
+
+    public int available() throws IOException {
+	return (int)Math.min(super.available(),remaining);
+    }
+
+    public boolean markSupported() {
+	return false;
+    }
+
+    /**
+      * Ends the stream at the limit, after reading
+      * one more byte the first time to see whether
+      * the stream underneath ends there too
+      * @throws IOException if error occurs while reading
+      * @return -1
+      */
+    private int atLimit() throws IOException {
+	if(!ended) {
+	    ended=true;
+	    super.read();
+	}
+	return -1;
+    }
+
+    private long remaining;
+    private boolean ended;
+}
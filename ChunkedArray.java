@@ -0,0 +1,87 @@
+/**
+  * ChunkedArray.java
+  * A growable array which many threads
+  * can read and write at once
+  */
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+  * An array of references split into fixed-size
+  * chunks which are created the first time one of
+  * their elements is written. The array never has
+  * to be copied to grow, so elements never move and
+  * readers need no lock: every read and write is a
+  * volatile access of one element. Unwritten
+  * elements read as null.
+  * @param <T> The type of the elements
+  */
+public class ChunkedArray<T> {
+    /**
+      * Constructor
+      * Creates an array with every element null
+      */
+    public ChunkedArray() {
+	chunks = new AtomicReferenceArray<AtomicReferenceArray<T>>(MAX_CHUNKS);
+    }
+
+    /**
+      * Gets an element
+      * @param i Index of the element
+      * @return The element, or null if it
+      * has not been written
+      */
+    public T Get(int i) {
+	AtomicReferenceArray<T> chunk=chunks.get(i>>>CHUNK_BITS);
+	return chunk==null?null:chunk.get(i&CHUNK_MASK);
+    }
+
+    /**
+      * Sets an element
+      * @param i Index of the element
+      * @param value The new element
+      */
+    public void Set(int i, T value) {
+	getChunk(i).set(i&CHUNK_MASK,value);
+    }
+
+    /**
+      * Sets an element if it has not been
+      * written yet
+      * @param i Index of the element
+      * @param value The element to set
+      * @return The element now at index i, which is
+      * value unless another thread set it first
+      */
+    public T SetIfAbsent(int i, T value) {
+	AtomicReferenceArray<T> chunk=getChunk(i);
+	if(chunk.compareAndSet(i&CHUNK_MASK,null,value))
+	    return value;
+	return chunk.get(i&CHUNK_MASK);
+    }
+
+    /**
+      * Gets the chunk holding an element,
+      * creating it if it does not exist. If two
+      * threads create it at once, only one of the
+      * new chunks is kept.
+      * @param i Index of the element
+      * @return The chunk holding the element
+      */
+    private AtomicReferenceArray<T> getChunk(int i) {
+	int c=i>>>CHUNK_BITS;
+	AtomicReferenceArray<T> chunk=chunks.get(c);
+	if(chunk!=null)
+	    return chunk;
+	chunks.compareAndSet(c,null,new AtomicReferenceArray<T>(CHUNK_SIZE));
+	return chunks.get(c);
+    }
+
+    private static final int CHUNK_BITS=12;
+    private static final int CHUNK_SIZE=1<<CHUNK_BITS;
+    private static final int CHUNK_MASK=CHUNK_SIZE-1;
+    //enough chunks for every non-negative int index
+    private static final int MAX_CHUNKS=1<<(31-CHUNK_BITS);
+
+    private AtomicReferenceArray<AtomicReferenceArray<T>> chunks;
+}
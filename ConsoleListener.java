@@ -0,0 +1,57 @@
+/**
+  * ConsoleListener.java
+  * Prints every event of a crawl
+  */
+
+import java.net.URL;
+
+/**
+  * A CrawlListener which prints a line for every
+  * feed and article of the crawl, along with the
+  * number of articles left to download.
+  */
+public class ConsoleListener implements CrawlListener {
+    public void FeedStarted(URL feed) {
+	System.out.printf("Feed: %s\n",feed);
+    }
+
+    public void FeedFailed(URL feed, String reason) {
+	System.out.printf("URL %s %s. Skipping URL.\n",feed,reason);
+    }
+
+    public void ArticleStarted(FeedItem item, CrawlProgress progress) {
+	System.out.printf("New Article: %s\n",item.GetTitle());
+	printLeft(progress);
+    }
+
+    public void ArticleDuplicate(FeedItem item, CrawlProgress progress) {
+	System.out.printf("Duplicate Article: %s\n\n",item.GetTitle());
+    }
+
+    public void ArticleIndexed(Article a, CrawlProgress progress) {
+	System.out.printf("New Article Added!\n%s\n%s\n\n",a.GetTitle(),a.GetDescription());
+	printLeft(progress);
+    }
+
+    public void ArticleFailed(FeedItem item, String reason, CrawlProgress progress) {
+	System.out.printf("%s\n",reason);
+	printLeft(progress);
+    }
+
+    public void Progress(CrawlProgress progress) {}
+
+    public void Finished(CrawlProgress progress) {}
+
+    /**
+      * Prints the number of articles
+      * which are still being downloaded
+      * @param progress The progress of the crawl
+      */
+    private static void printLeft(CrawlProgress progress) {
+	int left=progress.GetNumPending();
+	if(left==1)
+	    System.out.printf("%d Article left\n\n",left);
+	else
+	    System.out.printf("%d Articles left\n\n",left);
+    }
+}
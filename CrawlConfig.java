@@ -0,0 +1,654 @@
+/**
+  * CrawlConfig.java
+  * Holds the settings which control how
+  * NiftyRSS downloads and indexes articles
+  */
+
+/**
+  * The settings for one crawl. A new CrawlConfig
+  * has the default for every setting, and each
+  * setting has its own getter and setter. The
+  * same CrawlConfig is shared by every thread of
+  * the crawl, so it must not be changed once the
+  * crawl has started.
+  */
+public class CrawlConfig {
+    /**
+      * Constructor
+      * Creates a config with the default settings
+      */
+    public CrawlConfig() {
+	maxBodySize=DEFAULT_MAX_BODY_SIZE;
+	maxFeedSize=DEFAULT_MAX_FEED_SIZE;
+	storeContent=true;
+	extractText=true;
+	storePositions=false;
+	cacheDirectory=null;
+	indexFile=null;
+	crawl=true;
+	backgroundCrawl=false;
+	crawlListener=new ConsoleListener();
+	virtualThreads=false;
+	asyncFetch=false;
+	maxFeeds=0;
+	maxArticles=0;
+	maxPerHost=DEFAULT_MAX_PER_HOST;
+	hostDelay=DEFAULT_HOST_DELAY;
+	connectTimeout=DEFAULT_CONNECT_TIMEOUT;
+	readTimeout=DEFAULT_READ_TIMEOUT;
+	maxRetries=DEFAULT_MAX_RETRIES;
+	retryDelay=DEFAULT_RETRY_DELAY;
+	crawlDeadline=0;
+	refreshInterval=0;
+	maxRefreshInterval=DEFAULT_MAX_REFRESH_INTERVAL;
+	queryCacheSize=DEFAULT_QUERY_CACHE_SIZE;
+	numShards=1;
+    }
+
+    /**
+      * Max Body Size Getter
+      * @return The maximum number of bytes
+      * read from each article
+      */
+    public int GetMaxBodySize() {
+	return maxBodySize;
+    }
+
+    /**
+      * Max Body Size Setter
+      * Anything past this many bytes of an article
+      * is ignored, so one huge page cannot use up
+      * the memory or time of the crawl
+      * @param maxBodySize The maximum number of bytes
+      * to read from each article
+      */
+    public void SetMaxBodySize(int maxBodySize) {
+	this.maxBodySize=maxBodySize;
+    }
+
+    /**
+      * Max Feed Size Getter
+      * @return The maximum number of bytes
+      * read from each feed
+      */
+    public int GetMaxFeedSize() {
+	return maxFeedSize;
+    }
+
+    /**
+      * Max Feed Size Setter
+      * Anything past this many bytes of a feed is
+      * ignored, keeping the items read before it,
+      * so one huge or endless feed cannot use up
+      * the memory or time of the crawl
+      * @param maxFeedSize The maximum number of bytes
+      * to read from each feed
+      */
+    public void SetMaxFeedSize(int maxFeedSize) {
+	this.maxFeedSize=maxFeedSize;
+    }
+
+    /**
+      * Store Content Getter
+      * @return true if each Article keeps
+      * the raw content of its page
+      */
+    public boolean GetStoreContent() {
+	return storeContent;
+    }
+
+    /**
+      * Store Content Setter
+      * Only the word counts are needed to answer
+      * queries, so turning this off saves keeping
+      * a copy of every page in memory
+      * @param storeContent true if each Article should
+      * keep the raw content of its page
+      */
+    public void SetStoreContent(boolean storeContent) {
+	this.storeContent=storeContent;
+    }
+
+    /**
+      * Extract Text Getter
+      * @return true if only the visible text
+      * of each article is indexed
+      */
+    public boolean GetExtractText() {
+	return extractText;
+    }
+
+    /**
+      * Extract Text Setter
+      * When on, markup, scripts, styles and page
+      * furniture are stripped by an HtmlTextReader
+      * before words are counted. When off, every
+      * word of the raw HTML is counted.
+      * @param extractText true if only the visible
+      * text of each article should be indexed
+      */
+    public void SetExtractText(boolean extractText) {
+	this.extractText=extractText;
+    }
+
+    /**
+      * Store Positions Getter
+      * @return true if the position of every
+      * word of an article is kept
+      */
+    public boolean GetStorePositions() {
+	return storePositions;
+    }
+
+    /**
+      * Store Positions Setter
+      * Positions are needed to match phrases and
+      * words near each other exactly. They take
+      * a byte or two per word of every article, so
+      * they are only kept if asked for; without
+      * them a phrase matches any article with all
+      * of its words.
+      * @param storePositions true to keep the
+      * position of every word
+      */
+    public void SetStorePositions(boolean storePositions) {
+	this.storePositions=storePositions;
+    }
+
+    /**
+      * Cache Directory Getter
+      * @return The directory HTTP responses are
+      * cached in, or null if they are not cached
+      */
+    public String GetCacheDirectory() {
+	return cacheDirectory;
+    }
+
+    /**
+      * Cache Directory Setter
+      * With a cache, feeds and articles which have not
+      * changed since the last crawl are not downloaded
+      * again; see HttpFetcher
+      * @param cacheDirectory The directory to cache HTTP
+      * responses in, or null to not cache them
+      */
+    public void SetCacheDirectory(String cacheDirectory) {
+	this.cacheDirectory=cacheDirectory;
+    }
+
+    /**
+      * Index File Getter
+      * @return The file the index is saved to and
+      * loaded from, or null if it is not saved
+      */
+    public String GetIndexFile() {
+	return indexFile;
+    }
+
+    /**
+      * Index File Setter
+      * If the file exists, the articles saved in it
+      * are loaded before crawling and are not
+      * downloaded again, and after crawling every
+      * article is saved back to it; see IndexStore
+      * @param indexFile The file to save the index to
+      * and load it from, or null to not save it
+      */
+    public void SetIndexFile(String indexFile) {
+	this.indexFile=indexFile;
+    }
+
+    /**
+      * Crawl Getter
+      * @return true if the feeds are crawled
+      */
+    public boolean GetCrawl() {
+	return crawl;
+    }
+
+    /**
+      * Crawl Setter
+      * Turning off crawling serves only the articles
+      * loaded from the index file, which is ready as
+      * soon as the file has been read
+      * @param crawl true if the feeds should be crawled
+      */
+    public void SetCrawl(boolean crawl) {
+	this.crawl=crawl;
+    }
+
+    /**
+      * Background Crawl Getter
+      * @return true if the feeds are crawled
+      * in the background
+      */
+    public boolean GetBackgroundCrawl() {
+	return backgroundCrawl;
+    }
+
+    /**
+      * Background Crawl Setter
+      * With a background crawl the NiftyRSS is ready
+      * for queries as soon as the index file has been
+      * loaded, and each Article becomes searchable
+      * as soon as it has been indexed
+      * @param backgroundCrawl true if the feeds should
+      * be crawled in the background
+      */
+    public void SetBackgroundCrawl(boolean backgroundCrawl) {
+	this.backgroundCrawl=backgroundCrawl;
+    }
+
+    /**
+      * Crawl Listener Getter
+      * @return The CrawlListener told about the
+      * progress of the crawl, or null if none is
+      */
+    public CrawlListener GetCrawlListener() {
+	return crawlListener;
+    }
+
+    /**
+      * Crawl Listener Setter
+      * The default ConsoleListener prints every feed
+      * and article; a ProgressListener prints a summary
+      * line instead, and null prints nothing at all
+      * @param crawlListener The CrawlListener to tell
+      * about the progress of the crawl, or null for none
+      */
+    public void SetCrawlListener(CrawlListener crawlListener) {
+	this.crawlListener=crawlListener;
+    }
+
+    /**
+      * Virtual Threads Getter
+      * @return true if every feed and article
+      * runs on a virtual thread of its own
+      */
+    public boolean GetVirtualThreads() {
+	return virtualThreads;
+    }
+
+    /**
+      * Virtual Threads Setter
+      * A virtual thread only holds on to an OS thread
+      * while it is running, not while it waits on the
+      * network, so with them the number of threads
+      * given to NiftyRSS is ignored and the downloads
+      * are limited only by #SetMaxFeeds(int maxFeeds)
+      * and #SetMaxArticles(int maxArticles)
+      * @param virtualThreads true if every feed and
+      * article should run on a virtual thread of its own
+      */
+    public void SetVirtualThreads(boolean virtualThreads) {
+	this.virtualThreads=virtualThreads;
+    }
+
+    /**
+      * Async Fetch Getter
+      * @return true if feeds and articles are
+      * fetched asynchronously
+      */
+    public boolean GetAsyncFetch() {
+	return asyncFetch;
+    }
+
+    /**
+      * Async Fetch Setter
+      * Asynchronous fetches are sent by an HttpClient
+      * over HTTP/2 where possible, and no thread waits
+      * for them: a thread is only used to parse a feed
+      * or article once it has arrived. Each body is
+      * held in memory until it is parsed, so at most
+      * #GetMaxBodySize() bytes of an article and
+      * #GetMaxFeedSize() bytes of a feed are downloaded.
+      * @param asyncFetch true if feeds and articles should
+      * be fetched asynchronously
+      */
+    public void SetAsyncFetch(boolean asyncFetch) {
+	this.asyncFetch=asyncFetch;
+    }
+
+    /**
+      * Max Feeds Getter
+      * @return The maximum number of feeds read at
+      * once, or 0 for no limit
+      */
+    public int GetMaxFeeds() {
+	return maxFeeds;
+    }
+
+    /**
+      * Max Feeds Setter
+      * @param maxFeeds The maximum number of feeds
+      * to read at once, or 0 for no limit
+      */
+    public void SetMaxFeeds(int maxFeeds) {
+	this.maxFeeds=maxFeeds;
+    }
+
+    /**
+      * Max Articles Getter
+      * @return The maximum number of articles
+      * downloaded at once, or 0 for no limit
+      */
+    public int GetMaxArticles() {
+	return maxArticles;
+    }
+
+    /**
+      * Max Articles Setter
+      * Articles past the limit wait their turn in
+      * the HostScheduler, without holding a thread
+      * @param maxArticles The maximum number of articles
+      * to download at once, or 0 for no limit
+      */
+    public void SetMaxArticles(int maxArticles) {
+	this.maxArticles=maxArticles;
+    }
+
+    /**
+      * Max Per Host Getter
+      * @return The maximum number of articles
+      * downloaded at once from one host, or 0
+      * for no limit
+      */
+    public int GetMaxPerHost() {
+	return maxPerHost;
+    }
+
+    /**
+      * Max Per Host Setter
+      * Sites often throttle or block clients which
+      * open many connections at once; see HostScheduler
+      * @param maxPerHost The maximum number of articles
+      * to download at once from one host, or 0 for
+      * no limit
+      */
+    public void SetMaxPerHost(int maxPerHost) {
+	this.maxPerHost=maxPerHost;
+    }
+
+    /**
+      * Host Delay Getter
+      * @return The minimum time between starting two
+      * downloads from one host, in milliseconds
+      */
+    public long GetHostDelay() {
+	return hostDelay;
+    }
+
+    /**
+      * Host Delay Setter
+      * @param hostDelay The minimum time between
+      * starting two downloads from one host, in
+      * milliseconds, or 0 for no delay
+      */
+    public void SetHostDelay(long hostDelay) {
+	this.hostDelay=hostDelay;
+    }
+
+    /**
+      * Connect Timeout Getter
+      * @return The time allowed to connect to
+      * a server, in milliseconds
+      */
+    public int GetConnectTimeout() {
+	return connectTimeout;
+    }
+
+    /**
+      * Connect Timeout Setter
+      * @param connectTimeout The time allowed to connect
+      * to a server, in milliseconds, or 0 to wait forever
+      */
+    public void SetConnectTimeout(int connectTimeout) {
+	this.connectTimeout=connectTimeout;
+    }
+
+    /**
+      * Read Timeout Getter
+      * @return The time allowed between two reads
+      * from a server, in milliseconds
+      */
+    public int GetReadTimeout() {
+	return readTimeout;
+    }
+
+    /**
+      * Read Timeout Setter
+      * @param readTimeout The time allowed between two
+      * reads from a server, in milliseconds, or 0 to
+      * wait forever
+      */
+    public void SetReadTimeout(int readTimeout) {
+	this.readTimeout=readTimeout;
+    }
+
+    /**
+      * Max Retries Getter
+      * @return The number of times a transient
+      * failure is retried
+      */
+    public int GetMaxRetries() {
+	return maxRetries;
+    }
+
+    /**
+      * Max Retries Setter
+      * Timeouts, dropped connections and 408, 429
+      * and 5xx statuses are retried; see HttpFetcher
+      * @param maxRetries The number of times to retry
+      * a transient failure, or 0 to never retry
+      */
+    public void SetMaxRetries(int maxRetries) {
+	this.maxRetries=maxRetries;
+    }
+
+    /**
+      * Retry Delay Getter
+      * @return The delay before the first retry,
+      * in milliseconds
+      */
+    public long GetRetryDelay() {
+	return retryDelay;
+    }
+
+    /**
+      * Retry Delay Setter
+      * Each further retry waits about twice as long
+      * as the one before, with random jitter
+      * @param retryDelay The delay before the first
+      * retry, in milliseconds
+      */
+    public void SetRetryDelay(long retryDelay) {
+	this.retryDelay=retryDelay;
+    }
+
+    /**
+      * Crawl Deadline Getter
+      * @return The longest a crawl may run, in
+      * milliseconds, or 0 for no limit
+      */
+    public long GetCrawlDeadline() {
+	return crawlDeadline;
+    }
+
+    /**
+      * Crawl Deadline Setter
+      * Once the deadline has passed, downloads still
+      * running are interrupted and queued ones are
+      * dropped, and the index keeps whatever articles
+      * it has
+      * @param crawlDeadline The longest a crawl may run,
+      * in milliseconds, or 0 for no limit
+      */
+    public void SetCrawlDeadline(long crawlDeadline) {
+	this.crawlDeadline=crawlDeadline;
+    }
+
+    /**
+      * Refresh Interval Getter
+      * @return The shortest time between two polls
+      * of a feed after the crawl, in milliseconds,
+      * or 0 if feeds are not refreshed
+      */
+    public long GetRefreshInterval() {
+	return refreshInterval;
+    }
+
+    /**
+      * Refresh Interval Setter
+      * Once the crawl has finished, every feed is
+      * polled again on its own schedule, and the
+      * articles it has gained are added to the index.
+      * A feed is polled this often while it keeps
+      * changing, and less often while it does not.
+      * @param refreshInterval The shortest time between
+      * two polls of a feed, in milliseconds, or 0 to
+      * stop after the crawl
+      */
+    public void SetRefreshInterval(long refreshInterval) {
+	this.refreshInterval=refreshInterval;
+    }
+
+    /**
+      * Max Refresh Interval Getter
+      * @return The longest time between two polls
+      * of a feed, in milliseconds
+      */
+    public long GetMaxRefreshInterval() {
+	return maxRefreshInterval;
+    }
+
+    /**
+      * Max Refresh Interval Setter
+      * @param maxRefreshInterval The longest time
+      * between two polls of a feed which has not
+      * changed for a while, in milliseconds
+      */
+    public void SetMaxRefreshInterval(long maxRefreshInterval) {
+	this.maxRefreshInterval=maxRefreshInterval;
+    }
+
+    /**
+      * Query Cache Size Getter
+      * @return The number of queries whose best
+      * hits are remembered, or 0 for none
+      */
+    public int GetQueryCacheSize() {
+	return queryCacheSize;
+    }
+
+    /**
+      * Query Cache Size Setter
+      * Repeated queries are answered from a
+      * QueryCache until an Article containing
+      * one of their words is indexed.
+      * @param queryCacheSize The number of queries
+      * to remember, or 0 to run every query
+      */
+    public void SetQueryCacheSize(int queryCacheSize) {
+	this.queryCacheSize=queryCacheSize;
+    }
+
+    /**
+      * Num Shards Getter
+      * @return The number of shards the
+      * index is split into
+      */
+    public int GetNumShards() {
+	return numShards;
+    }
+
+    /**
+      * Num Shards Setter
+      * Each shard of the index is searched on
+      * its own thread, so a query can use up to
+      * this many cores. More shards than cores
+      * only add the cost of merging their hits.
+      * @param numShards The number of shards
+      */
+    public void SetNumShards(int numShards) {
+	this.numShards=numShards;
+    }
+
+    /**
+      * Default maximum article size, in bytes
+      */
+    public static final int DEFAULT_MAX_BODY_SIZE=2*1024*1024;
+
+    /**
+      * Default maximum feed size, in bytes
+      */
+    public static final int DEFAULT_MAX_FEED_SIZE=16*1024*1024;
+
+    /**
+      * Default maximum number of downloads
+      * from one host at once
+      */
+    public static final int DEFAULT_MAX_PER_HOST=2;
+
+    /**
+      * Default minimum time between downloads
+      * from one host, in milliseconds
+      */
+    public static final long DEFAULT_HOST_DELAY=250;
+
+    /**
+      * Default connect timeout, in milliseconds
+      */
+    public static final int DEFAULT_CONNECT_TIMEOUT=10000;
+
+    /**
+      * Default read timeout, in milliseconds
+      */
+    public static final int DEFAULT_READ_TIMEOUT=30000;
+
+    /**
+      * Default number of retries of a transient failure
+      */
+    public static final int DEFAULT_MAX_RETRIES=2;
+
+    /**
+      * Default delay before the first retry, in milliseconds
+      */
+    public static final long DEFAULT_RETRY_DELAY=500;
+
+    /**
+      * Default longest time between two polls
+      * of a feed, in milliseconds
+      */
+    public static final long DEFAULT_MAX_REFRESH_INTERVAL=60*60*1000;
+
+    /**
+      * Default number of queries remembered
+      */
+    public static final int DEFAULT_QUERY_CACHE_SIZE=1000;
+
+    private int maxBodySize;
+    private int maxFeedSize;
+    private boolean storeContent;
+    private boolean extractText;
+    private boolean storePositions;
+    private String cacheDirectory;
+    private String indexFile;
+    private boolean crawl;
+    private boolean backgroundCrawl;
+    private CrawlListener crawlListener;
+    private boolean virtualThreads;
+    private boolean asyncFetch;
+    private int maxFeeds;
+    private int maxArticles;
+    private int maxPerHost;
+    private long hostDelay;
+    private int connectTimeout;
+    private int readTimeout;
+    private int maxRetries;
+    private long retryDelay;
+    private long crawlDeadline;
+    private long refreshInterval;
+    private long maxRefreshInterval;
+    private int queryCacheSize;
+    private int numShards;
+}
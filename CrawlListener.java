@@ -0,0 +1,79 @@
+/**
+  * CrawlListener.java
+  * Receives the progress of a crawl
+  * as it happens
+  */
+
+import java.net.URL;
+
+/**
+  * Receives the events of a crawl. Every method is
+  * called from the single thread of a CrawlReporter,
+  * never from the threads doing the crawl, so a
+  * listener may print or do other slow work without
+  * holding up the crawl, and does not need to be
+  * thread safe. The CrawlProgress passed in already
+  * counts the event being reported.
+  */
+public interface CrawlListener {
+    /**
+      * Called when a feed is about to be read
+      * @param feed The URL of the feed
+      */
+    void FeedStarted(URL feed);
+
+    /**
+      * Called when a feed cannot be read
+      * to the end
+      * @param feed The URL of the feed
+      * @param reason Why the feed failed
+      */
+    void FeedFailed(URL feed, String reason);
+
+    /**
+      * Called when an article is queued
+      * to be downloaded
+      * @param item The feed item of the article
+      * @param progress The progress of the crawl
+      */
+    void ArticleStarted(FeedItem item, CrawlProgress progress);
+
+    /**
+      * Called when an article is skipped
+      * because it has already been indexed
+      * @param item The feed item of the article
+      * @param progress The progress of the crawl
+      */
+    void ArticleDuplicate(FeedItem item, CrawlProgress progress);
+
+    /**
+      * Called when an article has been
+      * downloaded and indexed
+      * @param a The new Article
+      * @param progress The progress of the crawl
+      */
+    void ArticleIndexed(Article a, CrawlProgress progress);
+
+    /**
+      * Called when an article cannot
+      * be downloaded
+      * @param item The feed item of the article
+      * @param reason Why the article failed
+      * @param progress The progress of the crawl
+      */
+    void ArticleFailed(FeedItem item, String reason, CrawlProgress progress);
+
+    /**
+      * Called every CrawlReporter#INTERVAL_MILLIS
+      * while the crawl is running
+      * @param progress The progress of the crawl
+      */
+    void Progress(CrawlProgress progress);
+
+    /**
+      * Called once, after every other event
+      * of the crawl
+      * @param progress The final progress of the crawl
+      */
+    void Finished(CrawlProgress progress);
+}
@@ -0,0 +1,123 @@
+/**
+  * CrawlProgress.java
+  * Running totals of a crawl
+  */
+
+/**
+  * The counts of everything that has happened in
+  * a crawl so far. A CrawlProgress is only updated
+  * by the thread of its CrawlReporter, which is the
+  * thread CrawlListeners are called on, so it needs
+  * no synchronization.
+  */
+public class CrawlProgress {
+    /**
+      * Constructor
+      * Starts the clock with every count at 0
+      */
+    public CrawlProgress() {
+	startTime=System.nanoTime();
+    }
+
+    /**
+      * Gets the number of feeds started
+      * @return Number of feeds
+      */
+    public int GetNumFeeds() {
+	return numFeeds;
+    }
+
+    /**
+      * Gets the number of feeds which
+      * could not be read to the end
+      * @return Number of failed feeds
+      */
+    public int GetNumFailedFeeds() {
+	return numFailedFeeds;
+    }
+
+    /**
+      * Gets the number of articles indexed
+      * @return Number of indexed Articles
+      */
+    public int GetNumIndexed() {
+	return numIndexed;
+    }
+
+    /**
+      * Gets the number of articles which
+      * could not be downloaded
+      * @return Number of failed articles
+      */
+    public int GetNumFailed() {
+	return numFailed;
+    }
+
+    /**
+      * Gets the number of articles skipped
+      * as duplicates
+      * @return Number of duplicate articles
+      */
+    public int GetNumDuplicates() {
+	return numDuplicates;
+    }
+
+    /**
+      * Gets the number of articles queued
+      * but not yet indexed or failed
+      * @return Number of pending articles
+      */
+    public int GetNumPending() {
+	return numStarted-numIndexed-numFailed;
+    }
+
+    /**
+      * Gets the time since the crawl started
+      * @return Elapsed time in seconds
+      */
+    public double GetSeconds() {
+	return (System.nanoTime()-startTime)/1e9;
+    }
+
+    /**
+      * Gets the average indexing rate
+      * @return Articles indexed per second
+      * since the crawl started
+      */
+    public double GetArticlesPerSecond() {
+	double seconds=GetSeconds();
+	return seconds>0?numIndexed/seconds:0;
+    }
+
+    void feedStarted() {
+	numFeeds++;
+    }
+
+    void feedFailed() {
+	numFailedFeeds++;
+    }
+
+    void articleStarted() {
+	numStarted++;
+    }
+
+    void articleDuplicate() {
+	numDuplicates++;
+    }
+
+    void articleIndexed() {
+	numIndexed++;
+    }
+
+    void articleFailed() {
+	numFailed++;
+    }
+
+    private long startTime;
+    private int numFeeds;
+    private int numFailedFeeds;
+    private int numStarted;
+    private int numIndexed;
+    private int numFailed;
+    private int numDuplicates;
+}
@@ -0,0 +1,216 @@
+/**
+  * CrawlReporter.java
+  * Passes the events of a crawl to a
+  * CrawlListener without holding up the
+  * threads doing the crawl
+  */
+
+import java.net.URL;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+  * Collects the events of a crawl from any number
+  * of threads and delivers them to a CrawlListener
+  * on a thread of its own. Reporting an event only
+  * adds it to a lock-free queue, so the crawling
+  * threads never wait on a lock or on the console.
+  * The reporter thread empties the queue every
+  * #INTERVAL_MILLIS, keeping a CrawlProgress up to
+  * date as it goes. With no listener every event is
+  * dropped and no thread is started.
+  */
+public class CrawlReporter {
+    /**
+      * Constructor
+      * @param listener The CrawlListener to deliver
+      * events to, or null to ignore them
+      */
+    public CrawlReporter(CrawlListener listener) {
+	this.listener=listener;
+	events = new ConcurrentLinkedQueue<Event>();
+	progress = new CrawlProgress();
+    }
+
+    /**
+      * Starts the reporter thread
+      */
+    public void Start() {
+	if(listener==null)
+	    return;
+	thread = new Thread(new Runnable() {
+	    public void run() {
+		report();
+	    }
+	}, "NiftyRSS reporter");
+	thread.setDaemon(true);
+	thread.start();
+    }
+
+    /**
+      * Delivers every remaining event, then
+      * tells the listener the crawl is finished
+      * and waits for the reporter thread to end
+      */
+    public void Finish() {
+	if(thread==null)
+	    return;
+	finished=true;
+	LockSupport.unpark(thread);
+	try {
+	    thread.join();
+	}
+	catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+    }
+
+    /**
+      * Reports that a feed is about to be read
+      * @param feed The URL of the feed
+      */
+    public void FeedStarted(URL feed) {
+	add(new Event(FEED_STARTED,feed,null,null,null));
+    }
+
+    /**
+      * Reports that a feed could not be read
+      * @param feed The URL of the feed
+      * @param reason Why the feed failed
+      */
+    public void FeedFailed(URL feed, String reason) {
+	add(new Event(FEED_FAILED,feed,null,null,reason));
+    }
+
+    /**
+      * Reports that an article has been queued
+      * @param item The feed item of the article
+      */
+    public void ArticleStarted(FeedItem item) {
+	add(new Event(ARTICLE_STARTED,null,item,null,null));
+    }
+
+    /**
+      * Reports that an article was a duplicate
+      * @param item The feed item of the article
+      */
+    public void ArticleDuplicate(FeedItem item) {
+	add(new Event(ARTICLE_DUPLICATE,null,item,null,null));
+    }
+
+    /**
+      * Reports that an article has been indexed
+      * @param a The new Article
+      */
+    public void ArticleIndexed(Article a) {
+	add(new Event(ARTICLE_INDEXED,null,null,a,null));
+    }
+
+    /**
+      * Reports that an article could not be
+      * downloaded
+      * @param item The feed item of the article
+      * @param reason Why the article failed
+      */
+    public void ArticleFailed(FeedItem item, String reason) {
+	add(new Event(ARTICLE_FAILED,null,item,null,reason));
+    }
+
+    /**
+      * Queues an event for the reporter thread
+      * @param e The event
+      */
+    private void add(Event e) {
+	if(listener!=null)
+	    events.add(e);
+    }
+
+    /**
+      * The body of the reporter thread
+      */
+    private void report() {
+	while(!finished) {
+	    deliver();
+	    listener.Progress(progress);
+	    LockSupport.parkNanos(this,TimeUnit.MILLISECONDS.toNanos(INTERVAL_MILLIS));
+	}
+	deliver();
+	listener.Finished(progress);
+    }
+
+    /**
+      * Delivers every queued event to the listener
+      */
+    private void deliver() {
+	Event e;
+	while((e=events.poll())!=null) {
+	    switch(e.type) {
+		case FEED_STARTED:
+		    progress.feedStarted();
+		    listener.FeedStarted(e.feed);
+		    break;
+		case FEED_FAILED:
+		    progress.feedFailed();
+		    listener.FeedFailed(e.feed,e.reason);
+		    break;
+		case ARTICLE_STARTED:
+		    progress.articleStarted();
+		    listener.ArticleStarted(e.item,progress);
+		    break;
+		case ARTICLE_DUPLICATE:
+		    progress.articleDuplicate();
+		    listener.ArticleDuplicate(e.item,progress);
+		    break;
+		case ARTICLE_INDEXED:
+		    progress.articleIndexed();
+		    listener.ArticleIndexed(e.article,progress);
+		    break;
+		case ARTICLE_FAILED:
+		    progress.articleFailed();
+		    listener.ArticleFailed(e.item,e.reason,progress);
+		    break;
+	    }
+	}
+    }
+
+    /**
+      * One queued event. Only the
+      * fields its type needs are set.
+      */
+    private static class Event {
+	Event(int type, URL feed, FeedItem item, Article article, String reason) {
+	    this.type=type;
+	    this.feed=feed;
+	    this.item=item;
+	    this.article=article;
+	    this.reason=reason;
+	}
+
+	final int type;
+	final URL feed;
+	final FeedItem item;
+	final Article article;
+	final String reason;
+    }
+
+    /**
+      * How often queued events are delivered
+      * and CrawlListener#Progress is called
+      */
+    public static final int INTERVAL_MILLIS=100;
+
+    private static final int FEED_STARTED=0;
+    private static final int FEED_FAILED=1;
+    private static final int ARTICLE_STARTED=2;
+    private static final int ARTICLE_DUPLICATE=3;
+    private static final int ARTICLE_INDEXED=4;
+    private static final int ARTICLE_FAILED=5;
+
+    private CrawlListener listener;
+    private ConcurrentLinkedQueue<Event> events;
+    private CrawlProgress progress;
+    private Thread thread;
+    private volatile boolean finished;
+}
@@ -0,0 +1,90 @@
+/**
+  * DuplicateFilter.java
+  * Remembers which articles have been
+  * seen so duplicates are skipped
+  */
+
+import java.util.Set;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+  * A concurrent set of the Articles which are
+  * indexed or being downloaded, keyed on each
+  * Article's fingerprint, on its link and on the
+  * guid of its feed item, if it had one. Checking
+  * and claiming an entry is a single lock-free
+  * hash operation, so it is done from a feed item
+  * before the article is downloaded, and a
+  * duplicate is never fetched at all.
+  */
+public class DuplicateFilter {
+    /**
+      * Constructor
+      * Creates an empty filter
+      */
+    public DuplicateFilter() {
+	fingerprints = ConcurrentHashMap.newKeySet();
+	links = ConcurrentHashMap.newKeySet();
+	guids = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+      * Adds an Article which is already indexed
+      * @param a The Article
+      */
+    public void Add(Article a) {
+	if(a.GetFingerprint()!=null)
+	    fingerprints.add(a.GetFingerprint());
+	if(a.GetLink()!=null)
+	    links.add(a.GetLink());
+    }
+
+    /**
+      * Claims a feed item for download. Only one
+      * caller can claim an item; every later item
+      * with the same fingerprint, link or guid is refused
+      * until the claim is released.
+      * @param item The feed item
+      * @return true if the item is new and now
+      * claimed, false if it is a duplicate
+      */
+    public boolean Claim(FeedItem item) {
+	String fingerprint=Article.Fingerprint(item.GetTitle(),item.GetLink());
+	if(fingerprint!=null && !fingerprints.add(fingerprint))
+	    return false;
+	if(item.GetLink()!=null && !links.add(item.GetLink())) {
+	    if(fingerprint!=null)
+		fingerprints.remove(fingerprint);
+	    return false;
+	}
+	if(item.GetGuid()!=null && !guids.add(item.GetGuid())) {
+	    if(fingerprint!=null)
+		fingerprints.remove(fingerprint);
+	    if(item.GetLink()!=null)
+		links.remove(item.GetLink());
+	    return false;
+	}
+	return true;
+    }
+
+    /**
+      * Releases the claim on an item which could not
+      * be downloaded, so that a later copy of it can
+      * be tried instead
+      * @param item The feed item passed to #Claim(FeedItem item)
+      */
+    public void Release(FeedItem item) {
+	String fingerprint=Article.Fingerprint(item.GetTitle(),item.GetLink());
+	if(fingerprint!=null)
+	    fingerprints.remove(fingerprint);
+	if(item.GetLink()!=null)
+	    links.remove(item.GetLink());
+	if(item.GetGuid()!=null)
+	    guids.remove(item.GetGuid());
+    }
+
+    private Set<String> fingerprints;
+    private Set<String> links;
+    private Set<String> guids;
+}
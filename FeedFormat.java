@@ -0,0 +1,25 @@
+/**
+  * FeedFormat.java
+  * The kinds of feed a FeedParser
+  * can read
+  */
+
+/**
+  * The feed formats understood by FeedParser,
+  * each identified by the root element of the
+  * feed document
+  */
+public enum FeedFormat {
+    /**
+      * RSS 0.91 to 2.0, rooted at rss
+      */
+    RSS_2,
+    /**
+      * RSS 0.90 and 1.0, rooted at rdf:RDF
+      */
+    RSS_1,
+    /**
+      * Atom 1.0, rooted at feed
+      */
+    ATOM
+}
@@ -0,0 +1,78 @@
+/**
+  * FeedItem.java
+  * One entry of an RSS or Atom feed,
+  * as read by a FeedParser
+  */
+
+/**
+  * A lightweight record of the fields of one
+  * feed entry which are needed to build an
+  * Article. Entries of every feed format are
+  * normalized into the same fields. Any field
+  * missing from the entry is null.
+  */
+public class FeedItem {
+    /**
+      * Constructor
+      * @param title The entry's title
+      * @param link The URL of the entry's article
+      * @param description The entry's description
+      * @param date The entry's publication date
+      * @param guid The entry's unique identifier
+      */
+    public FeedItem(String title, String link, String description, String date, String guid) {
+	this.title=title;
+	this.link=link;
+	this.description=description;
+	this.date=date;
+	this.guid=guid;
+    }
+
+    /**
+      * Title Getter
+      * @return Title
+      */
+    public String GetTitle() {
+	return title;
+    }
+
+    /**
+      * Link Getter
+      * @return Link
+      */
+    public String GetLink() {
+	return link;
+    }
+
+    /**
+      * Description Getter
+      * @return Description
+      */
+    public String GetDescription() {
+	return description;
+    }
+
+    /**
+      * Date Getter
+      * @return Date
+      */
+    public String GetDate() {
+	return date;
+    }
+
+    /**
+      * Guid Getter
+      * This is the RSS guid, the Atom id or
+      * the RSS 1.0 rdf:about of the entry
+      * @return Unique identifier of the entry
+      */
+    public String GetGuid() {
+	return guid;
+    }
+
+    private String title;
+    private String link;
+    private String description;
+    private String date;
+    private String guid;
+}
@@ -0,0 +1,267 @@
+/**
+  * FeedParser.java
+  * Reads the entries of an RSS or
+  * Atom feed one at a time
+  */
+
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+  * A streaming pull parser for RSS 2.0, RSS 1.0
+  * and Atom feeds. The format is detected from the
+  * root element as it is read, and every entry is
+  * normalized into a FeedItem. Each call to #Next()
+  * reads just far enough into the feed to return
+  * the next entry, so the caller can start working
+  * on an entry as soon as its closing tag has been
+  * read, and the feed is only ever read once. All
+  * FeedParsers share one XMLInputFactory, which is
+  * configured once and then only used to create
+  * readers.
+  */
+public class FeedParser {
+    /**
+      * Constructor
+      * @throws XMLStreamException if the feed cannot be read
+      * @param in The feed's stream. The encoding is
+      * taken from the XML declaration.
+      */
+    public FeedParser(InputStream in) throws XMLStreamException {
+	reader=FACTORY.createXMLStreamReader(in);
+	format=null;
+    }
+
+    /**
+      * Reads the next entry of the feed
+      * @throws XMLStreamException if the feed is malformed
+      * or is not in a known format
+      * @return The next entry, or null at the end of the feed
+      */
+    public FeedItem Next() throws XMLStreamException {
+	while(reader.hasNext()) {
+	    if(reader.next()!=XMLStreamConstants.START_ELEMENT)
+		continue;
+	    if(format==null)
+		format=detectFormat();
+	    else if(isEntry())
+		return readEntry();
+	}
+	return null;
+    }
+
+    /**
+      * Format Getter
+      * @return The format of the feed, or null
+      * if the root element has not been read yet
+      */
+    public FeedFormat GetFormat() {
+	return format;
+    }
+
+    /**
+      * Closes the parser. This does not
+      * close the underlying stream.
+      * @throws XMLStreamException if error occurs while closing
+      */
+    public void Close() throws XMLStreamException {
+	reader.close();
+    }
+
+    /**
+      * Works out the format of the feed
+      * from its root element
+      * @throws XMLStreamException if the root element
+      * is not that of a known format
+      * @return The format of the feed
+      */
+    private FeedFormat detectFormat() throws XMLStreamException {
+	String name=reader.getLocalName();
+	String ns=namespace();
+	if(name.equals("rss") && ns.length()==0)
+	    return FeedFormat.RSS_2;
+	if(name.equals("RDF") && ns.equals(RDF_NS))
+	    return FeedFormat.RSS_1;
+	if(name.equals("feed") && ns.equals(ATOM_NS))
+	    return FeedFormat.ATOM;
+	throw new XMLStreamException("Unknown feed format with root element "+name);
+    }
+
+    /**
+      * Checks whether the current element
+      * starts an entry of the feed
+      * @return true if it is an item or Atom entry
+      */
+    private boolean isEntry() {
+	String name=reader.getLocalName();
+	String ns=namespace();
+	switch(format) {
+	    case RSS_2:
+		return name.equals("item") && ns.length()==0;
+	    case RSS_1:
+		return name.equals("item") && (ns.equals(RSS_1_NS) || ns.equals(RSS_090_NS));
+	    default:
+		return name.equals("entry") && ns.equals(ATOM_NS);
+	}
+    }
+
+    /**
+      * Reads the fields of an entry, from just after
+      * its start tag to its end tag. Only the entry's
+      * own child elements are used. Those in a namespace
+      * the format does not use, such as media:title,
+      * are ignored, except that a Dublin Core date
+      * is used when the format's own date is missing.
+      * @throws XMLStreamException if the feed is malformed
+      * @return The entry
+      */
+    private FeedItem readEntry() throws XMLStreamException {
+	String title=null;
+	String link=null;
+	String description=null;
+	String content=null;
+	String date=null;
+	String dcDate=null;
+	String guid=null;
+	if(format==FeedFormat.RSS_1)
+	    guid=reader.getAttributeValue(RDF_NS,"about");
+
+	int depth=1;
+	while(depth>0 && reader.hasNext()) {
+	    int event=reader.next();
+	    if(event==XMLStreamConstants.END_ELEMENT) {
+		depth--;
+		continue;
+	    }
+	    if(event!=XMLStreamConstants.START_ELEMENT)
+		continue;
+	    if(depth>1) {
+		depth++;
+		continue;
+	    }
+	    //readText reads through the end tag, so
+	    //depth only goes up for skipped elements
+	    String name=reader.getLocalName();
+	    String ns=namespace();
+	    if(ns.equals(DC_NS) && name.equals("date"))
+		dcDate=readText();
+	    else if(!ns.equals(fieldNamespace(ns)))
+		depth++;
+	    else if(name.equals("title"))
+		title=readText();
+	    else if(name.equals("link") && format==FeedFormat.ATOM) {
+		//prefer the alternate link, which Atom
+		//also assumes when rel is missing
+		String rel=reader.getAttributeValue(null,"rel");
+		String href=reader.getAttributeValue(null,"href");
+		readText();
+		if(href!=null && (link==null || rel==null || rel.equals("alternate")))
+		    link=href.trim();
+	    }
+	    else if(name.equals("link"))
+		link=readText();
+	    else if(name.equals("description") || name.equals("summary"))
+		description=readText();
+	    else if(name.equals("content"))
+		content=readText();
+	    else if(name.equals("pubDate") || name.equals("published"))
+		date=readText();
+	    else if(name.equals("updated") && date==null)
+		date=readText();
+	    else if(name.equals("guid") || name.equals("id"))
+		guid=readText();
+	    else
+		depth++;
+	}
+	if(description==null)
+	    description=content;
+	if(date==null)
+	    date=dcDate;
+	return new FeedItem(title,link,description,date,guid);
+    }
+
+    /**
+      * Gets the namespace the fields of an entry must
+      * be in for the current format. RSS 1.0 feeds may
+      * use either the 1.0 or 0.90 namespace, so ns is
+      * returned if it is one of them.
+      * @param ns The namespace of the current element
+      * @return The namespace of the format's fields
+      */
+    private String fieldNamespace(String ns) {
+	switch(format) {
+	    case RSS_2:
+		return "";
+	    case RSS_1:
+		return ns.equals(RSS_090_NS)?RSS_090_NS:RSS_1_NS;
+	    default:
+		return ATOM_NS;
+	}
+    }
+
+    /**
+      * Reads the text of the current element, up to
+      * and including its end tag. The text of any
+      * child elements is included, which covers Atom's
+      * xhtml text constructs.
+      * @throws XMLStreamException if the feed is malformed
+      * @return The trimmed text, or null if it is empty
+      */
+    private String readText() throws XMLStreamException {
+	StringBuilder text = new StringBuilder();
+	int depth=1;
+	while(depth>0 && reader.hasNext()) {
+	    int event=reader.next();
+	    if(event==XMLStreamConstants.START_ELEMENT)
+		depth++;
+	    else if(event==XMLStreamConstants.END_ELEMENT)
+		depth--;
+	    else if(event==XMLStreamConstants.CHARACTERS
+		    || event==XMLStreamConstants.CDATA
+		    || event==XMLStreamConstants.SPACE)
+		text.append(reader.getText());
+	}
+	String s=text.toString().trim();
+	return s.length()==0?null:s;
+    }
+
+    /**
+      * Gets the namespace of the current element
+      * @return The namespace URI, or an empty
+      * String if there is none
+      */
+    private String namespace() {
+	String ns=reader.getNamespaceURI();
+	return ns==null?"":ns;
+    }
+
+    /**
+      * Creates the shared XMLInputFactory. DTDs
+      * and external entities are turned off, since
+      * a feed should never need them and resolving
+      * them would mean more network requests.
+      * @return The configured factory
+      */
+    private static XMLInputFactory createFactory() {
+	XMLInputFactory factory=XMLInputFactory.newInstance();
+	factory.setProperty(XMLInputFactory.SUPPORT_DTD,false);
+	factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,false);
+	factory.setProperty(XMLInputFactory.IS_COALESCING,true);
+	return factory;
+    }
+
+    private static final String RDF_NS="http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+    private static final String RSS_1_NS="http://purl.org/rss/1.0/";
+    private static final String RSS_090_NS="http://my.netscape.com/rdf/simple/0.9/";
+    private static final String ATOM_NS="http://www.w3.org/2005/Atom";
+    private static final String DC_NS="http://purl.org/dc/elements/1.1/";
+
+    private static final XMLInputFactory FACTORY=createFactory();
+
+    private XMLStreamReader reader;
+    private FeedFormat format;
+}
@@ -0,0 +1,159 @@
+/**
+  * FeedRefresher.java
+  * Polls the feeds again after the crawl
+  * and indexes the articles they gain
+  */
+
+import java.util.List;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+  * Keeps an InvertedIndex up to date once the
+  * crawl has finished. Each feed is polled on its
+  * own schedule, kept in its FeedState: a timer
+  * thread waits out the feed's interval and then
+  * runs an RSSFeedThread for it, exactly as the
+  * crawl does, so only items which are not already
+  * indexed are downloaded. The next poll of a feed
+  * is scheduled once the last of its new articles
+  * has been indexed, so a feed is never polled
+  * twice at once. New articles are added to the
+  * live index, which queries keep reading from
+  * without waiting.
+  */
+public class FeedRefresher {
+    /**
+      * Constructor
+      * @param feeds The feeds to poll, with the
+      * state left by the crawl
+      * @param index The InvertedIndex to add articles to
+      * @param duplicates The DuplicateFilter holding
+      * every article already indexed
+      * @param fetcher The HttpFetcher to fetch with
+      * @param threadPool The ExecutorService to run the
+      * feeds and articles on. It is shut down by #Stop()
+      * @param config The settings of the crawl
+      */
+    public FeedRefresher(
+	    List<FeedState> feeds,
+	    InvertedIndex index,
+	    DuplicateFilter duplicates,
+	    HttpFetcher fetcher,
+	    ExecutorService threadPool,
+	    CrawlConfig config) {
+	this.feeds=feeds;
+	this.index=index;
+	this.duplicates=duplicates;
+	this.fetcher=fetcher;
+	this.threadPool=threadPool;
+	this.config=config;
+	feedPermits = config.GetMaxFeeds()>0?new Semaphore(config.GetMaxFeeds()):null;
+	scheduler = new HostScheduler(threadPool,
+		config.GetMaxPerHost(), config.GetHostDelay(), config.GetMaxArticles());
+	reporter = new CrawlReporter(config.GetCrawlListener());
+    }
+
+    /**
+      * Schedules the first refresh of every feed
+      */
+    public synchronized void Start() {
+	initialArticles=index.GetNumArticles();
+	timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+	    public Thread newThread(Runnable r) {
+		Thread t = new Thread(r, "NiftyRSS refresh");
+		t.setDaemon(true);
+		return t;
+	    }
+	});
+	scheduler.Start();
+	reporter.Start();
+	for(FeedState feed : feeds)
+	    schedule(feed);
+    }
+
+    /**
+      * Stops polling. Polls which have started
+      * are interrupted, and their articles which
+      * are not yet indexed are dropped.
+      */
+    public synchronized void Stop() {
+	if(timer==null || stopped)
+	    return;
+	stopped=true;
+	timer.shutdownNow();
+	scheduler.Close();
+	threadPool.shutdownNow();
+	reporter.Finish();
+    }
+
+    /**
+      * Gets the number of articles added
+      * to the index by refreshes
+      * @return Number of Articles added
+      */
+    public int GetNumRefreshed() {
+	return index.GetNumArticles()-initialArticles;
+    }
+
+    /**
+      * Waits out a feed's interval, then polls it
+      * @param feed The feed to poll
+      */
+    private synchronized void schedule(final FeedState feed) {
+	if(stopped)
+	    return;
+	timer.schedule(new Runnable() {
+	    public void run() {
+		poll(feed);
+	    }
+	}, feed.GetInterval(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+      * Polls a feed. Its phaser advances once the
+      * feed and all of its new articles are done,
+      * which schedules the next poll.
+      * @param feed The feed to poll
+      */
+    private synchronized void poll(final FeedState feed) {
+	if(stopped)
+	    return;
+	Phaser articlePhaser = new Phaser(1) {
+	    protected boolean onAdvance(int phase, int parties) {
+		schedule(feed);
+		return true;
+	    }
+	};
+	threadPool.execute(new RSSFeedThread(
+		    scheduler,
+		    threadPool,
+		    feed,
+		    duplicates,
+		    index,
+		    articlePhaser,
+		    feedPermits,
+		    reporter,
+		    fetcher,
+		    config));
+    }
+
+    private List<FeedState> feeds;
+    private InvertedIndex index;
+    private DuplicateFilter duplicates;
+    private HttpFetcher fetcher;
+    private ExecutorService threadPool;
+    private CrawlConfig config;
+    private Semaphore feedPermits;
+    private HostScheduler scheduler;
+    private CrawlReporter reporter;
+    private ScheduledExecutorService timer;
+    private boolean stopped;
+    private int initialArticles;
+}
@@ -0,0 +1,101 @@
+/**
+  * FeedState.java
+  * What is known about one feed
+  * between polls of it
+  */
+
+import java.net.URL;
+
+/**
+  * The state of one feed which is kept from one
+  * poll to the next: when it was last polled, how
+  * many new items it had, and how long to wait
+  * before polling it again. Every item of a poll
+  * is checked against the DuplicateFilter, so only
+  * the items which are not already indexed are
+  * downloaded, wherever the feed lists them and
+  * including any whose download failed before.
+  * The interval halves each time the feed has new
+  * items and doubles each time it has none, between
+  * the bounds given by the CrawlConfig, so busy
+  * feeds are polled often and quiet ones rarely.
+  * A FeedState is only used by one poll at a time,
+  * and each poll starts after the one before has
+  * finished, so it needs no locking of its own.
+  */
+public class FeedState {
+    /**
+      * Constructor
+      * Creates the state of a feed
+      * which has never been polled
+      * @param url The URL of the feed
+      * @param interval The time to wait before
+      * the first refresh, in milliseconds
+      */
+    public FeedState(URL url, long interval) {
+	this.url=url;
+	this.interval=interval;
+	lastPoll=0;
+	numNewItems=0;
+    }
+
+    /**
+      * URL Getter
+      * @return The URL of the feed
+      */
+    public URL GetURL() {
+	return url;
+    }
+
+    /**
+      * Last Poll Getter
+      * @return The time the last poll finished, in
+      * milliseconds since the epoch, or 0 if the
+      * feed has never been polled
+      */
+    public long GetLastPoll() {
+	return lastPoll;
+    }
+
+    /**
+      * Interval Getter
+      * @return The time to wait before the
+      * next poll, in milliseconds
+      */
+    public long GetInterval() {
+	return interval;
+    }
+
+    /**
+      * Num New Items Getter
+      * @return The number of new items
+      * found by the last poll
+      */
+    public int GetNumNewItems() {
+	return numNewItems;
+    }
+
+    /**
+      * Records a finished poll and works out
+      * how long to wait before the next one
+      * @param numNewItems The number of new items found
+      * @param minInterval The shortest time between
+      * polls, in milliseconds
+      * @param maxInterval The longest time between
+      * polls, in milliseconds
+      */
+    public void Polled(int numNewItems, long minInterval, long maxInterval) {
+	lastPoll=System.currentTimeMillis();
+	this.numNewItems=numNewItems;
+	if(numNewItems>0)
+	    interval/=2;
+	else
+	    interval*=2;
+	interval=Math.max(minInterval,Math.min(interval,Math.max(minInterval,maxInterval)));
+    }
+
+    private URL url;
+    private long lastPoll;
+    private long interval;
+    private int numNewItems;
+}
@@ -0,0 +1,67 @@
+/**
+  * FetchResponse.java
+  * The body of a URL fetched by
+  * an HttpFetcher
+  */
+
+import java.io.InputStream;
+import java.io.IOException;
+
+/**
+  * A fetched body, ready to be read. The body
+  * has already had any gzip or deflate encoding
+  * removed, and may have come from the cache
+  * rather than the network.
+  */
+public class FetchResponse {
+    /**
+      * Constructor
+      * @param stream The decoded body
+      * @param contentType The Content-Type of the body,
+      * or null if it is not known
+      * @param fromCache true if the body is a cached copy
+      */
+    public FetchResponse(InputStream stream, String contentType, boolean fromCache) {
+	this.stream=stream;
+	this.contentType=contentType;
+	this.fromCache=fromCache;
+    }
+
+    /**
+      * Stream Getter
+      * @return The decoded body
+      */
+    public InputStream GetStream() {
+	return stream;
+    }
+
+    /**
+      * Content Type Getter
+      * @return The Content-Type of the body,
+      * or null if it is not known
+      */
+    public String GetContentType() {
+	return contentType;
+    }
+
+    /**
+      * Checks whether the body came from the cache,
+      * because the server answered 304 Not Modified
+      * @return true if the body is a cached copy
+      */
+    public boolean IsFromCache() {
+	return fromCache;
+    }
+
+    /**
+      * Closes the body
+      * @throws IOException if error occurs while closing
+      */
+    public void Close() throws IOException {
+	stream.close();
+    }
+
+    private InputStream stream;
+    private String contentType;
+    private boolean fromCache;
+}
@@ -0,0 +1,384 @@
+/**
+  * HostScheduler.java
+  * Spreads article downloads across hosts
+  * so that no single site is overloaded
+  */
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import java.util.function.BiConsumer;
+
+/**
+  * Holds back tasks which download from the same
+  * host so they reach the host politely. Tasks are
+  * queued per host (and port), and a dispatcher
+  * thread hands them to an ExecutorService in turn,
+  * taking one task from each host that is ready
+  * before taking a second from any of them. A host
+  * is ready when it has fewer than the maximum
+  * number of tasks running and the minimum delay
+  * has passed since its last task was started.
+  * Many hosts are downloaded from at once, so the
+  * crawl stays fast, but each one only sees a
+  * trickle of requests. There may also be a limit
+  * on the number of tasks running across all hosts.
+  * A task is either a Runnable, which is running
+  * until it returns, or an AsyncTask, which is
+  * running until the future it starts completes.
+  * All of the state is guarded by the scheduler's
+  * monitor, which is only held to move a task
+  * between queues, never while a task runs or is
+  * handed to the ExecutorService. A task which is
+  * never run, because the scheduler is closed or
+  * the ExecutorService refuses it, is dropped: if
+  * it is Droppable it is told so, and can give
+  * back whatever it holds.
+  */
+public class HostScheduler {
+    /**
+      * Constructor
+      * @param executor The ExecutorService to run
+      * tasks on once their host is ready
+      * @param maxPerHost The maximum number of tasks
+      * running at once for one host, or 0 for no limit
+      * @param delayMillis The minimum time between
+      * starting two tasks for one host, in milliseconds
+      * @param maxRunning The maximum number of tasks
+      * running at once for all hosts, or 0 for no limit
+      */
+    public HostScheduler(ExecutorService executor, int maxPerHost, long delayMillis, int maxRunning) {
+	this.executor=executor;
+	this.maxPerHost=maxPerHost>0?maxPerHost:Integer.MAX_VALUE;
+	this.maxRunning=maxRunning>0?maxRunning:Integer.MAX_VALUE;
+	this.delayNanos=delayMillis*1000000L;
+	hosts = new HashMap<String, Host>();
+	rotation = new ArrayDeque<Host>();
+    }
+
+    /**
+      * Starts the dispatcher thread
+      */
+    public void Start() {
+	dispatcher = new Thread(new Runnable() {
+	    public void run() {
+		dispatch();
+	    }
+	}, "NiftyRSS scheduler");
+	dispatcher.setDaemon(true);
+	dispatcher.start();
+    }
+
+    /**
+      * Stops the dispatcher thread. Tasks which
+      * are still queued are never run, and are
+      * dropped, as are tasks submitted afterwards.
+      */
+    public void Close() {
+	ArrayList<Task> dropped = new ArrayList<Task>();
+	synchronized(this) {
+	    closed=true;
+	    for(Host host : hosts.values()) {
+		dropped.addAll(host.tasks);
+		host.tasks.clear();
+	    }
+	    rotation.clear();
+	    notifyAll();
+	}
+	for(Task task : dropped)
+	    drop(task.submitted);
+    }
+
+    /**
+      * Queues a task behind the other tasks
+      * for the same host, or drops it if the
+      * scheduler is closed
+      * @param link The URL the task downloads
+      * @param task The task
+      */
+    public void Submit(String link, final Runnable task) {
+	synchronized(this) {
+	    if(!closed) {
+		final Host host=getHost(link);
+		enqueue(host,new Task(host,task) {
+		    public void run() {
+			try {
+			    task.run();
+			}
+			finally {
+			    finished(host);
+			}
+		    }
+		});
+		return;
+	    }
+	}
+	drop(task);
+    }
+
+    /**
+      * Queues an asynchronous task behind the
+      * other tasks for the same host, or drops
+      * it if the scheduler is closed
+      * @param link The URL the task downloads
+      * @param task The task
+      */
+    public void Submit(String link, final AsyncTask task) {
+	synchronized(this) {
+	    if(!closed) {
+		final Host host=getHost(link);
+		enqueue(host,new Task(host,task) {
+		    public void run() {
+			CompletableFuture<?> future;
+			try {
+			    future=task.Start();
+			}
+			catch (RuntimeException e) {
+			    finished(host);
+			    throw e;
+			}
+			future.whenComplete(new BiConsumer<Object, Throwable>() {
+			    public void accept(Object result, Throwable error) {
+				finished(host);
+			    }
+			});
+		    }
+		});
+		return;
+	    }
+	}
+	drop(task);
+    }
+
+    /**
+      * A task which starts some work and
+      * returns without waiting for it
+      */
+    public interface AsyncTask {
+	/**
+	  * Starts the work
+	  * @return A future which completes
+	  * when the work is done
+	  */
+	CompletableFuture<?> Start();
+    }
+
+    /**
+      * A task which holds something, such as a claim
+      * or a party of a phaser, that it must give back
+      * if it is dropped rather than run
+      */
+    public interface Droppable {
+	/**
+	  * Gives back what the task holds. Called
+	  * instead of running the task, never while
+	  * the scheduler's monitor is held.
+	  */
+	void Drop();
+    }
+
+    /**
+      * Gets the key tasks are grouped by, which is
+      * the host and port of their URL, so that servers
+      * on different ports of one machine count as
+      * different hosts
+      * @param link The URL, or null
+      * @return The lowercase host and port, or an empty
+      * String if link is not a valid URL
+      */
+    public static String HostKey(String link) {
+	if(link==null)
+	    return "";
+	try {
+	    URI uri = new URI(link);
+	    if(uri.getHost()==null)
+		return "";
+	    return uri.getHost().toLowerCase(Locale.ROOT)+":"+uri.getPort();
+	}
+	catch (URISyntaxException e) {
+	    return "";
+	}
+    }
+
+    /**
+      * Gets the queue of the host of a URL,
+      * creating it if it does not exist.
+      * Must be called with the monitor held.
+      * @param link The URL
+      * @return The host
+      */
+    private Host getHost(String link) {
+	String key=HostKey(link);
+	Host host=hosts.get(key);
+	if(host==null) {
+	    host = new Host();
+	    hosts.put(key,host);
+	}
+	return host;
+    }
+
+    /**
+      * Adds a task to the queue of its host.
+      * Must be called with the monitor held.
+      * @param host The host
+      * @param task The task, which must call
+      * #finished(Host host) when it is done
+      */
+    private void enqueue(Host host, Task task) {
+	if(host.tasks.isEmpty())
+	    rotation.addLast(host);
+	host.tasks.addLast(task);
+	notifyAll();
+    }
+
+    /**
+      * The body of the dispatcher thread. Hands each
+      * task to the ExecutorService as its host becomes
+      * ready. A task the ExecutorService refuses, because
+      * it has been shut down, is dropped and no longer
+      * counts as running.
+      */
+    private void dispatch() {
+	Task task;
+	while((task=next())!=null) {
+	    try {
+		executor.execute(task);
+	    }
+	    catch (RejectedExecutionException e) {
+		finished(task.host);
+		drop(task.submitted);
+	    }
+	}
+    }
+
+    /**
+      * Waits for the next task to start. Takes the
+      * next task of the first ready host in the
+      * rotation, then moves that host to the back.
+      * When no host is ready, waits until a delay
+      * runs out or a task is submitted or finishes.
+      * @return The task, which is counted as running,
+      * or null once the scheduler is closed
+      */
+    private synchronized Task next() {
+	while(!closed) {
+	    long now=System.nanoTime();
+	    long wait=Long.MAX_VALUE;
+	    Host ready=null;
+	    for(int i=running<maxRunning?rotation.size():0;i>0 && ready==null;i--) {
+		Host host=rotation.pollFirst();
+		if(host.running<maxPerHost) {
+		    long left=host.nextStart-now;
+		    if(left<=0)
+			ready=host;
+		    else
+			wait=Math.min(wait,left);
+		}
+		if(ready==null)
+		    rotation.addLast(host);
+	    }
+	    if(ready!=null)
+		return start(ready,now);
+	    try {
+		if(wait==Long.MAX_VALUE)
+		    wait();
+		else
+		    wait(wait/1000000,(int)(wait%1000000));
+	    }
+	    catch (InterruptedException e) {
+		return null;
+	    }
+	}
+	return null;
+    }
+
+    /**
+      * Takes the next task of a host and counts
+      * it as running.
+      * Must be called with the monitor held.
+      * @param host The host, which has just been
+      * taken out of the rotation
+      * @param now The current System#nanoTime()
+      * @return The task
+      */
+    private Task start(Host host, long now) {
+	Task task=host.tasks.pollFirst();
+	host.running++;
+	running++;
+	host.nextStart=now+delayNanos;
+	if(!host.tasks.isEmpty())
+	    rotation.addLast(host);
+	return task;
+    }
+
+    /**
+      * Records that a task of a host has finished,
+      * which may make the host ready again
+      * @param host The host
+      */
+    private synchronized void finished(Host host) {
+	host.running--;
+	running--;
+	notifyAll();
+    }
+
+    /**
+      * Tells a task which is never run that it was
+      * dropped, if it is Droppable
+      * @param task The task as it was submitted
+      */
+    private static void drop(Object task) {
+	if(task instanceof Droppable)
+	    ((Droppable)task).Drop();
+    }
+
+    /**
+      * A submitted task as it waits in the queue of
+      * its host. Running it runs the task and then
+      * records that it has finished.
+      */
+    private abstract class Task implements Runnable {
+	Task(Host host, Object submitted) {
+	    this.host=host;
+	    this.submitted=submitted;
+	}
+
+	Host host;
+	Object submitted;
+    }
+
+    /**
+      * The queued tasks of one host and
+      * when it may next be downloaded from
+      */
+    private static class Host {
+	Host() {
+	    tasks = new ArrayDeque<Task>();
+	    running=0;
+	    nextStart=System.nanoTime();
+	}
+
+	ArrayDeque<Task> tasks;
+	int running;
+	long nextStart;
+    }
+
+    private ExecutorService executor;
+    private int maxPerHost;
+    private int maxRunning;
+    private int running;
+    private long delayNanos;
+    private HashMap<String, Host> hosts;
+    private ArrayDeque<Host> rotation;
+    private Thread dispatcher;
+    private boolean closed;
+}
@@ -0,0 +1,422 @@
+/**
+  * HtmlTextReader.java
+  * Strips the markup out of an HTML
+  * page as it is read
+  */
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+  * A Reader which passes through only the visible
+  * text of the HTML read from another Reader. Tags
+  * and comments are dropped, as is everything
+  * inside script and style elements and inside the
+  * page furniture which is rarely part of an article:
+  * the head, navigation, footers, asides, drop-down
+  * lists and embedded objects. Headers and forms are
+  * kept, since an article's headline is often in its
+  * header, and some sites wrap the whole page in a
+  * form. Character references are decoded. Every
+  * tag is replaced by a space, so words on either
+  * side of a tag stay separate. The page is
+  * processed in a single pass with one character
+  * of lookahead.
+  */
+public class HtmlTextReader extends Reader {
+    /**
+      * Constructor
+      * @param in The Reader to read HTML from
+      */
+    public HtmlTextReader(Reader in) {
+	this.in=in;
+	buffer = new char[BUFFER_SIZE];
+	pos=0;
+	length=0;
+	pushback=-1;
+    }
+
+    /**
+      * Reads visible text from the page
+      * @throws IOException if error occurs while reading
+      * @return Number of characters read, or -1
+      * at the end of the page
+      */
+    public int read(char[] out, int offset, int count) throws IOException {
+	int n=0;
+	while(n<count) {
+	    int c=next();
+	    if(c<0)
+		break;
+	    if(c=='<') {
+		if(!readMarkup())
+		    out[offset+n++]='<';
+		else
+		    out[offset+n++]=' ';
+	    }
+	    else if(c=='&')
+		out[offset+n++]=readReference();
+	    else
+		out[offset+n++]=(char)c;
+	}
+	return n==0 && count>0?-1:n;
+    }
+
+    /**
+      * Closes the underlying Reader
+      * @throws IOException if error occurs while closing
+      */
+    public void close() throws IOException {
+	in.close();
+    }
+
+    /**
+      * Reads the markup following a '&lt;', skipping
+      * the whole element if it is one whose contents
+      * are not visible text
+      * @throws IOException if error occurs while reading
+      * @return true if it was markup, or false if the
+      * '&lt;' was a literal character
+      */
+    private boolean readMarkup() throws IOException {
+	String name=readTag();
+	if(name==null)
+	    return false;
+	if(name.length()>0 && !closing && !selfClosing) {
+	    if(name.equals("head"))
+		skipHead();
+	    else if(isRawText(name))
+		skipRawText(name);
+	    else if(isHidden(name))
+		skipElement(name);
+	}
+	return true;
+    }
+
+    /**
+      * Reads one tag, comment or declaration, after
+      * its '&lt;'. The name of the tag is returned, and
+      * #closing and #selfClosing are set to describe it.
+      * @throws IOException if error occurs while reading
+      * @return The lowercase name of the tag, an empty
+      * String for a comment or declaration, or null if
+      * the '&lt;' does not start any markup
+      */
+    private String readTag() throws IOException {
+	closing=false;
+	selfClosing=false;
+	int c=next();
+	if(c=='!') {
+	    c=next();
+	    if(c=='-' && (c=next())=='-')
+		skipComment();
+	    else
+		skipTo('>');
+	    return "";
+	}
+	if(c=='?') {
+	    skipTo('>');
+	    return "";
+	}
+	if(c=='/') {
+	    closing=true;
+	    c=next();
+	}
+	if(!isLetter(c)) {
+	    if(!closing) {
+		unread(c);
+		return null;
+	    }
+	    //a bogus end tag is dropped like a comment
+	    unread(c);
+	    skipTo('>');
+	    return "";
+	}
+	StringBuilder name = new StringBuilder();
+	while(isLetter(c) || (c>='0' && c<='9') || c=='-' || c==':') {
+	    name.append(Character.toLowerCase((char)c));
+	    c=next();
+	}
+	//skip the attributes, which may contain a
+	//'>' inside quotes
+	int last=c;
+	while(c>=0 && c!='>') {
+	    if(c=='"' || c=='\'') {
+		skipTo(c);
+		last=c;
+	    }
+	    else if(!Character.isWhitespace(c))
+		last=c;
+	    c=next();
+	}
+	selfClosing=last=='/';
+	return name.toString();
+    }
+
+    /**
+      * Skips an element which may contain other
+      * elements, up to and including its end tag
+      * @throws IOException if error occurs while reading
+      * @param name The lowercase name of the element
+      */
+    private void skipElement(String name) throws IOException {
+	int depth=1;
+	int c;
+	while(depth>0 && (c=next())>=0) {
+	    if(c!='<')
+		continue;
+	    String tag=readTag();
+	    if(tag==null || !closing && selfClosing)
+		continue;
+	    if(!closing && isRawText(tag))
+		skipRawText(tag);
+	    else if(tag.equals(name))
+		depth+=closing?-1:1;
+	}
+    }
+
+    /**
+      * Skips the head of the page, up to and including
+      * its end tag. The end tag may be left out, so
+      * the head also ends at the start tag of anything
+      * which only belongs in the body, such as body
+      * itself, which is then read as it would be
+      * anywhere else.
+      * @throws IOException if error occurs while reading
+      */
+    private void skipHead() throws IOException {
+	int c;
+	while((c=next())>=0) {
+	    if(c!='<')
+		continue;
+	    String tag=readTag();
+	    if(tag==null || tag.length()==0)
+		continue;
+	    if(closing) {
+		if(tag.equals("head"))
+		    return;
+		continue;
+	    }
+	    if(selfClosing)
+		continue;
+	    //a title cannot contain tags, so its text
+	    //must not be taken for the start of the body
+	    if(tag.equals("title") || isRawText(tag))
+		skipRawText(tag);
+	    else if(tag.equals("noscript") || tag.equals("template"))
+		skipElement(tag);
+	    else if(!isHeadContent(tag)) {
+		if(isHidden(tag))
+		    skipElement(tag);
+		return;
+	    }
+	}
+    }
+
+    /**
+      * Skips the contents of an element which cannot
+      * contain other elements, such as a script, up
+      * to and including its end tag
+      * @throws IOException if error occurs while reading
+      * @param name The lowercase name of the element
+      */
+    private void skipRawText(String name) throws IOException {
+	int c;
+	while((c=next())>=0) {
+	    if(c!='<')
+		continue;
+	    if((c=next())!='/') {
+		unread(c);
+		continue;
+	    }
+	    int i=0;
+	    while(i<name.length() && (c=next())>=0 && Character.toLowerCase((char)c)==name.charAt(i))
+		i++;
+	    if(i==name.length()) {
+		skipTo('>');
+		return;
+	    }
+	    unread(c);
+	}
+    }
+
+    /**
+      * Skips a comment, after its opening
+      * "&lt;!--", up to and including "--&gt;"
+      * @throws IOException if error occurs while reading
+      */
+    private void skipComment() throws IOException {
+	int dashes=0;
+	int c;
+	while((c=next())>=0) {
+	    if(c=='>' && dashes>=2)
+		return;
+	    dashes=c=='-'?dashes+1:0;
+	}
+    }
+
+    /**
+      * Skips up to and including a character
+      * @throws IOException if error occurs while reading
+      * @param end The character to stop after
+      */
+    private void skipTo(int end) throws IOException {
+	int c;
+	while((c=next())>=0 && c!=end);
+    }
+
+    /**
+      * Reads a character reference, after its '&amp;'.
+      * Numeric references and the common named ones
+      * are decoded. Any other named reference is
+      * read as a space, since it cannot be part of
+      * an indexed word. A '&amp;' which does not start
+      * a reference is read as itself.
+      * @throws IOException if error occurs while reading
+      * @return The character the reference stands for
+      */
+    private char readReference() throws IOException {
+	int c=next();
+	if(c=='#') {
+	    int radix=10;
+	    c=next();
+	    if(c=='x' || c=='X') {
+		radix=16;
+		c=next();
+	    }
+	    int value=0;
+	    int digits=0;
+	    while(c>=0 && Character.digit(c,radix)>=0 && digits<8) {
+		value=value*radix+Character.digit(c,radix);
+		digits++;
+		c=next();
+	    }
+	    if(c!=';')
+		unread(c);
+	    if(digits==0 || value>Character.MAX_VALUE)
+		return ' ';
+	    return (char)value;
+	}
+	if(!isLetter(c)) {
+	    unread(c);
+	    return '&';
+	}
+	StringBuilder name = new StringBuilder();
+	while((isLetter(c) || (c>='0' && c<='9')) && name.length()<MAX_REFERENCE_LENGTH) {
+	    name.append((char)c);
+	    c=next();
+	}
+	if(c!=';')
+	    unread(c);
+	String s=name.toString();
+	if(s.equals("amp"))
+	    return '&';
+	if(s.equals("lt"))
+	    return '<';
+	if(s.equals("gt"))
+	    return '>';
+	if(s.equals("quot"))
+	    return '"';
+	if(s.equals("apos"))
+	    return '\'';
+	return ' ';
+    }
+
+    /**
+      * Reads the next character of the HTML
+      * @throws IOException if error occurs while reading
+      * @return The next character, or -1 at the end
+      */
+    private int next() throws IOException {
+	if(pushback>=0) {
+	    int c=pushback;
+	    pushback=-1;
+	    return c;
+	}
+	if(pos==length) {
+	    length=in.read(buffer,0,buffer.length);
+	    pos=0;
+	    if(length<=0) {
+		length=0;
+		return -1;
+	    }
+	}
+	return buffer[pos++];
+    }
+
+    /**
+      * Puts back one character, so it is
+      * returned by the next call to #next()
+      * @param c The character, or -1 which
+      * is ignored
+      */
+    private void unread(int c) {
+	pushback=c;
+    }
+
+    /**
+      * Checks for an ASCII letter
+      * @param c The character to check
+      * @return true if c is an ASCII letter
+      */
+    private static boolean isLetter(int c) {
+	return (c>='a' && c<='z') || (c>='A' && c<='Z');
+    }
+
+    /**
+      * Checks for an element whose contents are
+      * never parsed as HTML
+      * @param name The lowercase name of the element
+      * @return true if the element is a script or style
+      */
+    private static boolean isRawText(String name) {
+	return name.equals("script") || name.equals("style");
+    }
+
+    /**
+      * Checks for an element whose contents
+      * should not be indexed
+      * @param name The lowercase name of the element
+      * @return true if the element's text is hidden
+      * or page furniture
+      */
+    private static boolean isHidden(String name) {
+	for(String hidden : HIDDEN_ELEMENTS)
+	    if(hidden.equals(name))
+		return true;
+	return false;
+    }
+
+    /**
+      * Checks for an element which only belongs
+      * in the head, and has no end tag
+      * @param name The lowercase name of the element
+      * @return true if the element is part of the head
+      */
+    private static boolean isHeadContent(String name) {
+	for(String head : HEAD_ELEMENTS)
+	    if(head.equals(name))
+		return true;
+	return false;
+    }
+
+    private static final int BUFFER_SIZE=8192;
+    private static final int MAX_REFERENCE_LENGTH=32;
+    private static final String[] HIDDEN_ELEMENTS = {
+	"noscript", "template", "nav", "footer",
+	"aside", "select", "svg", "iframe", "object"
+    };
+    //the elements which belong in the head, and
+    //do not end it when its end tag is left out
+    private static final String[] HEAD_ELEMENTS = {
+	"meta", "link", "base", "basefont", "bgsound"
+    };
+
+    private Reader in;
+    private char[] buffer;
+    private int pos;
+    private int length;
+    private int pushback;
+    private boolean closing;
+    private boolean selfClosing;
+}
@@ -0,0 +1,865 @@
+/**
+  * HttpFetcher.java
+  * Downloads feeds and articles, using
+  * conditional requests and compression
+  * to avoid downloading what it already has
+  */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+
+import java.nio.ByteBuffer;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.time.Duration;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+  * Fetches URLs over HTTP with an optional on-disk
+  * cache. Every response which carries an ETag or
+  * Last-Modified header is saved in the cache
+  * directory, one file per URL, as it is read.
+  * The next fetch of that URL sends If-None-Match
+  * and If-Modified-Since, and if the server answers
+  * 304 Not Modified the saved body is returned
+  * instead. Responses are requested with gzip or
+  * deflate compression and decoded transparently.
+  * Every request has a connect and read timeout.
+  * A request which fails in a way that may not
+  * happen again (a timeout, a dropped connection,
+  * or a 408, 429 or 5xx status) is retried after an
+  * exponentially growing delay with random jitter,
+  * so the retries of many threads do not arrive
+  * together. Every failed attempt is counted against
+  * its URL, including errors while reading a body.
+  * With CrawlConfig#GetAsyncFetch() URLs can also be
+  * fetched asynchronously by #OpenAsync(URL url, int maxBytes),
+  * on an HttpClient which speaks HTTP/2 where the
+  * server does and keeps connections open between
+  * requests. The same cache, decoding, retries and
+  * failure counts apply.
+  * One HttpFetcher is shared by every thread of a
+  * crawl; cache files are replaced atomically, so
+  * concurrent fetches never see a partial entry.
+  */
+public class HttpFetcher {
+    /**
+      * Constructor
+      * @param config The settings of the crawl. If
+      * it has no cache directory, nothing is cached.
+      */
+    public HttpFetcher(CrawlConfig config) {
+	connectTimeout=config.GetConnectTimeout();
+	readTimeout=config.GetReadTimeout();
+	maxRetries=config.GetMaxRetries();
+	retryDelay=config.GetRetryDelay();
+	failures = new ConcurrentHashMap<String, Integer>();
+	client=null;
+	if(config.GetAsyncFetch()) {
+	    HttpClient.Builder builder = HttpClient.newBuilder()
+		    .version(HttpClient.Version.HTTP_2)
+		    .followRedirects(HttpClient.Redirect.NORMAL);
+	    if(connectTimeout>0)
+		builder.connectTimeout(Duration.ofMillis(connectTimeout));
+	    client=builder.build();
+	}
+	cacheDir=null;
+	if(config.GetCacheDirectory()!=null) {
+	    cacheDir = new File(config.GetCacheDirectory());
+	    if(!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+		System.out.printf("Cannot create cache directory %s. Caching disabled.\n",cacheDir);
+		cacheDir=null;
+	    }
+	}
+    }
+
+    /**
+      * Fetches a URL, retrying transient failures.
+      * Only opening the URL is retried: once the body
+      * is being read, an error is passed on to the
+      * reader, since the part already read is gone.
+      * @throws IOException if the URL cannot be fetched,
+      * or the thread is interrupted while waiting to retry
+      * @param url The URL to fetch
+      * @return The body of the URL
+      */
+    public FetchResponse Open(URL url) throws IOException {
+	for(int attempt=0;;attempt++) {
+	    try {
+		FetchResponse response=openOnce(url);
+		return new FetchResponse(new CountingInputStream(response.GetStream(),url),
+			response.GetContentType(),response.IsFromCache());
+	    }
+	    catch (IOException e) {
+		recordFailure(url);
+		if(attempt>=maxRetries || !isTransient(e))
+		    throw e;
+		backOff(attempt);
+	    }
+	}
+    }
+
+    /**
+      * Fetches a URL asynchronously, retrying transient
+      * failures. No thread waits while the request is
+      * in flight or between retries: the body is gathered
+      * by the HttpClient as it arrives, and the future
+      * completes once all of it is in memory, so reading
+      * the response never blocks on the network. At
+      * most maxBytes bytes of the body are downloaded,
+      * and at most maxBytes are read once it is decoded.
+      * A compressed body cut short decodes to what
+      * arrived, which is at least about maxBytes, so a
+      * body too long for the limit is truncated rather
+      * than failing. A truncated body is never cached.
+      * Requires CrawlConfig#GetAsyncFetch().
+      * @param url The URL to fetch
+      * @param maxBytes The most bytes of the body to read
+      * @return A future of the body of the URL, which fails
+      * with an IOException if the URL cannot be fetched
+      */
+    public CompletableFuture<FetchResponse> OpenAsync(URL url, int maxBytes) {
+	return openAsync(url,maxBytes,0,true);
+    }
+
+    /**
+      * Gets the IOException behind the failure
+      * of a future from #OpenAsync(URL url, int maxBytes)
+      * @param error The failure
+      * @return The IOException which caused it
+      */
+    public static IOException Unwrap(Throwable error) {
+	while((error instanceof CompletionException || error instanceof ExecutionException)
+		&& error.getCause()!=null)
+	    error=error.getCause();
+	if(error instanceof IOException)
+	    return (IOException)error;
+	return new IOException(error.toString(),error);
+    }
+
+    /**
+      * Gets the number of failed attempts to fetch
+      * each URL which has failed at least once. The
+      * map is live, so it keeps growing during a crawl.
+      * @return The URLs mapped to their failure counts
+      */
+    public Map<String, Integer> GetFailures() {
+	return Collections.unmodifiableMap(failures);
+    }
+
+    /**
+      * Makes an asynchronous attempt to fetch a URL,
+      * and schedules the next attempt if it fails
+      * @param url The URL to fetch
+      * @param maxBytes The most bytes of the body to keep
+      * @param attempt The number of this attempt,
+      * starting at 0
+      * @param useCache false to make an unconditional
+      * request even if the URL is cached
+      * @return A future of the body of the URL
+      */
+    private CompletableFuture<FetchResponse> openAsync(final URL url, final int maxBytes,
+	    final int attempt, final boolean useCache) {
+	final File entry=useCache?cacheFile(url):null;
+	final CacheHeader cached=entry==null?null:readHeader(entry);
+	HttpRequest.Builder request;
+	try {
+	    request = HttpRequest.newBuilder(url.toURI())
+		    .header("Accept-Encoding","gzip, deflate");
+	}
+	catch (URISyntaxException e) {
+	    return CompletableFuture.failedFuture(new IOException("Bad URL: "+url));
+	}
+	catch (IllegalArgumentException e) {
+	    return CompletableFuture.failedFuture(new IOException("Bad URL: "+url));
+	}
+	if(readTimeout>0)
+	    request.timeout(Duration.ofMillis(readTimeout));
+	if(cached!=null) {
+	    if(cached.etag.length()>0)
+		request.header("If-None-Match",cached.etag);
+	    if(cached.lastModified.length()>0)
+		request.header("If-Modified-Since",cached.lastModified);
+	}
+
+	return client.sendAsync(request.build(),BoundedBodySubscriber.Handler(maxBytes)).handle(
+		new BiFunction<HttpResponse<Body>, Throwable, CompletableFuture<FetchResponse>>() {
+		    public CompletableFuture<FetchResponse> apply(HttpResponse<Body> response, Throwable error) {
+			try {
+			    if(error!=null)
+				throw Unwrap(error);
+			    if(cached!=null && response.statusCode()==HttpURLConnection.HTTP_NOT_MODIFIED) {
+				InputStream body=openCachedBody(entry);
+				if(body!=null)
+				    return CompletableFuture.completedFuture(new FetchResponse(
+						new CountingInputStream(body,url),cached.contentType,true));
+				//the entry vanished since its header was read,
+				//so fall back to an unconditional request
+				return openAsync(url,maxBytes,attempt,false);
+			    }
+			    return CompletableFuture.completedFuture(respond(url,response,entry,maxBytes));
+			}
+			catch (IOException e) {
+			    recordFailure(url);
+			    if(attempt>=maxRetries || !isTransient(e))
+				return CompletableFuture.failedFuture(e);
+			    //the retry is sent from a timer, so nothing
+			    //waits for the delay to pass
+			    Executor later=CompletableFuture.delayedExecutor(
+				    backOffDelay(attempt),TimeUnit.MILLISECONDS);
+			    return CompletableFuture.supplyAsync(new Supplier<CompletableFuture<FetchResponse>>() {
+				public CompletableFuture<FetchResponse> get() {
+				    return openAsync(url,maxBytes,attempt+1,useCache);
+				}
+			    },later).thenCompose(Function.<CompletableFuture<FetchResponse>>identity());
+			}
+		    }
+		}).thenCompose(Function.<CompletableFuture<FetchResponse>>identity());
+    }
+
+    /**
+      * Builds the response for an asynchronous
+      * request whose body has arrived, decoding it
+      * and saving it to the cache if it has a validator
+      * and arrived whole
+      * @throws IOException if the request failed
+      * @param url The URL fetched
+      * @param response The response
+      * @param entry The cache file of the URL, or null
+      * @param maxBytes The most bytes of the decoded body to read
+      * @return The response
+      */
+    private FetchResponse respond(URL url, HttpResponse<Body> response, File entry, int maxBytes)
+	    throws IOException {
+	int status=response.statusCode();
+	if(status>=400)
+	    throw new HttpStatusException(url,status);
+	HttpHeaders headers=response.headers();
+	Body sent=response.body();
+	InputStream body;
+	try {
+	    body=decode(new ByteArrayInputStream(sent.bytes),
+		    headers.firstValue("Content-Encoding").orElse(null));
+	}
+	catch (EOFException e) {
+	    //cut short inside the gzip header
+	    if(!sent.truncated)
+		throw e;
+	    body = new ByteArrayInputStream(new byte[0]);
+	}
+	String etag=headers.firstValue("ETag").orElse(null);
+	String lastModified=headers.firstValue("Last-Modified").orElse(null);
+	String contentType=headers.firstValue("Content-Type").orElse(null);
+	if(sent.truncated)
+	    body = new CutShortInputStream(body);
+	else if(entry!=null && (etag!=null || lastModified!=null)) {
+	    CacheHeader header = new CacheHeader(etag,lastModified,contentType);
+	    body = new CachingInputStream(body,entry,header);
+	}
+	body = new BoundedInputStream(body,maxBytes);
+	return new FetchResponse(new CountingInputStream(body,url),contentType,false);
+    }
+
+    /**
+      * Makes one attempt to fetch a URL
+      * @throws IOException if the URL cannot be fetched
+      * @param url The URL to fetch
+      * @return The body of the URL
+      */
+    private FetchResponse openOnce(URL url) throws IOException {
+	URLConnection connection = url.openConnection();
+	if(!(connection instanceof HttpURLConnection))
+	    return new FetchResponse(connection.getInputStream(),connection.getContentType(),false);
+	HttpURLConnection http=prepare(connection);
+
+	File entry=cacheFile(url);
+	CacheHeader cached=entry==null?null:readHeader(entry);
+	if(cached!=null) {
+	    if(cached.etag.length()>0)
+		http.setRequestProperty("If-None-Match",cached.etag);
+	    if(cached.lastModified.length()>0)
+		http.setRequestProperty("If-Modified-Since",cached.lastModified);
+	}
+
+	if(cached!=null && http.getResponseCode()==HttpURLConnection.HTTP_NOT_MODIFIED) {
+	    http.disconnect();
+	    InputStream body=openCachedBody(entry);
+	    if(body!=null)
+		return new FetchResponse(body,cached.contentType,true);
+	    //the entry vanished since its header was read,
+	    //so fall back to an unconditional request
+	    http=prepare(url.openConnection());
+	}
+	return respond(http,entry);
+    }
+
+    /**
+      * Sets up the request headers shared
+      * by every HTTP request
+      * @param connection An unopened HTTP connection
+      * @return The connection
+      */
+    private HttpURLConnection prepare(URLConnection connection) {
+	HttpURLConnection http=(HttpURLConnection)connection;
+	http.setConnectTimeout(connectTimeout);
+	http.setReadTimeout(readTimeout);
+	http.setUseCaches(false);
+	http.setRequestProperty("Accept-Encoding","gzip, deflate");
+	return http;
+    }
+
+    /**
+      * Builds the response for a connection whose
+      * body is coming from the network, decoding
+      * it and saving it to the cache if it has
+      * a validator
+      * @throws IOException if the request failed
+      * @param http The connection
+      * @param entry The cache file of the URL, or null
+      * @return The response
+      */
+    private FetchResponse respond(HttpURLConnection http, File entry) throws IOException {
+	int status=http.getResponseCode();
+	if(status>=400) {
+	    http.disconnect();
+	    throw new HttpStatusException(http.getURL(),status);
+	}
+	InputStream body=decode(http.getInputStream(),http.getContentEncoding());
+	String etag=http.getHeaderField("ETag");
+	String lastModified=http.getHeaderField("Last-Modified");
+	String contentType=http.getContentType();
+	if(entry!=null && (etag!=null || lastModified!=null)) {
+	    CacheHeader header = new CacheHeader(etag,lastModified,contentType);
+	    body = new CachingInputStream(body,entry,header);
+	}
+	return new FetchResponse(body,contentType,false);
+    }
+
+    /**
+      * Counts a failed attempt to fetch a URL
+      * @param url The URL
+      */
+    private void recordFailure(URL url) {
+	String key=url.toString();
+	Integer count;
+	do {
+	    count=failures.putIfAbsent(key,1);
+	} while(count!=null && !failures.replace(key,count,count+1));
+    }
+
+    /**
+      * Checks whether a failure is worth retrying
+      * @param e The failure
+      * @return true if the same request may succeed
+      */
+    private static boolean isTransient(IOException e) {
+	if(e instanceof HttpStatusException)
+	    return ((HttpStatusException)e).IsTransient();
+	//an interrupted thread is being told to stop
+	if(e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException))
+	    return false;
+	//timeouts, refused and reset connections,
+	//but not unknown hosts or bad certificates
+	return e instanceof SocketTimeoutException || e instanceof SocketException
+		|| e instanceof HttpTimeoutException;
+    }
+
+    /**
+      * Waits before a retry. The n-th retry waits
+      * between half and all of retryDelay*2^n.
+      * @throws InterruptedIOException if interrupted
+      * @param attempt The number of the attempt which
+      * failed, starting at 0
+      */
+    private void backOff(int attempt) throws InterruptedIOException {
+	try {
+	    Thread.sleep(backOffDelay(attempt));
+	}
+	catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new InterruptedIOException("Interrupted while waiting to retry");
+	}
+    }
+
+    /**
+      * Picks the delay before a retry
+      * @param attempt The number of the attempt which
+      * failed, starting at 0
+      * @return A random delay between half and all
+      * of retryDelay*2^attempt, in milliseconds
+      */
+    private long backOffDelay(int attempt) {
+	long delay=retryDelay<<Math.min(attempt,16);
+	return delay/2+ThreadLocalRandom.current().nextLong(delay/2+1);
+    }
+
+    /**
+      * Removes the Content-Encoding of a body
+      * @throws IOException if the body is not
+      * validly encoded
+      * @param in The body as sent
+      * @param encoding The Content-Encoding, or null
+      * @return The decoded body
+      */
+    private static InputStream decode(InputStream in, String encoding) throws IOException {
+	if(encoding==null)
+	    return in;
+	encoding=encoding.trim().toLowerCase();
+	if(encoding.equals("gzip") || encoding.equals("x-gzip"))
+	    return new GZIPInputStream(in);
+	if(encoding.equals("deflate")) {
+	    //"deflate" should be zlib-wrapped, but some
+	    //servers send raw deflate data, so check the
+	    //zlib header before choosing
+	    BufferedInputStream buffered = new BufferedInputStream(in);
+	    buffered.mark(2);
+	    int cmf=buffered.read();
+	    int flg=buffered.read();
+	    buffered.reset();
+	    boolean zlib=cmf>=0 && flg>=0 && (cmf&0x0F)==8 && ((cmf<<8)|flg)%31==0;
+	    return new InflaterInputStream(buffered,new Inflater(!zlib));
+	}
+	return in;
+    }
+
+    /**
+      * Gets the cache file of a URL
+      * @param url The URL
+      * @return The file, or null if caching is off
+      */
+    private File cacheFile(URL url) {
+	if(cacheDir==null)
+	    return null;
+	try {
+	    MessageDigest sha=MessageDigest.getInstance("SHA-1");
+	    byte[] digest=sha.digest(url.toString().getBytes(StandardCharsets.UTF_8));
+	    StringBuilder name = new StringBuilder();
+	    for(byte b : digest)
+		name.append(String.format("%02x",b&0xFF));
+	    return new File(cacheDir,name.toString());
+	}
+	catch (NoSuchAlgorithmException e) {
+	    return null;
+	}
+    }
+
+    /**
+      * Reads the header of a cache file
+      * @param entry The cache file
+      * @return The header, or null if there is
+      * no valid entry
+      */
+    private static CacheHeader readHeader(File entry) {
+	if(!entry.isFile())
+	    return null;
+	DataInputStream in=null;
+	try {
+	    in = new DataInputStream(new BufferedInputStream(new FileInputStream(entry)));
+	    return CacheHeader.read(in);
+	}
+	catch (IOException e) {
+	    return null;
+	}
+	finally {
+	    try {
+		if(in!=null)
+		    in.close();
+	    }
+	    catch (IOException e) {}
+	}
+    }
+
+    /**
+      * Opens the body of a cache file
+      * @param entry The cache file
+      * @return A stream positioned at the start of
+      * the cached body, or null if it cannot be read
+      */
+    private static InputStream openCachedBody(File entry) {
+	try {
+	    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(entry)));
+	    try {
+		CacheHeader.read(in);
+	    }
+	    catch (IOException e) {
+		in.close();
+		return null;
+	    }
+	    return in;
+	}
+	catch (IOException e) {
+	    return null;
+	}
+    }
+
+    /**
+      * The validators and type of a cached body,
+      * stored at the start of its cache file
+      */
+    private static class CacheHeader {
+	CacheHeader(String etag, String lastModified, String contentType) {
+	    this.etag=etag==null?"":etag;
+	    this.lastModified=lastModified==null?"":lastModified;
+	    this.contentType=contentType;
+	}
+
+	static CacheHeader read(DataInputStream in) throws IOException {
+	    if(in.readInt()!=MAGIC)
+		throw new IOException("Not a cache file");
+	    String etag=in.readUTF();
+	    String lastModified=in.readUTF();
+	    String contentType=in.readUTF();
+	    return new CacheHeader(etag,lastModified,contentType.length()==0?null:contentType);
+	}
+
+	void write(DataOutputStream out) throws IOException {
+	    out.writeInt(MAGIC);
+	    out.writeUTF(etag);
+	    out.writeUTF(lastModified);
+	    out.writeUTF(contentType==null?"":contentType);
+	}
+
+	String etag;
+	String lastModified;
+	String contentType;
+    }
+
+    /**
+      * The body of an asynchronous response, as sent
+      */
+    private static class Body {
+	Body(byte[] bytes, boolean truncated) {
+	    this.bytes=bytes;
+	    this.truncated=truncated;
+	}
+
+	//the bytes which arrived, still encoded
+	final byte[] bytes;
+	//true if the rest of the body was cancelled
+	final boolean truncated;
+    }
+
+    /**
+      * Gathers the body of an asynchronous response
+      * as it arrives. Each buffer is only requested
+      * once the last one has been copied, and once
+      * the limit is reached the rest of the body is
+      * cancelled rather than downloaded.
+      */
+    private static class BoundedBodySubscriber implements HttpResponse.BodySubscriber<Body> {
+	BoundedBodySubscriber(int maxBytes) {
+	    this.maxBytes=maxBytes;
+	    body = new ByteArrayOutputStream();
+	    result = new CompletableFuture<Body>();
+	}
+
+	/**
+	  * Gets a BodyHandler which gathers
+	  * every body with a new subscriber
+	  * @param maxBytes The most bytes to keep
+	  * @return The BodyHandler
+	  */
+	static HttpResponse.BodyHandler<Body> Handler(final int maxBytes) {
+	    return new HttpResponse.BodyHandler<Body>() {
+		public HttpResponse.BodySubscriber<Body> apply(HttpResponse.ResponseInfo info) {
+		    return new BoundedBodySubscriber(maxBytes);
+		}
+	    };
+	}
+
+	public void onSubscribe(Flow.Subscription subscription) {
+	    this.subscription=subscription;
+	    subscription.request(1);
+	}
+
+	public void onNext(List<ByteBuffer> buffers) {
+	    boolean cut=false;
+	    for(ByteBuffer buffer : buffers) {
+		int n=Math.min(buffer.remaining(),maxBytes-body.size());
+		//a body of exactly maxBytes is whole, so it
+		//is only cut once a byte past it arrives
+		if(n<buffer.remaining())
+		    cut=true;
+		if(buffer.hasArray()) {
+		    body.write(buffer.array(),buffer.arrayOffset()+buffer.position(),n);
+		}
+		else {
+		    byte[] copy = new byte[n];
+		    buffer.get(copy);
+		    body.write(copy,0,n);
+		}
+	    }
+	    if(cut) {
+		subscription.cancel();
+		result.complete(new Body(body.toByteArray(),true));
+	    }
+	    else
+		subscription.request(1);
+	}
+
+	public void onError(Throwable error) {
+	    result.completeExceptionally(error);
+	}
+
+	public void onComplete() {
+	    result.complete(new Body(body.toByteArray(),false));
+	}
+
+	public CompletionStage<Body> getBody() {
+	    return result;
+	}
+
+	private int maxBytes;
+	private ByteArrayOutputStream body;
+	private CompletableFuture<Body> result;
+	private Flow.Subscription subscription;
+    }
+
+    /**
+      * Ends a decoded body which was cut short
+      * where the bytes which arrived run out,
+      * rather than failing there
+      */
+    private static class CutShortInputStream extends FilterInputStream {
+	CutShortInputStream(InputStream in) {
+	    super(in);
+	}
+
+	public int read() throws IOException {
+	    try {
+		return super.read();
+	    }
+	    catch (EOFException e) {
+		return -1;
+	    }
+	}
+
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+	    try {
+		return super.read(buffer,offset,length);
+	    }
+	    catch (EOFException e) {
+		return -1;
+	    }
+	}
+    }
+
+    /**
+      * Thrown for an HTTP error status
+      */
+    private static class HttpStatusException extends IOException {
+	HttpStatusException(URL url, int status) {
+	    super("HTTP "+status+" for "+url);
+	    this.status=status;
+	}
+
+	/**
+	  * Checks whether the status may be temporary:
+	  * a timeout, too many requests or a server error
+	  * @return true if the request is worth retrying
+	  */
+	boolean IsTransient() {
+	    return status==408 || status==429 || status>=500;
+	}
+
+	private static final long serialVersionUID=1L;
+
+	private int status;
+    }
+
+    /**
+      * Counts an error while reading a body
+      * as a failure of its URL
+      */
+    private class CountingInputStream extends FilterInputStream {
+	CountingInputStream(InputStream in, URL url) {
+	    super(in);
+	    this.url=url;
+	}
+
+	public int read() throws IOException {
+	    try {
+		return super.read();
+	    }
+	    catch (IOException e) {
+		recordFailure(url);
+		throw e;
+	    }
+	}
+
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+	    try {
+		return super.read(buffer,offset,length);
+	    }
+	    catch (IOException e) {
+		recordFailure(url);
+		throw e;
+	    }
+	}
+
+	private URL url;
+    }
+
+    /**
+      * Copies a body into a new cache file as it
+      * is read. The cache entry is only replaced
+      * once the whole body has been read, so a
+      * body which is cut short is never cached.
+      */
+    private static class CachingInputStream extends FilterInputStream {
+	CachingInputStream(InputStream in, File entry, CacheHeader header) {
+	    super(in);
+	    this.entry=entry;
+	    try {
+		temp=File.createTempFile("fetch",".tmp",entry.getParentFile());
+		DataOutputStream data = new DataOutputStream(
+			new BufferedOutputStream(new FileOutputStream(temp)));
+		header.write(data);
+		out=data;
+	    }
+	    catch (IOException e) {
+		abandon();
+	    }
+	}
+
+	public int read() throws IOException {
+	    int b=super.read();
+	    if(b<0)
+		commit();
+	    else if(out!=null)
+		copy(new byte[] {(byte)b},0,1);
+	    return b;
+	}
+
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+	    int n=super.read(buffer,offset,length);
+	    if(n<0)
+		commit();
+	    else if(n>0)
+		copy(buffer,offset,n);
+	    return n;
+	}
+
+	public long skip(long n) throws IOException {
+	    //skipped bytes would be missing from the
+	    //cached copy, so read them instead
+	    byte[] buffer = new byte[(int)Math.min(n,4096)];
+	    int read=read(buffer,0,buffer.length);
+	    return read<0?0:read;
+	}
+
+	public boolean markSupported() {
+	    return false;
+	}
+
+	public void close() throws IOException {
+	    abandon();
+	    super.close();
+	}
+
+	private void copy(byte[] buffer, int offset, int length) {
+	    if(out==null)
+		return;
+	    try {
+		out.write(buffer,offset,length);
+	    }
+	    catch (IOException e) {
+		abandon();
+	    }
+	}
+
+	private void commit() {
+	    if(out==null)
+		return;
+	    try {
+		out.close();
+		out=null;
+		Files.move(temp.toPath(),entry.toPath(),
+			StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+		temp=null;
+	    }
+	    catch (IOException e) {
+		abandon();
+	    }
+	}
+
+	private void abandon() {
+	    try {
+		if(out!=null)
+		    out.close();
+	    }
+	    catch (IOException e) {}
+	    out=null;
+	    if(temp!=null && !temp.delete())
+		temp.deleteOnExit();
+	    temp=null;
+	}
+
+	private File entry;
+	private File temp;
+	private OutputStream out;
+    }
+
+    private static final int MAGIC=0x4E525331;
+
+    private File cacheDir;
+    private HttpClient client;
+    private int connectTimeout;
+    private int readTimeout;
+    private int maxRetries;
+    private long retryDelay;
+    private ConcurrentHashMap<String, Integer> failures;
+}
@@ -0,0 +1,305 @@
+/**
+  * IndexStore.java
+  * Saves the indexed articles to disk
+  * and loads them back, so that a restart
+  * does not have to crawl everything again
+  */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import java.util.Arrays;
+
+/**
+  * Reads and writes a single binary segment file
+  * holding a term dictionary and the metadata and
+  * word counts of every Article. Numbers are written
+  * as variable-length integers and each Article's
+  * term ids as gaps from the previous id, so the
+  * file is a fraction of the size of the index in
+  * memory. The raw content of Articles is not saved.
+  * The file is loaded through a memory mapping, so
+  * loading is a single sequential pass over pages
+  * the operating system has often already cached.
+  *
+  * Layout, after the magic number and version:
+  * the number of terms, then each term as a
+  * length-prefixed UTF-8 string; the number of
+  * Articles, then for each its title, description,
+  * link and date as strings (length+1, 0 for null),
+  * its number of distinct terms, a (term id gap,
+  * count) pair for each, and the bytes of its
+  * TermPositions prefixed by their length+1 (0 if
+  * the Article has no positions). Files of version 1,
+  * which have no positions, can still be loaded.
+  */
+public class IndexStore {
+    /**
+      * Constructor
+      * @param fileName The segment file to use
+      */
+    public IndexStore(String fileName) {
+	file = new File(fileName);
+    }
+
+    /**
+      * Checks whether the segment file exists
+      * @return true if there is a saved index to load
+      */
+    public boolean Exists() {
+	return file.isFile();
+    }
+
+    /**
+      * Loads every saved Article into an index. Saved
+      * term ids are mapped to the index's dictionary,
+      * so the index does not have to be empty.
+      * @throws IOException if the file cannot be read
+      * or is not a valid segment
+      * @param index The InvertedIndex to add the Articles to
+      * @return Number of Articles loaded
+      */
+    public int Load(InvertedIndex index) throws IOException {
+	RandomAccessFile raf = new RandomAccessFile(file,"r");
+	MappedByteBuffer buffer;
+	try {
+	    FileChannel channel=raf.getChannel();
+	    buffer=channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+	}
+	finally {
+	    raf.close();
+	}
+
+	try {
+	    if(buffer.getInt()!=MAGIC)
+		throw new IOException("Not an index segment: "+file);
+	    int version=buffer.getInt();
+	    if(version<1 || version>VERSION)
+		throw new IOException("Not an index segment: "+file);
+	    TermDictionary dictionary=index.GetDictionary();
+	    int numTerms=readVarInt(buffer);
+	    int[] termIds = new int[numTerms];
+	    for(int i=0;i<numTerms;i++)
+		termIds[i]=dictionary.Intern(readString(buffer));
+
+	    int numArticles=readVarInt(buffer);
+	    for(int i=0;i<numArticles;i++) {
+		String title=readString(buffer);
+		String description=readString(buffer);
+		String link=readString(buffer);
+		String date=readString(buffer);
+		int n=readVarInt(buffer);
+		int[] ids = new int[n];
+		int[] counts = new int[n];
+		int id=0;
+		for(int j=0;j<n;j++) {
+		    id+=readVarInt(buffer);
+		    ids[j]=termIds[id];
+		    counts[j]=readVarInt(buffer);
+		}
+		TermFrequencies terms = new TermFrequencies(ids,counts,dictionary);
+		TermPositions positions=null;
+		int length=version>1?readVarInt(buffer)-1:-1;
+		if(length>=0) {
+		    byte[] data = new byte[length];
+		    buffer.get(data);
+		    positions=reorder(data,ids,counts,terms);
+		}
+		Article a = new Article(title,description,link,date,terms,positions);
+		index.AddArticle(a);
+	    }
+	    return numArticles;
+	}
+	//a truncated or corrupt file runs off the end
+	//of the buffer or indexes past the dictionary
+	catch (RuntimeException e) {
+	    throw new IOException("Corrupt index segment: "+file);
+	}
+    }
+
+    /**
+      * Saves the Articles of an index and its dictionary.
+      * The file is written under a temporary name and then
+      * moved over the old one, so a crash never leaves a
+      * partial file. Articles added while saving may be
+      * left out, but every saved Article is complete.
+      * @throws IOException if the file cannot be written
+      * @param index The InvertedIndex to save
+      */
+    public void Save(InvertedIndex index) throws IOException {
+	//the dictionary is read after the article count,
+	//so it has every word of every saved Article
+	int numArticles=index.GetNumArticles();
+	TermDictionary dictionary=index.GetDictionary();
+	File dir=file.getAbsoluteFile().getParentFile();
+	File temp=File.createTempFile("index",".tmp",dir);
+	DataOutputStream out = new DataOutputStream(
+		new BufferedOutputStream(new FileOutputStream(temp),1<<16));
+	try {
+	    out.writeInt(MAGIC);
+	    out.writeInt(VERSION);
+	    int numTerms=dictionary.GetNumTerms();
+	    writeVarInt(out,numTerms);
+	    for(int i=0;i<numTerms;i++)
+		writeString(out,dictionary.GetTerm(i));
+
+	    writeVarInt(out,numArticles);
+	    for(int id=0;id<numArticles;id++) {
+		Article a=index.GetArticle(id);
+		writeString(out,a.GetTitle());
+		writeString(out,a.GetDescription());
+		writeString(out,a.GetLink());
+		writeString(out,a.GetDate());
+		TermFrequencies terms=a.GetTermFrequencies();
+		int n=terms.GetNumTerms();
+		writeVarInt(out,n);
+		int previous=0;
+		for(int i=0;i<n;i++) {
+		    writeVarInt(out,terms.GetTermId(i)-previous);
+		    writeVarInt(out,terms.GetCountAt(i));
+		    previous=terms.GetTermId(i);
+		}
+		TermPositions positions=a.GetTermPositions();
+		if(positions==null)
+		    writeVarInt(out,0);
+		else {
+		    writeVarInt(out,positions.GetData().length+1);
+		    out.write(positions.GetData());
+		}
+	    }
+	    out.close();
+	    out=null;
+	    Files.move(temp.toPath(),file.toPath(),
+		    StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+	}
+	finally {
+	    if(out!=null)
+		out.close();
+	    temp.delete();
+	}
+    }
+
+    /**
+      * Rebuilds the saved TermPositions of an Article.
+      * The positions follow the order of the saved term
+      * ids, but the TermFrequencies is sorted by the ids
+      * of the index's dictionary, which differ if the
+      * index was not empty. Each word's positions are
+      * encoded on their own, so they are put in the new
+      * order by moving their bytes.
+      * @param data The saved positions
+      * @param ids The term ids, in the saved order
+      * @param counts The counts, in the saved order
+      * @param terms The word counts of the Article
+      * @return The positions of the Article
+      */
+    private static TermPositions reorder(byte[] data, int[] ids, int[] counts, TermFrequencies terms) {
+	boolean sorted=true;
+	for(int j=1;j<ids.length && sorted;j++)
+	    sorted=ids[j-1]<ids[j];
+	if(sorted)
+	    return new TermPositions(data,terms);
+	int[] start = new int[ids.length+1];
+	int pos=0;
+	for(int j=0;j<ids.length;j++) {
+	    start[j]=pos;
+	    for(int n=counts[j];n>0;pos++)
+		if(data[pos]>=0)
+		    n--;
+	}
+	start[ids.length]=pos;
+	//sorting packed (id, saved index) pairs gives
+	//the saved words in the new order
+	long[] order = new long[ids.length];
+	for(int j=0;j<ids.length;j++)
+	    order[j]=((long)ids[j]<<32)|j;
+	Arrays.sort(order);
+	byte[] moved = new byte[pos];
+	int length=0;
+	for(long o : order) {
+	    int j=(int)o;
+	    System.arraycopy(data,start[j],moved,length,start[j+1]-start[j]);
+	    length+=start[j+1]-start[j];
+	}
+	return new TermPositions(moved,terms);
+    }
+
+    /**
+      * Writes a non-negative int in as few bytes
+      * as possible, 7 bits per byte, with the high
+      * bit set on every byte but the last
+      * @throws IOException if error occurs while writing
+      * @param out The stream to write to
+      * @param value The int to write
+      */
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+	while((value&~0x7F)!=0) {
+	    out.writeByte((value&0x7F)|0x80);
+	    value>>>=7;
+	}
+	out.writeByte(value);
+    }
+
+    /**
+      * Reads an int written by #writeVarInt
+      * @param buffer The buffer to read from
+      * @return The int
+      */
+    private static int readVarInt(MappedByteBuffer buffer) {
+	int value=0;
+	int shift=0;
+	byte b;
+	do {
+	    b=buffer.get();
+	    value|=(b&0x7F)<<shift;
+	    shift+=7;
+	} while(b<0);
+	return value;
+    }
+
+    /**
+      * Writes a String as its UTF-8 length
+      * plus one, then its UTF-8 bytes
+      * @throws IOException if error occurs while writing
+      * @param out The stream to write to
+      * @param s The String to write, or null
+      */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+	if(s==null) {
+	    writeVarInt(out,0);
+	    return;
+	}
+	byte[] bytes=s.getBytes(StandardCharsets.UTF_8);
+	writeVarInt(out,bytes.length+1);
+	out.write(bytes);
+    }
+
+    /**
+      * Reads a String written by #writeString
+      * @param buffer The buffer to read from
+      * @return The String, or null
+      */
+    private static String readString(MappedByteBuffer buffer) {
+	int length=readVarInt(buffer)-1;
+	if(length<0)
+	    return null;
+	byte[] bytes = new byte[length];
+	buffer.get(bytes);
+	return new String(bytes,StandardCharsets.UTF_8);
+    }
+
+    private static final int MAGIC=0x4E525349;
+    private static final int VERSION=2;
+
+    private File file;
+}
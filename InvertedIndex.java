@@ -0,0 +1,1231 @@
+/**
+  * InvertedIndex.java
+  * Maps every word seen in the indexed
+  * Articles to the Articles which contain it
+  */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+  * A shared inverted index over all of the
+  * Articles in a NiftyRSS. Each word id from the
+  * index's TermDictionary maps to a postings list
+  * of (article id, number of occurrences) pairs,
+  * where the article id is given by the index's
+  * ArticleRegistry.
+  * Postings lists are kept in increasing order of
+  * article id. An Article is added to every one of
+  * its postings lists before it is published in the
+  * registry, so a query which only reads postings
+  * below the registry's current count sees a
+  * consistent snapshot of the index: every Article
+  * in it is fully indexed. Queries never take a
+  * lock, so they can run while the RSSArticleThreads
+  * are still adding Articles, and never hold them up.
+  * Queries of several words are ranked with BM25.
+  * Everything BM25 needs is kept up to date as
+  * Articles are added: the number of Articles
+  * containing a word is the length of its postings
+  * list, the length of each Article is kept by its
+  * TermFrequencies, and the total length of all the
+  * Articles is kept here.
+  * Patterns and fuzzy words of a Query are looked
+  * up in a SortedTerms view of the dictionary, and
+  * the postings of the words they match are merged
+  * while the query runs, so they rank as one word.
+  * The postings can be split into shards by article
+  * id, each Article going to shard id mod the number
+  * of shards. Each shard is searched for the best
+  * hits on its own, in parallel on the common
+  * ForkJoinPool, and their best hits are merged.
+  * The BM25 statistics are still those of the
+  * whole index, so the hits and their scores are
+  * the same for any number of shards.
+  */
+public class InvertedIndex {
+    /**
+      * Constructor
+      * Creates an empty index of one shard
+      */
+    public InvertedIndex() {
+	this(1);
+    }
+
+    /**
+      * Constructor
+      * Creates an empty index
+      * @param numShards The number of shards to
+      * split the postings into, and so the number
+      * of threads a query can use
+      */
+    public InvertedIndex(int numShards) {
+	dictionary = new TermDictionary();
+	registry = new ArticleRegistry();
+	shards = new Shard[Math.max(numShards,1)];
+	for(int i=0;i<shards.length;i++)
+	    shards[i] = new Shard();
+	totalLength = new AtomicLong();
+	sortedTerms = new SortedTerms(dictionary);
+    }
+
+    /**
+      * Dictionary Getter
+      * Articles added to the index must intern
+      * their words into this dictionary
+      * @return The TermDictionary of the index
+      */
+    public TermDictionary GetDictionary() {
+	return dictionary;
+    }
+
+    /**
+      * Sorted Terms Getter
+      * @return The sorted view of the dictionary
+      * used to expand patterns and fuzzy words
+      */
+    public SortedTerms GetSortedTerms() {
+	return sortedTerms;
+    }
+
+    /**
+      * Adds an Article to the index, giving it
+      * the next article id and appending it to
+      * the postings list of every word it contains.
+      * Many threads may add Articles at once.
+      * @param a The Article to add
+      * @return The article id given to a
+      */
+    public int AddArticle(Article a) {
+	int id=registry.Reserve();
+	ChunkedArray<Postings> postings=shards[id%shards.length].postings;
+	TermFrequencies terms=a.GetTermFrequencies();
+	for(int i=0;i<terms.GetNumTerms();i++) {
+	    int termId=terms.GetTermId(i);
+	    Postings p=postings.Get(termId);
+	    if(p==null)
+		p=postings.SetIfAbsent(termId,new Postings());
+	    p.add(id,terms.GetCountAt(i));
+	}
+	totalLength.addAndGet(terms.GetLength());
+	registry.Publish(id,a);
+	return id;
+    }
+
+    /**
+      * Gets the number of Articles in the index
+      * @return Number of Articles
+      */
+    public int GetNumArticles() {
+	return registry.GetNumArticles();
+    }
+
+    /**
+      * Gets the number of shards
+      * @return Number of shards the postings
+      * are split into
+      */
+    public int GetNumShards() {
+	return shards.length;
+    }
+
+    /**
+      * Gets an Article by id
+      * @param id An article id below #GetNumArticles()
+      * @return The Article with that id
+      */
+    public Article GetArticle(int id) {
+	return registry.Get(id);
+    }
+
+    /**
+      * Gets the number of Articles which
+      * contain a given word
+      * @param word The single word to look up
+      * @return Number of Articles containing word
+      */
+    public int GetNumArticles(String word) {
+	return countBelow(getTermId(word),registry.GetNumArticles());
+    }
+
+    /**
+      * Gets the Articles which contain a given
+      * word, in descending order by the number of
+      * occurrences of the word in each Article,
+      * with ties in the order they were added
+      * @param word The single word to look up
+      * @param limit The maximum number of Articles
+      * to return, or a negative number for all of them
+      * @return A sorted LinkedList of at most limit
+      * Articles which contain word
+      */
+    public LinkedList<Article> GetArticles(String word, int limit) {
+	if(limit>=0)
+	    return GetTopArticles(word, 0, limit);
+	LinkedList<Article> out = new LinkedList<Article>();
+	int numArticles=registry.GetNumArticles();
+	int termId=getTermId(word);
+	int size=countBelow(termId,numArticles);
+	if(size==0)
+	    return out;
+	//sorting packed (count, reversed id) longs
+	//orders by count and then by id with no
+	//comparator or boxing
+	long[] hits = new long[size];
+	int n=0;
+	for(Shard shard : shards) {
+	    Postings p=shard.postings.Get(termId);
+	    if(p==null)
+		continue;
+	    Block b=p.block;
+	    int count=Math.min(b.countBelow(numArticles),size-n);
+	    for(int i=0;i<count;i++)
+		hits[n++]=TopHits.Pack(b.counts[i],b.ids[i]);
+	}
+	Arrays.sort(hits);
+	for(int i=0;i<size;i++)
+	    out.add(registry.Get(TopHits.GetId(hits[size-1-i])));
+	return out;
+    }
+
+    /**
+      * Gets one page of the Articles which contain a
+      * given word, in the same order as
+      * #GetArticles(String word, int limit). Only the
+      * best offset+limit postings are kept, in a
+      * bounded heap, so this takes O(n log k) time for
+      * n postings and k=offset+limit, rather than
+      * sorting all n.
+      * @param word The single word to look up
+      * @param offset The number of best Articles to skip
+      * @param limit The maximum number of Articles to return
+      * @return A sorted LinkedList of at most limit
+      * Articles which contain word
+      */
+    public LinkedList<Article> GetTopArticles(String word, int offset, int limit) {
+	LinkedList<Article> out = new LinkedList<Article>();
+	int numArticles=registry.GetNumArticles();
+	int termId=getTermId(word);
+	int size=countBelow(termId,numArticles);
+	if(offset<0 || limit<=0 || offset>=size)
+	    return out;
+	TopHits top = new TopHits((int)Math.min((long)offset+limit,size));
+	for(Shard shard : shards) {
+	    Postings p=shard.postings.Get(termId);
+	    if(p==null)
+		continue;
+	    Block b=p.block;
+	    int n=b.countBelow(numArticles);
+	    for(int i=0;i<n;i++) {
+		long hit=TopHits.Pack(b.counts[i],b.ids[i]);
+		if(top.Accepts(hit))
+		    top.Add(hit);
+	    }
+	}
+	long[] hits=top.Drain();
+	for(int i=offset;i<hits.length;i++)
+	    out.add(registry.Get(TopHits.GetId(hits[i])));
+	return out;
+    }
+
+    /**
+      * Gets a number which changes whenever an
+      * Article which could match a Query is indexed.
+      * For a query of plain words this is the total
+      * number of postings of its words in the current
+      * snapshot, which only grows, so it is the same
+      * exactly as long as none of the words has been
+      * added to. Patterns and fuzzy words can match
+      * words which are not in the index yet, so for
+      * them it is the number of Articles.
+      * @param query The Query
+      * @return The version of the index for query
+      */
+    public long GetVersion(Query query) {
+	int numArticles=registry.GetNumArticles();
+	String[] terms=query.GetTerms();
+	long version=0;
+	for(int t=0;t<terms.length;t++) {
+	    if(query.GetKind(t)!=Query.EXACT)
+		return numArticles;
+	    version+=countBelow(getTermId(terms[t]),numArticles);
+	}
+	return version;
+    }
+
+    /**
+      * Finds the Articles which match a Query, ranked
+      * by their BM25 score, best first. Postings are
+      * read an Article at a time with MaxScore pruning:
+      * each word has an upper bound on its score, and
+      * once the heap of the best offset+limit Articles
+      * is full, words whose bounds together cannot
+      * lift an Article into it are only looked up in
+      * Articles which contain one of the other words,
+      * and not at all once the Article cannot make it.
+      * A query for all of its words, or with phrases,
+      * is driven by its rarest required word, skipping
+      * ahead in the other lists.
+      * A pattern or fuzzy word reads the postings of
+      * up to #MAX_EXPANSIONS of the words it matches,
+      * the most common first (and the closest first,
+      * for a fuzzy word), and scores an Article by the
+      * best of those it contains. Words further from
+      * a fuzzy word score less.
+      * @param query The Query to run
+      * @param offset The number of best Articles to skip
+      * @param limit The maximum number of Articles to return
+      * @return The SearchHits, best first, with ties
+      * in the order the Articles were added
+      */
+    public LinkedList<SearchHit> Search(Query query, int offset, int limit) {
+	return search(query, offset, limit, registry.GetNumArticles(), null);
+    }
+
+    /**
+      * Runs a batch of Queries against one snapshot
+      * of the index, as #Search(Query query, int offset, int limit)
+      * would run each of them. Each word or pattern is
+      * looked up, and its statistics and expansions
+      * worked out, once for the whole batch rather
+      * than once per query, and a query repeated in
+      * the batch is only run once. The length
+      * normalization of an Article is worked out once
+      * for the batch, the first time any query needs
+      * it. A pattern or fuzzy word is not read through
+      * a UnionCursor: the postings of the words it
+      * matches are scored once into a buffer kept for
+      * the batch, giving one list of Articles with
+      * their scores which every query with the word
+      * reads like the postings of a single word.
+      * @param queries The Queries to run
+      * @param offset The number of best Articles to skip
+      * @param limit The maximum number of Articles to return
+      * @return The SearchHits of each Query, best
+      * first, in the order of queries
+      */
+    public ArrayList<LinkedList<SearchHit>> SearchBatch(Query[] queries, int offset, int limit) {
+	ArrayList<LinkedList<SearchHit>> out = new ArrayList<LinkedList<SearchHit>>(queries.length);
+	Batch batch = new Batch(registry.GetNumArticles());
+	HashMap<String, LinkedList<SearchHit>> done = new HashMap<String, LinkedList<SearchHit>>();
+	for(Query query : queries) {
+	    String key=query.toString();
+	    LinkedList<SearchHit> hits=done.get(key);
+	    if(hits==null) {
+		hits=search(query, offset, limit, batch.numArticles, batch);
+		done.put(key, hits);
+	    }
+	    //every query gets its own list, which
+	    //the caller may change
+	    out.add(new LinkedList<SearchHit>(hits));
+	}
+	return out;
+    }
+
+    /**
+      * Runs a Query against a snapshot of the index
+      * @param query The Query to run
+      * @param offset The number of best Articles to skip
+      * @param limit The maximum number of Articles to return
+      * @param numArticles The number of Articles
+      * in the snapshot
+      * @param batch The work shared with the other
+      * queries of a batch, or null to do it all
+      * for this query
+      * @return The SearchHits, best first
+      */
+    private LinkedList<SearchHit> search(Query query, int offset, int limit, int numArticles,
+	    Batch batch) {
+	LinkedList<SearchHit> out = new LinkedList<SearchHit>();
+	String[] terms=query.GetTerms();
+	if(offset<0 || limit<=0 || numArticles==0 || terms.length==0)
+	    return out;
+	//required words come first, then optional ones
+	Word[] words = new Word[terms.length];
+	int numRequired=0;
+	int n=0;
+	for(int pass=0;pass<2;pass++) {
+	    for(int t=0;t<terms.length;t++) {
+		if(query.IsRequired(t)!=(pass==0))
+		    continue;
+		int kind=query.GetKind(t);
+		Word w;
+		if(batch==null)
+		    w=resolve(terms[t],kind,numArticles);
+		else
+		    w=batch.word(terms[t],kind);
+		if(w==null) {
+		    if(pass==0)
+			return out;
+		    continue;
+		}
+		words[n++]=w;
+	    }
+	    if(pass==0)
+		numRequired=n;
+	}
+	if(n==0)
+	    return out;
+	//every word of a phrase is required, so
+	//it is in the dictionary by now
+	Phrase[] phrases=query.GetPhrases();
+	int[][] phraseIds = new int[phrases.length][];
+	for(int i=0;i<phrases.length;i++) {
+	    String[] phraseWords=phrases[i].GetTerms();
+	    phraseIds[i] = new int[phraseWords.length];
+	    for(int j=0;j<phraseWords.length;j++)
+		phraseIds[i][j]=dictionary.GetId(phraseWords[j]);
+	}
+	float averageLength=batch==null?averageLength(numArticles):batch.averageLength;
+	int k=(int)Math.min((long)offset+limit,numArticles);
+	ShardSearch[] tasks = new ShardSearch[shards.length];
+	for(int i=0;i<shards.length;i++)
+	    tasks[i] = new ShardSearch(i,words,n,numRequired,phrases,phraseIds,
+		    numArticles,averageLength,k,batch);
+	if(tasks.length==1)
+	    tasks[0].compute();
+	else
+	    ForkJoinTask.invokeAll(tasks);
+	//ids are unique across shards, so the best k
+	//of all are among the best k of each
+	TopHits top = new TopHits(k);
+	for(ShardSearch task : tasks)
+	    for(long hit : task.hits)
+		if(top.Accepts(hit))
+		    top.Add(hit);
+	long[] hits=top.Drain();
+	for(int i=offset;i<hits.length;i++)
+	    out.add(new SearchHit(registry.Get(TopHits.GetId(hits[i])),
+			Float.intBitsToFloat(TopHits.GetScore(hits[i]))));
+	return out;
+    }
+
+    /**
+      * Finds the best Articles which contain any of
+      * the words, using MaxScore. The cursors are kept
+      * in increasing order of their bounds, and the
+      * ones before the first essential one are the
+      * words whose bounds add up to no more than the
+      * worst score in the heap: an Article with only
+      * those words cannot get in, so candidates come
+      * from the essential words alone.
+      * @param cursors The cursors of the words
+      * @param n The number of cursors
+      * @param averageLength The average Article length
+      * @param top The heap to fill
+      * @param batch The batch the query is part of,
+      * or null
+      */
+    private void searchAny(Cursor[] cursors, int n, float averageLength, TopHits top, Batch batch) {
+	//a handful of words, so an insertion sort will do
+	for(int i=1;i<n;i++) {
+	    Cursor c=cursors[i];
+	    int j=i;
+	    for(;j>0 && cursors[j-1].bound>c.bound;j--)
+		cursors[j]=cursors[j-1];
+	    cursors[j]=c;
+	}
+	//bounds[i] is the sum of the bounds of cursors 0 to i-1
+	float[] bounds = new float[n+1];
+	for(int i=0;i<n;i++)
+	    bounds[i+1]=bounds[i]+cursors[i].bound;
+	int essential=0;
+	float threshold=-1;
+	while(essential<n) {
+	    int id=Integer.MAX_VALUE;
+	    for(int i=essential;i<n;i++)
+		id=Math.min(id,cursors[i].id());
+	    if(id==Integer.MAX_VALUE)
+		break;
+	    float norm=batch!=null?batch.norm(id)
+		:BM25.Norm(registry.Get(id).GetTermFrequencies().GetLength(),averageLength);
+	    float score=0;
+	    for(int i=essential;i<n;i++) {
+		Cursor c=cursors[i];
+		if(c.id()==id) {
+		    score+=c.score(norm);
+		    c.next();
+		}
+	    }
+	    //an Article whose score cannot beat the worst in
+	    //the heap loses the tie too, having a larger id
+	    for(int i=essential-1;i>=0 && score+bounds[i+1]>threshold;i--) {
+		Cursor c=cursors[i];
+		if(c.advance(id)==id)
+		    score+=c.score(norm);
+	    }
+	    long hit=TopHits.Pack(Float.floatToIntBits(score),id);
+	    if(!top.Accepts(hit))
+		continue;
+	    top.Add(hit);
+	    if(top.IsFull()) {
+		threshold=Float.intBitsToFloat(TopHits.GetScore(top.GetWorst()));
+		while(essential<n && bounds[essential+1]<=threshold)
+		    essential++;
+	    }
+	}
+    }
+
+    /**
+      * Finds the best Articles which contain all of
+      * the required words and every phrase. The rarest
+      * required word proposes each candidate, and the
+      * other cursors skip ahead to it, so the work
+      * follows the shortest list. Phrases are checked
+      * against the positions of a candidate's words
+      * before it is scored, and the optional words
+      * only add to the score. Once the heap is full
+      * and no Article can score more than its worst,
+      * the search stops.
+      * @param cursors The cursors of the words
+      * @param numRequired The number of cursors, at
+      * the start, of words which are required
+      * @param n The number of cursors
+      * @param phrases The phrases of the query
+      * @param phraseIds The word ids of each phrase
+      * @param averageLength The average Article length
+      * @param top The heap to fill
+      */
+    private void searchAll(Cursor[] cursors, int numRequired, int n, Phrase[] phrases, int[][] phraseIds,
+	    float averageLength, TopHits top) {
+	float bound=0;
+	int rarest=0;
+	for(int i=0;i<n;i++) {
+	    bound+=cursors[i].bound;
+	    if(i<numRequired && cursors[i].size<cursors[rarest].size)
+		rarest=i;
+	}
+	Cursor lead=cursors[rarest];
+	cursors[rarest]=cursors[0];
+	cursors[0]=lead;
+	int id=lead.id();
+	while(id!=Integer.MAX_VALUE) {
+	    int next=id;
+	    for(int i=1;i<numRequired && next==id;i++)
+		next=cursors[i].advance(id);
+	    if(next!=id) {
+		id=next==Integer.MAX_VALUE?next:lead.advance(next);
+		continue;
+	    }
+	    Article a=registry.Get(id);
+	    boolean matches=true;
+	    for(int i=0;i<phrases.length && matches;i++)
+		matches=phrases[i].Matches(a,phraseIds[i]);
+	    if(!matches) {
+		id=lead.next();
+		continue;
+	    }
+	    float norm=BM25.Norm(a.GetTermFrequencies().GetLength(),averageLength);
+	    float score=0;
+	    for(int i=0;i<n;i++) {
+		Cursor c=cursors[i];
+		if(i<numRequired || c.advance(id)==id)
+		    score+=c.score(norm);
+	    }
+	    top.Add(TopHits.Pack(Float.floatToIntBits(score),id));
+	    if(top.IsFull() && bound<=Float.intBitsToFloat(TopHits.GetScore(top.GetWorst())))
+		break;
+	    id=lead.next();
+	}
+    }
+
+    /**
+      * Finds the words of the index a word of a
+      * Query matches, and their BM25 idfs over the
+      * whole index. A pattern or fuzzy word keeps the
+      * closest and then the most common of its words.
+      * @param term The word or pattern
+      * @param kind How it is matched, as Query#GetKind(int i)
+      * @param numArticles The number of Articles
+      * in the snapshot being searched
+      * @return The words, or null if no Article
+      * in the snapshot contains any of them
+      */
+    private Word resolve(String term, int kind, int numArticles) {
+	if(kind==Query.EXACT) {
+	    int termId=getTermId(term);
+	    int size=countBelow(termId,numArticles);
+	    if(size==0)
+		return null;
+	    return new Word(new int[] {termId}, new float[] {BM25.Idf(numArticles,size)});
+	}
+	long[] matches;
+	if(kind==Query.WILDCARD) {
+	    int[] ids=sortedTerms.Wildcard(term);
+	    matches = new long[ids.length];
+	    for(int i=0;i<ids.length;i++)
+		matches[i]=ids[i];
+	}
+	else
+	    matches=sortedTerms.Fuzzy(term,kind);
+	//rank by (fewest typos, most Articles), so the
+	//heap keeps the best of a common prefix's words
+	TopHits best = new TopHits(MAX_EXPANSIONS);
+	int[] sizes = new int[matches.length];
+	for(int i=0;i<matches.length;i++) {
+	    sizes[i]=countBelow((int)matches[i],numArticles);
+	    if(sizes[i]==0)
+		continue;
+	    int distance=(int)(matches[i]>>>32);
+	    best.Add(TopHits.Pack(((Query.MAX_EDITS-distance)<<28)|Math.min(sizes[i],(1<<28)-1),i));
+	}
+	long[] kept=best.Drain();
+	if(kept.length==0)
+	    return null;
+	int[] ids = new int[kept.length];
+	float[] idfs = new float[kept.length];
+	for(int i=0;i<kept.length;i++) {
+	    int match=TopHits.GetId(kept[i]);
+	    int distance=(int)(matches[match]>>>32);
+	    ids[i]=(int)matches[match];
+	    //words further from a fuzzy word score less
+	    idfs[i]=BM25.Idf(numArticles,sizes[match])*(1-(float)distance/(term.length()+1));
+	}
+	return new Word(ids,idfs);
+    }
+
+    /**
+      * Makes a cursor over the postings a shard
+      * has of the words matched by a word of a Query
+      * @param shard The shard to read
+      * @param w The words
+      * @param numArticles The number of Articles
+      * in the snapshot being searched
+      * @return The cursor, or null if no Article of
+      * the shard in the snapshot contains the words
+      */
+    private static Cursor cursor(Shard shard, Word w, int numArticles) {
+	Cursor[] parts = new Cursor[w.ids.length];
+	int n=0;
+	for(int i=0;i<w.ids.length;i++) {
+	    Postings p=shard.postings.Get(w.ids[i]);
+	    Block b=p==null?null:p.block;
+	    int size=b==null?0:b.countBelow(numArticles);
+	    if(size>0)
+		parts[n++] = new TermCursor(b.ids,b.counts,size,w.idfs[i],
+			BM25.UpperBound(w.idfs[i],p.maxCount));
+	}
+	if(n==0)
+	    return null;
+	if(n==1)
+	    return parts[0];
+	return new UnionCursor(Arrays.copyOf(parts,n));
+    }
+
+    /**
+      * Works out the average length of the
+      * Articles in a snapshot. Articles still being
+      * added count towards the total length, which
+      * only nudges the average a little.
+      * @param numArticles The number of Articles
+      * in the snapshot
+      * @return The average length, at least 1
+      */
+    private float averageLength(int numArticles) {
+	return Math.max((float)totalLength.get()/Math.max(numArticles,1),1);
+    }
+
+    /**
+      * Looks up the id of a word
+      * @param word The single word to look up
+      * @return The word id, or -1 if no
+      * Article contains word
+      */
+    private int getTermId(String word) {
+	return dictionary.GetId(word.toLowerCase());
+    }
+
+    /**
+      * Counts the Articles in a snapshot which
+      * contain a word, over every shard
+      * @param termId The word id, or -1
+      * @param numArticles The number of Articles
+      * in the snapshot
+      * @return Number of Articles containing the word
+      */
+    private int countBelow(int termId, int numArticles) {
+	if(termId<0)
+	    return 0;
+	int count=0;
+	for(Shard shard : shards) {
+	    Postings p=shard.postings.Get(termId);
+	    if(p!=null)
+		count+=p.block.countBelow(numArticles);
+	}
+	return count;
+    }
+
+    /**
+      * Searches one shard for its best hits, so
+      * the shards can be searched in parallel
+      */
+    private class ShardSearch extends RecursiveAction {
+	ShardSearch(int number, Word[] words, int n, int numRequired, Phrase[] phrases, int[][] phraseIds,
+		int numArticles, float averageLength, int k, Batch batch) {
+	    this.number=number;
+	    this.words=words;
+	    this.n=n;
+	    this.numRequired=numRequired;
+	    this.phrases=phrases;
+	    this.phraseIds=phraseIds;
+	    this.numArticles=numArticles;
+	    this.averageLength=averageLength;
+	    this.k=k;
+	    this.batch=batch;
+	    hits = new long[0];
+	}
+
+	protected void compute() {
+	    Cursor[] cursors = new Cursor[n];
+	    int m=0;
+	    for(int i=0;i<n;i++) {
+		Cursor c;
+		if(words[i].scored!=null)
+		    c=batch.cursor(number,words[i]);
+		else
+		    c=cursor(shards[number],words[i],numArticles);
+		if(c!=null)
+		    cursors[m++]=c;
+		else if(i<numRequired)
+		    return;
+	    }
+	    if(m==0)
+		return;
+	    TopHits top = new TopHits(k);
+	    if(numRequired==0)
+		searchAny(cursors,m,averageLength,top,batch);
+	    else
+		searchAll(cursors,numRequired,m,phrases,phraseIds,averageLength,top);
+	    hits=top.Drain();
+	}
+
+	private static final long serialVersionUID=1L;
+
+	//a task is never serialized, but ForkJoinTask is
+	//Serializable, so the fields are marked transient
+	final int number;
+	final transient Word[] words;
+	final int n;
+	final int numRequired;
+	final transient Phrase[] phrases;
+	final int[][] phraseIds;
+	final int numArticles;
+	final float averageLength;
+	final int k;
+	final transient Batch batch;
+	//the best hits of the shard, best first
+	long[] hits;
+    }
+
+    /**
+      * The work shared by the Queries of a batch,
+      * which all search one snapshot of the index
+      */
+    private class Batch {
+	Batch(int numArticles) {
+	    this.numArticles=numArticles;
+	    averageLength=averageLength(numArticles);
+	    norms = new float[numArticles];
+	    words = new HashMap<String, Word>();
+	    buffers = new float[shards.length][];
+	}
+
+	/**
+	  * Looks up a word of a Query, once
+	  * for the whole batch
+	  * @param term The word or pattern
+	  * @param kind How it is matched, as Query#GetKind(int i)
+	  * @return The words, or null if no Article
+	  * in the snapshot contains any of them
+	  */
+	Word word(String term, int kind) {
+	    //patterns have wildcards and fuzzy words a
+	    //~, so the key cannot mix kinds up
+	    String key=kind>=0?term+"~"+kind:term;
+	    if(words.containsKey(key))
+		return words.get(key);
+	    Word w=resolve(term,kind,numArticles);
+	    if(w!=null && w.ids.length>1)
+		w.scored = new Scored[shards.length];
+	    words.put(key,w);
+	    return w;
+	}
+
+	/**
+	  * Gets the length normalization of an Article,
+	  * working it out the first time it is needed.
+	  * Shards hold different Articles, so shards
+	  * searched in parallel never work out the
+	  * same one.
+	  * @param id The article id
+	  * @return Its BM25#Norm(int length, float averageLength)
+	  */
+	float norm(int id) {
+	    //a norm is never 0, so 0 is one not worked out yet
+	    float norm=norms[id];
+	    if(norm==0) {
+		norm=BM25.Norm(registry.Get(id).GetTermFrequencies().GetLength(),averageLength);
+		norms[id]=norm;
+	    }
+	    return norm;
+	}
+
+	/**
+	  * Makes a cursor over the scores a shard has
+	  * for a pattern or fuzzy word, scoring them
+	  * the first time the word is searched
+	  * @param number The number of the shard
+	  * @param w The words
+	  * @return The cursor, or null if no Article of
+	  * the shard in the snapshot contains the words
+	  */
+	Cursor cursor(int number, Word w) {
+	    Scored scored=w.scored[number];
+	    if(scored==null) {
+		scored=score(number,w);
+		w.scored[number]=scored;
+	    }
+	    if(scored.ids.length==0)
+		return null;
+	    return new ScoredCursor(scored);
+	}
+
+	/**
+	  * Scores every Article of a shard which
+	  * contains any of the words, as the best of
+	  * their scores, like a UnionCursor. The scores
+	  * are gathered in the shard's buffer, a slot
+	  * per Article, which is left empty again.
+	  * @param number The number of the shard
+	  * @param w The words
+	  * @return The Articles and their scores
+	  */
+	private Scored score(int number, Word w) {
+	    Shard shard=shards[number];
+	    float[] buffer=buffers[number];
+	    if(buffer==null) {
+		buffer = new float[numArticles/shards.length+1];
+		buffers[number]=buffer;
+	    }
+	    int[] ids = new int[16];
+	    int n=0;
+	    for(int i=0;i<w.ids.length;i++) {
+		Postings p=shard.postings.Get(w.ids[i]);
+		if(p==null)
+		    continue;
+		Block b=p.block;
+		int size=b.countBelow(numArticles);
+		for(int j=0;j<size;j++) {
+		    int id=b.ids[j];
+		    int slot=id/shards.length;
+		    //a score is never 0 either
+		    float score=BM25.Score(w.idfs[i],b.counts[j],norm(id));
+		    if(buffer[slot]==0) {
+			if(n==ids.length)
+			    ids=Arrays.copyOf(ids,n*2);
+			ids[n++]=id;
+		    }
+		    if(score>buffer[slot])
+			buffer[slot]=score;
+		}
+	    }
+	    ids=Arrays.copyOf(ids,n);
+	    Arrays.sort(ids);
+	    float[] scores = new float[n];
+	    float bound=0;
+	    for(int i=0;i<n;i++) {
+		int slot=ids[i]/shards.length;
+		scores[i]=buffer[slot];
+		buffer[slot]=0;
+		bound=Math.max(bound,scores[i]);
+	    }
+	    return new Scored(ids,scores,bound);
+	}
+
+	final int numArticles;
+	final float averageLength;
+	//the norm of each Article, or 0 until it is needed
+	final float[] norms;
+	//the words of the queries, by word and kind
+	final HashMap<String, Word> words;
+	//each shard's buffer for #score(int number, Word w)
+	final float[][] buffers;
+    }
+
+    /**
+      * The Articles of one shard which contain a
+      * pattern or fuzzy word, and their scores for it
+      */
+    private static class Scored {
+	Scored(int[] ids, float[] scores, float bound) {
+	    this.ids=ids;
+	    this.scores=scores;
+	    this.bound=bound;
+	}
+
+	final int[] ids;
+	final float[] scores;
+	final float bound;
+    }
+
+    /**
+      * A word of a Query, as the words of the index
+      * it matches: just one, unless it is a pattern
+      * or a fuzzy word
+      */
+    private static class Word {
+	Word(int[] ids, float[] idfs) {
+	    this.ids=ids;
+	    this.idfs=idfs;
+	}
+
+	final int[] ids;
+	final float[] idfs;
+	//in a batch, the scores of a word which matches
+	//several words of the index, for each shard
+	Scored[] scored;
+    }
+
+    /**
+      * The postings lists of the Articles whose
+      * ids fall in one shard
+      */
+    private static class Shard {
+	Shard() {
+	    postings = new ChunkedArray<Postings>();
+	}
+
+	final ChunkedArray<Postings> postings;
+    }
+
+    /**
+      * The postings list of a single word.
+      * Writers take the list's own monitor, so only
+      * threads adding to the same word wait for each
+      * other. Readers take no lock: they read the
+      * current Block and then its size, and only
+      * look at that many postings.
+      */
+    private static class Postings {
+	Postings() {
+	    block = new Block(4);
+	}
+
+	/**
+	  * Adds a posting. Ids are almost always
+	  * added in increasing order, so the posting
+	  * is written after the end of the Block and
+	  * then published by raising its size. An id
+	  * which arrives after a larger one, because
+	  * its thread was slower, is inserted into a
+	  * copy of the Block instead, so readers of
+	  * the old Block are not disturbed.
+	  * @param id The article id
+	  * @param count The number of occurrences
+	  */
+	synchronized void add(int id, int count) {
+	    if(count>maxCount)
+		maxCount=count;
+	    Block b=block;
+	    int size=b.size;
+	    if(size==0 || b.ids[size-1]<id) {
+		if(size==b.ids.length) {
+		    Block grown = new Block(size*2);
+		    System.arraycopy(b.ids,0,grown.ids,0,size);
+		    System.arraycopy(b.counts,0,grown.counts,0,size);
+		    grown.ids[size]=id;
+		    grown.counts[size]=count;
+		    grown.size=size+1;
+		    block=grown;
+		    return;
+		}
+		b.ids[size]=id;
+		b.counts[size]=count;
+		b.size=size+1;
+		return;
+	    }
+	    int pos=b.countBelow(id);
+	    Block copy = new Block(size==b.ids.length?size*2:b.ids.length);
+	    System.arraycopy(b.ids,0,copy.ids,0,pos);
+	    System.arraycopy(b.counts,0,copy.counts,0,pos);
+	    copy.ids[pos]=id;
+	    copy.counts[pos]=count;
+	    System.arraycopy(b.ids,pos,copy.ids,pos+1,size-pos);
+	    System.arraycopy(b.counts,pos,copy.counts,pos+1,size-pos);
+	    copy.size=size+1;
+	    block=copy;
+	}
+
+	volatile Block block;
+	//the largest count ever added, which
+	//bounds the count in any snapshot
+	volatile int maxCount;
+    }
+
+    /**
+      * The storage of a postings list: two
+      * parallel primitive arrays rather than a
+      * list of objects to keep the index small.
+      * Postings are only ever written past size,
+      * so everything below size never changes.
+      */
+    private static class Block {
+	Block(int capacity) {
+	    ids = new int[capacity];
+	    counts = new int[capacity];
+	    size = 0;
+	}
+
+	/**
+	  * Counts the postings with an id below a
+	  * bound, which is the number of postings
+	  * visible to a snapshot of that many Articles
+	  * @param bound The id to count below
+	  * @return Number of postings with smaller ids
+	  */
+	int countBelow(int bound) {
+	    int lo=0;
+	    int hi=size;
+	    while(lo<hi) {
+		int mid=(lo+hi)>>>1;
+		if(ids[mid]<bound)
+		    lo=mid+1;
+		else
+		    hi=mid;
+	    }
+	    return lo;
+	}
+
+	final int[] ids;
+	final int[] counts;
+	volatile int size;
+    }
+
+    /**
+      * Reads postings in order of article id
+      * during a query, scoring the Article at
+      * the current one
+      */
+    private static abstract class Cursor {
+	Cursor(int size, float bound) {
+	    this.size=size;
+	    this.bound=bound;
+	}
+
+	/**
+	  * Gets the current article id
+	  * @return The id, or Integer.MAX_VALUE
+	  * once every posting has been read
+	  */
+	abstract int id();
+
+	/**
+	  * Moves to the next posting
+	  * @return The new article id
+	  */
+	abstract int next();
+
+	/**
+	  * Moves to the first posting with an
+	  * id of at least target
+	  * @param target The article id to move to
+	  * @return The new article id
+	  */
+	abstract int advance(int target);
+
+	/**
+	  * Scores the Article at the current posting
+	  * @param norm The Article's BM25#Norm(int length, float averageLength)
+	  * @return Its BM25 score for the word
+	  */
+	abstract float score(float norm);
+
+	//the number of postings, or an upper bound on it
+	final int size;
+	//the most #score(float norm) can return
+	final float bound;
+    }
+
+    /**
+      * Reads one word's postings over a
+      * snapshot of its Block
+      */
+    private static class TermCursor extends Cursor {
+	TermCursor(int[] ids, int[] counts, int size, float idf, float bound) {
+	    super(size,bound);
+	    this.ids=ids;
+	    this.counts=counts;
+	    this.idf=idf;
+	    pos=0;
+	}
+
+	int id() {
+	    return pos<size?ids[pos]:Integer.MAX_VALUE;
+	}
+
+	int next() {
+	    pos++;
+	    return id();
+	}
+
+	/**
+	  * Moves to the first posting with an id of
+	  * at least target, by galloping ahead and
+	  * then searching the last step
+	  * @param target The article id to move to
+	  * @return The new article id
+	  */
+	int advance(int target) {
+	    if(pos>=size || ids[pos]>=target)
+		return id();
+	    int lo=pos;
+	    int step=1;
+	    int hi=pos+1;
+	    while(hi<size && ids[hi]<target) {
+		lo=hi;
+		step<<=1;
+		hi=lo+step;
+	    }
+	    hi=Math.min(hi,size);
+	    //ids[lo] is below target, and ids[hi] is not
+	    while(lo+1<hi) {
+		int mid=(lo+hi)>>>1;
+		if(ids[mid]<target)
+		    lo=mid;
+		else
+		    hi=mid;
+	    }
+	    pos=hi;
+	    return id();
+	}
+
+	float score(float norm) {
+	    return BM25.Score(idf,counts[pos],norm);
+	}
+
+	final int[] ids;
+	final int[] counts;
+	final float idf;
+	int pos;
+    }
+
+    /**
+      * Reads the Articles and scores of a pattern
+      * or fuzzy word, scored once for a batch
+      */
+    private static class ScoredCursor extends TermCursor {
+	ScoredCursor(Scored scored) {
+	    super(scored.ids,null,scored.ids.length,0,scored.bound);
+	    scores=scored.scores;
+	}
+
+	float score(float norm) {
+	    return scores[pos];
+	}
+
+	final float[] scores;
+    }
+
+    /**
+      * Reads the postings of several words as one,
+      * for the words matching a pattern or a fuzzy
+      * word. An Article containing several of them
+      * scores as the best of them, so it does not
+      * outrank Articles just for spelling a word
+      * several ways.
+      */
+    private static class UnionCursor extends Cursor {
+	UnionCursor(Cursor[] parts) {
+	    super(sumOfSizes(parts),maxOfBounds(parts));
+	    this.parts=parts;
+	    current=min();
+	}
+
+	int id() {
+	    return current;
+	}
+
+	int next() {
+	    for(Cursor c : parts)
+		if(c.id()==current)
+		    c.next();
+	    current=min();
+	    return current;
+	}
+
+	int advance(int target) {
+	    if(current>=target)
+		return current;
+	    for(Cursor c : parts)
+		c.advance(target);
+	    current=min();
+	    return current;
+	}
+
+	float score(float norm) {
+	    float score=0;
+	    for(Cursor c : parts)
+		if(c.id()==current)
+		    score=Math.max(score,c.score(norm));
+	    return score;
+	}
+
+	/**
+	  * Finds the smallest current id of the parts
+	  * @return The id, or Integer.MAX_VALUE
+	  * once every part has been read
+	  */
+	private int min() {
+	    int id=Integer.MAX_VALUE;
+	    for(Cursor c : parts)
+		id=Math.min(id,c.id());
+	    return id;
+	}
+
+	/**
+	  * Adds up the sizes of the parts, which
+	  * bounds the number of distinct ids
+	  * @param parts The cursors of the words
+	  * @return The total number of postings
+	  */
+	private static int sumOfSizes(Cursor[] parts) {
+	    long size=0;
+	    for(Cursor c : parts)
+		size+=c.size;
+	    return (int)Math.min(size,Integer.MAX_VALUE);
+	}
+
+	/**
+	  * Finds the largest bound of the parts
+	  * @param parts The cursors of the words
+	  * @return The most any part can score
+	  */
+	private static float maxOfBounds(Cursor[] parts) {
+	    float bound=0;
+	    for(Cursor c : parts)
+		bound=Math.max(bound,c.bound);
+	    return bound;
+	}
+
+	final Cursor[] parts;
+	int current;
+    }
+
+    /**
+      * The most words a pattern or fuzzy word is
+      * expanded into during a query
+      */
+    public static final int MAX_EXPANSIONS=64;
+
+    private TermDictionary dictionary;
+    private ArticleRegistry registry;
+    private Shard[] shards;
+    private AtomicLong totalLength;
+    private SortedTerms sortedTerms;
+}
@@ -6,17 +6,19 @@
   * @author Eric Bakan
   */
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 
-import java.util.concurrent.atomic.AtomicInteger;
-
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
-
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
@@ -29,11 +31,12 @@ import java.net.URL;
 
 /**
   * Reads a list of RSS feeds from a
-  * file and constructs a LinkedList of
+  * file and constructs an InvertedIndex of
   * Articles from them. Then allows for
   * access to these articles, in particular
   * advanced searching for single-word
-  * queries. The class uses multithreading
+  * queries and BM25-ranked queries of
+  * several words. The class uses multithreading
   * to allow the data for each feed URL
   * and each article URL to be pulle down
   * in parallel, mitigating the slow speed
@@ -43,51 +46,348 @@ import java.net.URL;
 public class NiftyRSS {
     /**
       * Constructor
+      * Uses the default CrawlConfig
       * @param rssFile The name of the file
       * containing the list of RSS feed URLs
+      * @param numThreads The maximum number of threads,
+      * or 0 for no limit
       */
     public NiftyRSS(String rssFile, int numThreads) {
-	articleList = getArticles(rssFile, numThreads);
+	this(rssFile, numThreads, new CrawlConfig());
+    }
+
+    /**
+      * Constructor
+      * @param rssFile The name of the file
+      * containing the list of RSS feed URLs
+      * @param numThreads The maximum number of threads,
+      * or 0 for no limit
+      * @param config The settings of the crawl
+      */
+    public NiftyRSS(final String rssFile, final int numThreads, final CrawlConfig config) {
+	this.config=config;
+	index = new InvertedIndex(config.GetNumShards());
+	if(config.GetQueryCacheSize()>0)
+	    cache = new QueryCache(config.GetQueryCacheSize());
+	loadIndex(config);
+	if(!config.GetCrawl())
+	    return;
+	//if the crawl could not even start, still
+	//answer queries from the saved articles,
+	//but do not overwrite them
+	Runnable crawl = new Runnable() {
+	    public void run() {
+		if(getArticles(rssFile, numThreads, config))
+		    saveIndex(config);
+	    }
+	};
+	if(!config.GetBackgroundCrawl()) {
+	    crawl.run();
+	    return;
+	}
+	crawlThread = new Thread(crawl, "NiftyRSS crawl");
+	crawlThread.setDaemon(true);
+	crawlThread.start();
+    }
+
+    /**
+      * Checks whether the feeds are still
+      * being crawled in the background
+      * @return true until the background crawl,
+      * if there is one, has finished
+      */
+    public boolean IsCrawling() {
+	return crawlThread!=null && crawlThread.isAlive();
+    }
+
+    /**
+      * Waits for the background crawl, if
+      * there is one, to finish and save the index
+      * @throws InterruptedException if interrupted
+      * while waiting
+      */
+    public void AwaitCrawl() throws InterruptedException {
+	if(crawlThread!=null)
+	    crawlThread.join();
+    }
+
+    /**
+      * Checks whether the feeds are being
+      * refreshed now that the crawl is done
+      * @return true if CrawlConfig#GetRefreshInterval()
+      * is set and #Close() has not been called
+      */
+    public synchronized boolean IsRefreshing() {
+	return refresher!=null && !closed;
+    }
+
+    /**
+      * Stops refreshing the feeds, and saves the
+      * index if any articles were added to it since
+      * the crawl. Searching is still allowed.
+      */
+    public void Close() {
+	FeedRefresher r;
+	synchronized(this) {
+	    closed=true;
+	    r=refresher;
+	}
+	if(r==null)
+	    return;
+	r.Stop();
+	if(r.GetNumRefreshed()>0)
+	    saveIndex(config);
     }
 
     /**
       * Gets the number of articles in
-      * the NiftyRss
+      * the NiftyRss. During a background crawl
+      * this grows as articles are indexed.
       * @return Number of Articles
       */
     public int GetNumArticles()  {
-	return articleList==null?0:articleList.size();
+	return index.GetNumArticles();
+    }
+
+    /**
+      * Gets the number of distinct words
+      * in the NiftyRss's articles
+      * @return Number of distinct words
+      */
+    public int GetNumTerms() {
+	return index.GetDictionary().GetNumTerms();
     }
 
     /**
       * Gets all the articles which contain
       * a given query, sorted in descending order
       * by the number of occurrences in each article
-      * @param query The sinele-word query to search for
+      * @param query The single-word query to search for
       * @return A sorted LinkedList of the Articles which
       * contain the query
       */
     public LinkedList<Article> GetArticles(String query) {
-	if(articleList==null)
-	    return null;
-	LinkedList<Article> articles = new LinkedList<Article>();
-	for(Article a : articleList)
-	    if(a.GetNumOccurrences(query)>0)
-		articles.add(a);
-	SortArticleList(articles, query);
-	return articles;
+	return GetArticles(query, -1);
+    }
+
+    /**
+      * Gets the articles which contain a given
+      * query, sorted in descending order by the
+      * number of occurrences in each article.
+      * Only articles which were fully indexed when
+      * the query started are searched, so it is safe
+      * to query during a background crawl.
+      * @param query The single-word query to search for
+      * @param limit The maximum number of articles to
+      * return, or a negative number for all of them
+      * @return A sorted LinkedList of at most limit
+      * Articles which contain the query
+      */
+    public LinkedList<Article> GetArticles(String query, int limit) {
+	return index.GetArticles(query, limit);
+    }
+
+    /**
+      * Gets the k articles which contain a given
+      * query the most times, in descending order.
+      * This keeps only the best k articles as it
+      * goes, rather than sorting all of them.
+      * @param query The single-word query to search for
+      * @param k The maximum number of articles to return
+      * @return A sorted LinkedList of at most k
+      * Articles which contain the query
+      */
+    public LinkedList<Article> GetTopArticles(String query, int k) {
+	return GetTopArticles(query, 0, k);
+    }
+
+    /**
+      * Gets one page of the articles which contain
+      * a given query, in the order of
+      * #GetArticles(String query, int limit)
+      * @param query The single-word query to search for
+      * @param offset The number of best articles to skip
+      * @param limit The maximum number of articles to return
+      * @return A sorted LinkedList of at most limit
+      * Articles which contain the query
+      */
+    public LinkedList<Article> GetTopArticles(String query, int offset, int limit) {
+	return index.GetTopArticles(query, offset, limit);
+    }
+
+    /**
+      * Finds the articles which match a query of
+      * one or more words, ranked by BM25. Articles
+      * must contain every word, unless the query
+      * has OR between its words; see Query#Parse(String text).
+      * Repeated queries are answered from the
+      * QueryCache, if CrawlConfig#GetQueryCacheSize()
+      * is set, until an article containing one of
+      * their words is indexed.
+      * @param query The query to search for
+      * @param offset The number of best articles to skip
+      * @param limit The maximum number of articles to return
+      * @return The SearchHits, best first
+      */
+    public LinkedList<SearchHit> Search(String query, int offset, int limit) {
+	Query parsed=Query.Parse(query);
+	if(cache==null || offset<0 || limit<=0)
+	    return index.Search(parsed, offset, limit);
+	String key=parsed.toString();
+	//the version is read first, so articles indexed
+	//while the query runs make the entry stale
+	long version=index.GetVersion(parsed);
+	LinkedList<SearchHit> hits=cache.Get(key, version, offset, limit);
+	if(hits!=null)
+	    return hits;
+	int depth=(int)Math.min((long)offset+limit,Integer.MAX_VALUE);
+	hits=index.Search(parsed, 0, depth);
+	cache.Put(key, version, depth, hits);
+	for(int i=0;i<offset && !hits.isEmpty();i++)
+	    hits.removeFirst();
+	return hits;
+    }
+
+    /**
+      * Runs a batch of queries, as #Search(String query, int offset, int limit)
+      * would run each of them, but against a single
+      * snapshot of the index, sharing the work of
+      * queries with words in common as
+      * InvertedIndex#SearchBatch(Query[] queries, int offset, int limit)
+      * describes. The batch does not use or fill
+      * the QueryCache.
+      * @param queries The queries to search for
+      * @param offset The number of best articles to skip
+      * @param limit The maximum number of articles to return
+      * @return The SearchHits of each query, best
+      * first, in the order of queries
+      */
+    public ArrayList<LinkedList<SearchHit>> SearchBatch(List<String> queries, int offset, int limit) {
+	Query[] parsed = new Query[queries.size()];
+	int i=0;
+	for(String query : queries)
+	    parsed[i++]=Query.Parse(query);
+	return index.SearchBatch(parsed, offset, limit);
+    }
+
+    /**
+      * Query Cache Getter
+      * @return The cache of query results, for its
+      * counters, or null if queries are not cached
+      */
+    public QueryCache GetQueryCache() {
+	return cache;
+    }
+
+    /**
+      * Gets the number of articles which
+      * contain a given query
+      * @param query The single-word query to search for
+      * @return Number of Articles containing the query
+      */
+    public int GetNumResults(String query) {
+	return index.GetNumArticles(query);
+    }
+
+    /**
+      * Gets the number of failed attempts to fetch
+      * each feed or article URL which failed at
+      * least once in the last crawl, including
+      * attempts which were later retried
+      * @return The URLs mapped to their failure counts
+      */
+    public Map<String, Integer> GetFailures() {
+	HttpFetcher f=fetcher;
+	if(f==null)
+	    return Collections.<String, Integer>emptyMap();
+	return f.GetFailures();
+    }
+
+    /**
+      * Helper method which loads the articles saved
+      * by a previous run into the index, if the
+      * CrawlConfig names an index file which exists
+      * @param config The settings of the crawl
+      */
+    private void loadIndex(CrawlConfig config) {
+	if(config.GetIndexFile()==null)
+	    return;
+	IndexStore store = new IndexStore(config.GetIndexFile());
+	if(!store.Exists())
+	    return;
+	try {
+	    long start=System.nanoTime();
+	    int numArticles=store.Load(index);
+	    System.out.printf("Loaded %d articles from %s in %d ms\n",
+		    numArticles,config.GetIndexFile(),(System.nanoTime()-start)/1000000);
+	}
+	catch (IOException e) {
+	    System.out.printf("Cannot load index %s: %s\n",config.GetIndexFile(),e.getMessage());
+	    //the index may hold part of the file,
+	    //so start again with an empty one
+	    index = new InvertedIndex(config.GetNumShards());
+	}
+    }
+
+    /**
+      * Helper method which saves every article
+      * to the index file named by the CrawlConfig,
+      * if there is one
+      * @param config The settings of the crawl
+      */
+    private void saveIndex(CrawlConfig config) {
+	if(config.GetIndexFile()==null)
+	    return;
+	try {
+	    new IndexStore(config.GetIndexFile()).Save(index);
+	}
+	catch (IOException e) {
+	    System.out.printf("Cannot save index %s: %s\n",config.GetIndexFile(),e.getMessage());
+	}
     }
 
     /**
-      * A helper method for #GetArticles(String query)
-      * Sorts a given LinkedList of Articles in descending order
-      * by the number of times query appears in each of them
-      * @param query The single-word query to sort by
+      * Helper method which starts refreshing the
+      * feeds once the crawl is done, unless the
+      * NiftyRSS has already been closed
+      * @param feeds The feeds, with the state
+      * left by the crawl
+      * @param duplicates The articles already indexed
+      * @param fetcher The HttpFetcher used by the crawl
+      * @param numThreads The maximum number of threads,
+      * or 0 for no limit
       */
-    private void SortArticleList(LinkedList<Article> articles, String query) {
-	ArticleComparator comparator = new ArticleComparator(query);
-	Collections.sort(articles,comparator);
-	
+    private synchronized void startRefresh(
+	    ArrayList<FeedState> feeds,
+	    DuplicateFilter duplicates,
+	    HttpFetcher fetcher,
+	    int numThreads) {
+	if(closed)
+	    return;
+	refresher = new FeedRefresher(feeds, index, duplicates, fetcher,
+		newThreadPool(numThreads, config), config);
+	refresher.Start();
+    }
+
+    /**
+      * Helper method which creates the threads the
+      * feeds and articles run on. With virtual threads
+      * every task gets a thread of its own, which costs
+      * next to nothing. Otherwise a ThreadPool limits
+      * the number of threads used if requested by the
+      * user, or allows for infinite number
+      * @param numThreads The maximum number of threads,
+      * or 0 for no limit
+      * @param config The settings of the crawl
+      * @return The ExecutorService to run tasks on
+      */
+    private static ExecutorService newThreadPool(int numThreads, CrawlConfig config) {
+	if(config.GetVirtualThreads())
+	    return Executors.newVirtualThreadPerTaskExecutor();
+	else if(numThreads<=0)
+	    return Executors.newCachedThreadPool();
+	else
+	    return Executors.newFixedThreadPool(numThreads);
     }
 
     /**
@@ -131,40 +431,44 @@ public class NiftyRSS {
       * another thread for each article URL, allowing
       * article data to be downloaded much more quickly
       * than were the articles to be downloaded
-      * sequentially. Currently there is no limit on
-      * the number of threads this approach will spawn,
-      * which could lead to system slowdown. However,
-      * it is extremely easy to use a ThreadPool to
-      * limit the number of active threads. However,
-      * the author did not see any reason to do such
-      * as the program ran quickly enough on his system.
-      * Were this program to be extended to catalog
-      * more than a couple hundred articles, the author
-      * STRONGLY reccomends using a ThreadPool, otherwise
-      * the JVM is likely to crash or experience
-      * significant slowdown.
+      * sequentially. The threads run on a ThreadPool of
+      * numThreads threads, an unbounded cached pool, or
+      * with CrawlConfig#GetVirtualThreads() a virtual
+      * thread per task, which scales to many thousands
+      * of articles at once. With CrawlConfig#GetAsyncFetch()
+      * downloads do not hold a thread at all, and the
+      * threads only parse what has been downloaded.
+      * CrawlConfig#GetMaxFeeds() and
+      * CrawlConfig#GetMaxArticles() limit how many
+      * downloads are in flight, whichever is used.
       * @param fileName The location of the list of
       * RSS feeds to catalog
-      * @return a LinkedList of all the parsed Articles
-      * contained within the RSS feeds, without
-      * duplicates
+      * @param numThreads The maximum number of threads,
+      * or 0 for no limit
+      * @param config The settings of the crawl
+      * @return true if every feed was crawled, adding
+      * each new Article within them to the index, or
+      * false if the crawl could not be run
       */ 
-    private LinkedList<Article> getArticles(String fileName, int numThreads) {
-	LinkedList<Article> articles = new LinkedList<Article>();
-	ReentrantLock listLock = new ReentrantLock();
-	ReentrantLock printLock = new ReentrantLock();
+    private boolean getArticles(String fileName, int numThreads, CrawlConfig config) {
+	//the Articles already in the index
+	//are not downloaded again
+	DuplicateFilter duplicates = new DuplicateFilter();
+	for(int id=0;id<index.GetNumArticles();id++)
+	    duplicates.Add(index.GetArticle(id));
+	long start=System.nanoTime();
+	HttpFetcher fetcher = new HttpFetcher(config);
+	this.fetcher=fetcher;
 	BufferedReader reader = getBufferedReader(fileName);
 	LinkedList<URL> urls = new LinkedList<URL>();
-	AtomicInteger articleCount = new AtomicInteger();
 
 	if(reader==null)
-	    return null;
+	    return false;
 
 	//Get all the RSS feed urls
 	String feed=null;
 	try {
 	    while((feed=reader.readLine()) != null) {
-		System.out.printf("Feed: %s\n",feed);
 		try {
 		    urls.add(new URL(feed));
 		}
@@ -177,7 +481,7 @@ public class NiftyRSS {
 	//Error while reading from the file
 	catch (IOException e) {
 	    System.out.printf("File %s is corrupted.\n",fileName);
-	    return null;
+	    return false;
 	}
 
 	//close the BufferedReader for good measure
@@ -186,31 +490,48 @@ public class NiftyRSS {
 	}
 	catch (IOException e) {
 	    System.out.printf("Cannot close file %s.\n",fileName);
-	    return null;
+	    return false;
 	}
 
-	//begin spawning the threads.
+	//progress is printed by the reporter's own
+	//thread, so the crawl never waits on the console
+	CrawlReporter reporter = new CrawlReporter(config.GetCrawlListener());
+	reporter.Start();
 
-	//use a CountDownLatch to tell when all the threads
-	//are completed
+	//begin spawning the threads.
 
 	//One RSSFeedThread is spawned per feed. Then each
 	//RSSFeedThread will spawn a new RSSArticleThread
 	//for each article within its feed
 
-	//This current implementation uses a ThreadPool to
-	//limit the number of threads used if requested by
-	//the user, otherwise allows for infinite number
-	ExecutorService threadPool;
-	if(numThreads<=0)
-	    threadPool = Executors.newCachedThreadPool();
-	else
-	    threadPool = Executors.newFixedThreadPool(numThreads);
+	ExecutorService threadPool = newThreadPool(numThreads, config);
+	//the semaphore limits how many feeds are
+	//downloaded at once, whatever the executor
+	Semaphore feedPermits = config.GetMaxFeeds()>0?new Semaphore(config.GetMaxFeeds()):null;
+
+	//articles are run in turn by host, so that a
+	//feed full of links to one site does not send
+	//them all to the site at once. The scheduler
+	//also limits how many articles are downloaded
+	//at once, so queued articles hold no thread,
+	//and asynchronous requests are limited too
+	HostScheduler scheduler = new HostScheduler(threadPool,
+		config.GetMaxPerHost(), config.GetHostDelay(), config.GetMaxArticles());
+	scheduler.Start();
+
+	//use a Phaser to tell when all the threads are
+	//completed. Each feed has a child phaser with a
+	//party for the feed and one for each of its
+	//articles, so no single phaser reaches the limit
+	//on parties however large the crawl
+	Phaser crawlPhaser = new Phaser(1);
 
 	//compute this once because this operation is O(n)
 	int numURLs=urls.size();
-	CountDownLatch feedLatch = new CountDownLatch(numURLs);
 	Runnable[] feedThreads = new Runnable[numURLs];
+	//the state of each feed is kept after the
+	//crawl, so refreshes can carry on from it
+	ArrayList<FeedState> feeds = new ArrayList<FeedState>(numURLs);
 
 	//uses an integer to access the array elements
 	//and an Iterator for the LinkedList to reduce
@@ -218,31 +539,72 @@ public class NiftyRSS {
 	Iterator<URL> it = urls.iterator();
 	int i=0;
 	while(it.hasNext() && i<numURLs) {
+	    FeedState state = new FeedState(it.next(), config.GetRefreshInterval());
+	    feeds.add(state);
 	    feedThreads[i]=new RSSFeedThread(
+			scheduler,
 			threadPool,
-			it.next(),
-			articles,
-			listLock,
-			feedLatch,
-			articleCount,
-			printLock);
+			state,
+			duplicates,
+			index,
+			new Phaser(crawlPhaser,1),
+			feedPermits,
+			reporter,
+			fetcher,
+			config);
 
 	    threadPool.execute(feedThreads[i]);
 	    i++;
 	}
 	try {
-	    feedLatch.await();
+	    int phase=crawlPhaser.arrive();
+	    if(config.GetCrawlDeadline()>0) {
+		long left=config.GetCrawlDeadline()-(System.nanoTime()-start)/1000000;
+		crawlPhaser.awaitAdvanceInterruptibly(phase,Math.max(left,0),TimeUnit.MILLISECONDS);
+	    }
+	    else
+		crawlPhaser.awaitAdvanceInterruptibly(phase);
 	}
 	//if we're interrupted, kill everything
-	//because we don't care about bad data
+	//because we don't care about bad data.
+	//The scheduler is closed before the pool, as
+	//in FeedRefresher#Stop(), so it stops handing
+	//articles to a pool which would refuse them
 	catch (InterruptedException e) {
+	    scheduler.Close();
 	    threadPool.shutdownNow();
-	    return null;
+	    return false;
+	}
+	//out of time: stop the downloads still running,
+	//but keep and save every article indexed so far
+	catch (TimeoutException e) {
+	    System.out.printf("Crawl deadline reached with %d articles indexed\n",index.GetNumArticles());
+	    scheduler.Close();
+	    threadPool.shutdownNow();
+	    threadPool=null;
+	}
+	finally {
+	    scheduler.Close();
+	    reporter.Finish();
 	}
-	return articles;
+	//every task has finished, so let the
+	//threads go rather than leave them idle
+	if(threadPool!=null)
+	    threadPool.shutdown();
+	//the refresh polls on threads of its own, so
+	//that it outlives a crawl cut short by its deadline
+	if(config.GetRefreshInterval()>0)
+	    startRefresh(feeds, duplicates, fetcher, numThreads);
+	return true;
     }
 
-    private LinkedList<Article> articleList;
+    private CrawlConfig config;
+    private InvertedIndex index;
+    private QueryCache cache;
+    private Thread crawlThread;
+    private FeedRefresher refresher;
+    private boolean closed;
+    private volatile HttpFetcher fetcher;
 
 }
 
@@ -0,0 +1,986 @@
+/**
+  * NiftyRSSBenchmark.java
+  * Measures the performance of the
+  * NiftyRSS data structures and crawler
+  * on a synthetic corpus, without touching
+  * the outside network
+  */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+
+import java.nio.file.Files;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLEncoder;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+  * Runs one of several benchmarks over a
+  * randomly generated corpus whose word
+  * frequencies follow Zipf's law, which is
+  * roughly how words are distributed in real
+  * articles. The benchmark to run is the first
+  * command-line parameter, and the number of
+  * articles (or words, or feeds) to generate is the
+  * optional second. The crawl benchmarks serve
+  * their feeds and pages from a local HTTP
+  * server which adds a fixed latency to every
+  * response, like a distant web server. The cache
+  * mode checks rather than times: it fetches from
+  * the same server and exits with status 1 if the
+  * HttpFetcher's cache or decoding is wrong.
+  */
+public class NiftyRSSBenchmark {
+    /**
+      * Main method
+      * @throws IOException if the local server cannot be started
+      * @param args The benchmark name followed
+      * by the number of articles to generate
+      */
+    public static void main(String[] args) throws IOException {
+	if(args.length<1) {
+	    System.out.println("Usage: NiftyRSSBenchmark heap|phrase|terms|shards|batch|fetch|feeds|server|cache [numArticles|numTerms|numFeeds]");
+	    System.exit(1);
+	}
+	int numArticles=2000;
+	if(args.length>1)
+	    numArticles=Integer.parseInt(args[1]);
+
+	if(args[0].equals("heap"))
+	    heap(numArticles);
+	else if(args[0].equals("phrase"))
+	    phrase(numArticles);
+	else if(args[0].equals("terms"))
+	    terms(numArticles);
+	else if(args[0].equals("shards"))
+	    shards(numArticles);
+	else if(args[0].equals("batch"))
+	    batch(numArticles);
+	else if(args[0].equals("fetch"))
+	    fetch(numArticles);
+	else if(args[0].equals("feeds"))
+	    feeds(numArticles);
+	else if(args[0].equals("server"))
+	    server(numArticles);
+	else if(args[0].equals("cache"))
+	    cache();
+	else {
+	    System.out.printf("Unknown benchmark %s\n",args[0]);
+	    System.exit(1);
+	}
+    }
+
+    /**
+      * Compares the heap used by the word counts
+      * of numArticles articles when stored as one
+      * HashMap&lt;String, Integer&gt; per article and
+      * when stored as TermFrequencies sharing a
+      * single TermDictionary
+      * @param numArticles Number of articles to generate
+      */
+    private static void heap(int numArticles) {
+	String[] vocabulary = makeVocabulary(VOCABULARY_SIZE);
+	int[] entries = new int[1];
+	long mapBytes=heapOfHashMaps(vocabulary,numArticles,entries);
+	long compactBytes=heapOfTermFrequencies(vocabulary,numArticles);
+
+	System.out.printf("%d articles, %d words each, %d distinct words per article on average\n",
+		numArticles,ARTICLE_LENGTH,entries[0]/numArticles);
+	System.out.printf("HashMap<String, Integer>: %,d bytes (%d bytes per entry)\n",
+		mapBytes,mapBytes/entries[0]);
+	System.out.printf("TermFrequencies:          %,d bytes (%d bytes per entry)\n",
+		compactBytes,compactBytes/entries[0]);
+    }
+
+    /**
+      * Measures what storing word positions costs:
+      * the heap used by an index with and without
+      * them, and the time taken by phrase queries
+      * compared to queries for the same words
+      * anywhere in an Article
+      * @param numArticles Number of articles to generate
+      */
+    private static void phrase(int numArticles) {
+	String[] vocabulary = makeVocabulary(VOCABULARY_SIZE);
+	long before=usedHeap();
+	InvertedIndex plain=makeIndex(vocabulary,numArticles,false,1);
+	long plainBytes=usedHeap()-before;
+	before=usedHeap();
+	InvertedIndex positional=makeIndex(vocabulary,numArticles,true,1);
+	long positionalBytes=usedHeap()-before;
+	long encoded=0;
+	for(int id=0;id<numArticles;id++)
+	    encoded+=positional.GetArticle(id).GetTermPositions().GetSize();
+
+	System.out.printf("%d articles, %d words each\n",numArticles,ARTICLE_LENGTH);
+	System.out.printf("Without positions: %,d bytes\n",plainBytes);
+	System.out.printf("With positions:    %,d bytes (%,d bytes of positions, %.2f bytes per word)\n",
+		positionalBytes,encoded,(double)encoded/((long)numArticles*ARTICLE_LENGTH));
+
+	//pairs of words drawn like the text, so
+	//frequent pairs are queried most often
+	Random random = new Random(SEED+1);
+	Query[] words = new Query[NUM_QUERIES];
+	Query[] phrases = new Query[NUM_QUERIES];
+	for(int i=0;i<NUM_QUERIES;i++) {
+	    String pair=vocabulary[zipf(random)]+" "+vocabulary[zipf(random)];
+	    words[i]=Query.Parse(pair);
+	    phrases[i]=Query.Parse("\""+pair+"\"");
+	}
+	for(int round=0;round<2;round++) {
+	    //the first round warms up the JIT
+	    long wordNanos=timeQueries(positional,words);
+	    long phraseNanos=timeQueries(positional,phrases);
+	    if(round==1) {
+		System.out.printf("Both words, top 10: %8.1f us per query\n",wordNanos/1e3/NUM_QUERIES);
+		System.out.printf("Phrase, top 10:     %8.1f us per query\n",phraseNanos/1e3/NUM_QUERIES);
+	    }
+	}
+	//keep the plain index reachable until it is measured
+	if(plain.GetNumArticles()!=numArticles)
+	    System.out.println("Lost articles");
+    }
+
+    /**
+      * Measures looking words up in a dictionary of
+      * numTerms random words: the heap taken by the
+      * dictionary and by its SortedTerms view, and
+      * the time taken by exact lookups compared to
+      * prefix, wildcard and fuzzy ones
+      * @param numTerms Number of words to generate
+      */
+    private static void terms(int numTerms) {
+	String[] vocabulary = makeVocabulary(numTerms);
+	long before=usedHeap();
+	TermDictionary dictionary = new TermDictionary();
+	for(String word : vocabulary)
+	    dictionary.Intern(word);
+	long dictionaryBytes=usedHeap()-before;
+	before=usedHeap();
+	SortedTerms sorted = new SortedTerms(dictionary);
+	//the first lookup sorts every word
+	long start=System.nanoTime();
+	sorted.Prefix("a");
+	long sortNanos=System.nanoTime()-start;
+	long sortedBytes=usedHeap()-before;
+
+	System.out.printf("%,d words\n",numTerms);
+	System.out.printf("TermDictionary: %,d bytes (%d bytes per word)\n",
+		dictionaryBytes,dictionaryBytes/numTerms);
+	System.out.printf("SortedTerms:    %,d bytes (%d bytes per word), sorted in %d ms\n",
+		sortedBytes,sortedBytes/numTerms,sortNanos/1000000);
+
+	//words to look up, and misspellings of them
+	Random random = new Random(SEED+2);
+	String[] words = new String[NUM_QUERIES];
+	String[] typos = new String[NUM_QUERIES];
+	for(int i=0;i<NUM_QUERIES;i++) {
+	    words[i]=vocabulary[random.nextInt(numTerms)];
+	    char[] typo=words[i].toCharArray();
+	    typo[1+random.nextInt(typo.length-1)]=(char)('a'+random.nextInt(26));
+	    typos[i] = new String(typo);
+	}
+	for(int round=0;round<2;round++) {
+	    //the first round warms up the JIT
+	    long[] matches = new long[5];
+	    long[] nanos = new long[5];
+	    for(int i=0;i<NUM_QUERIES;i++) {
+		String word=words[i];
+		start=System.nanoTime();
+		matches[0]+=dictionary.GetId(word)>=0?1:0;
+		nanos[0]+=System.nanoTime()-start;
+		start=System.nanoTime();
+		matches[1]+=sorted.Prefix(word.substring(0,3)).length;
+		nanos[1]+=System.nanoTime()-start;
+		start=System.nanoTime();
+		matches[2]+=sorted.Wildcard(word.substring(0,2)+"?"+word.substring(3)).length;
+		nanos[2]+=System.nanoTime()-start;
+		start=System.nanoTime();
+		matches[3]+=sorted.Fuzzy(typos[i],1).length;
+		nanos[3]+=System.nanoTime()-start;
+		start=System.nanoTime();
+		matches[4]+=sorted.Fuzzy(typos[i],2).length;
+		nanos[4]+=System.nanoTime()-start;
+	    }
+	    if(round==1) {
+		String[] names={"Exact","Prefix (3 letters)","Wildcard (ab?...)","Fuzzy, 1 typo","Fuzzy, 2 typos"};
+		for(int j=0;j<names.length;j++)
+		    System.out.printf("%-19s %9.1f us per lookup, %.1f matches\n",names[j]+":",
+			    nanos[j]/1e3/NUM_QUERIES,(double)matches[j]/NUM_QUERIES);
+	    }
+	}
+    }
+
+    /**
+      * Measures how query latency scales with the
+      * number of shards of an index, from 1 up to
+      * the number of cores (and at least 4). Large
+      * OR queries read the longest postings lists,
+      * so they gain the most from splitting them.
+      * @param numArticles Number of articles to generate
+      */
+    private static void shards(int numArticles) {
+	String[] vocabulary = makeVocabulary(VOCABULARY_SIZE);
+	int cores=Runtime.getRuntime().availableProcessors();
+	Random random = new Random(SEED+3);
+	Query[] any = new Query[NUM_QUERIES];
+	Query[] all = new Query[NUM_QUERIES];
+	for(int i=0;i<NUM_QUERIES;i++) {
+	    String[] words = new String[4];
+	    for(int j=0;j<words.length;j++)
+		words[j]=vocabulary[zipf(random)];
+	    any[i]=Query.Parse(String.join(" OR ",words));
+	    all[i]=Query.Parse(words[0]+" "+words[1]);
+	}
+	System.out.printf("%d articles, %d words each, %d cores\n",numArticles,ARTICLE_LENGTH,cores);
+	double base=0;
+	for(int numShards=1;numShards<=Math.max(cores,4);numShards*=2) {
+	    InvertedIndex index=makeIndex(vocabulary,numArticles,false,numShards);
+	    long anyNanos=0;
+	    long allNanos=0;
+	    for(int round=0;round<2;round++) {
+		//the first round warms up the JIT
+		anyNanos=timeQueries(index,any);
+		allNanos=timeQueries(index,all);
+	    }
+	    if(numShards==1)
+		base=anyNanos;
+	    System.out.printf("%2d shards: 4 words OR %8.1f us, 2 words AND %8.1f us per query, OR speedup %.2fx\n",
+		    numShards,anyNanos/1e3/NUM_QUERIES,allNanos/1e3/NUM_QUERIES,base/anyNanos);
+	}
+    }
+
+    /**
+      * Compares the throughput of queries run one at
+      * a time with the same queries run in batches,
+      * which work out each word, each Article's length
+      * normalization and the scores of each pattern
+      * once per batch. The queries are drawn like the
+      * text, so common words recur across them, and a
+      * quarter of them have a prefix pattern. The
+      * batches must find the same hits as the queries
+      * run one at a time. The first rounds warm up the
+      * JIT, and the fastest of the rest is printed.
+      * @param numArticles Number of articles to generate
+      */
+    private static void batch(int numArticles) {
+	String[] vocabulary = makeVocabulary(VOCABULARY_SIZE);
+	InvertedIndex index=makeIndex(vocabulary,numArticles,false,1);
+	Random random = new Random(SEED+4);
+	Query[] queries = new Query[NUM_QUERIES];
+	for(int i=0;i<NUM_QUERIES;i++) {
+	    String first=vocabulary[zipf(random)];
+	    String second=vocabulary[zipf(random)];
+	    if(i%4==0)
+		second=second.substring(0,2)+"*";
+	    queries[i]=Query.Parse(first+" OR "+second);
+	}
+	System.out.printf("%d articles, %d words each, %d queries\n",numArticles,ARTICLE_LENGTH,NUM_QUERIES);
+	long oneNanos=Long.MAX_VALUE;
+	long batchNanos=Long.MAX_VALUE;
+	boolean same=true;
+	for(int round=0;round<BATCH_ROUNDS;round++) {
+	    long start=System.nanoTime();
+	    ArrayList<LinkedList<SearchHit>> one = new ArrayList<LinkedList<SearchHit>>(NUM_QUERIES);
+	    for(Query query : queries)
+		one.add(index.Search(query,0,10));
+	    long nanos=System.nanoTime()-start;
+	    if(round>=BATCH_ROUNDS/2)
+		oneNanos=Math.min(oneNanos,nanos);
+	    start=System.nanoTime();
+	    ArrayList<LinkedList<SearchHit>> batched = new ArrayList<LinkedList<SearchHit>>(NUM_QUERIES);
+	    for(int i=0;i<NUM_QUERIES;i+=BATCH_QUERIES)
+		batched.addAll(index.SearchBatch(
+			    Arrays.copyOfRange(queries,i,Math.min(i+BATCH_QUERIES,NUM_QUERIES)),0,10));
+	    nanos=System.nanoTime()-start;
+	    if(round>=BATCH_ROUNDS/2)
+		batchNanos=Math.min(batchNanos,nanos);
+	    for(int i=0;i<NUM_QUERIES;i++)
+		same&=sameHits(one.get(i),batched.get(i));
+	}
+	System.out.printf("One at a time:     %8.0f queries/second\n",NUM_QUERIES/(oneNanos/1e9));
+	System.out.printf("Batches of %4d:   %8.0f queries/second, %.2fx\n",BATCH_QUERIES,
+		NUM_QUERIES/(batchNanos/1e9),(double)oneNanos/batchNanos);
+	System.out.printf("Same hits:         %s\n",same?"yes":"NO");
+	if(!same)
+	    System.exit(1);
+    }
+
+    /**
+      * Compares two lists of hits
+      * @param a The first list
+      * @param b The second list
+      * @return true if they have the same Articles
+      * with the same scores, in the same order
+      */
+    private static boolean sameHits(LinkedList<SearchHit> a, LinkedList<SearchHit> b) {
+	if(a.size()!=b.size())
+	    return false;
+	Iterator<SearchHit> i=a.iterator();
+	Iterator<SearchHit> j=b.iterator();
+	while(i.hasNext()) {
+	    SearchHit x=i.next();
+	    SearchHit y=j.next();
+	    if(x.GetArticle()!=y.GetArticle() || x.GetScore()!=y.GetScore())
+		return false;
+	}
+	return true;
+    }
+
+    /**
+      * Builds an index of randomly generated articles
+      * @param vocabulary The words to draw from
+      * @param numArticles Number of articles to generate
+      * @param positions true to store word positions
+      * @param numShards Number of shards to split the index into
+      * @return The index
+      */
+    private static InvertedIndex makeIndex(String[] vocabulary, int numArticles, boolean positions,
+	    int numShards) {
+	InvertedIndex index = new InvertedIndex(numShards);
+	TermDictionary dictionary=index.GetDictionary();
+	Random random = new Random(SEED);
+	char[][] words = new char[vocabulary.length][];
+	for(int i=0;i<words.length;i++)
+	    words[i]=vocabulary[i].toCharArray();
+	for(int i=0;i<numArticles;i++) {
+	    TermCounter counter = new TermCounter(positions);
+	    for(int j=0;j<ARTICLE_LENGTH;j++) {
+		char[] word=words[zipf(random)];
+		counter.Add(word,word.length);
+	    }
+	    TermFrequencies terms = new TermFrequencies(counter,dictionary);
+	    index.AddArticle(new Article("Article "+i,null,"http://localhost/"+i,null,terms,
+			positions?new TermPositions(counter,terms,dictionary):null));
+	}
+	return index;
+    }
+
+    /**
+      * Runs queries for their 10 best Articles
+      * @param index The index to search
+      * @param queries The queries to run
+      * @return The time taken, in nanoseconds
+      */
+    private static long timeQueries(InvertedIndex index, Query[] queries) {
+	long start=System.nanoTime();
+	int hits=0;
+	for(Query query : queries)
+	    hits+=index.Search(query,0,10).size();
+	long nanos=System.nanoTime()-start;
+	//use the hits so the queries are not optimized away
+	return hits<0?-1:nanos;
+    }
+
+    /**
+      * Checks the conditional requests, decoding and
+      * cache of an HttpFetcher against the local server,
+      * once with blocking fetches and once with
+      * asynchronous ones. For each Content-Encoding the
+      * server sends (none, gzip, zlib deflate and raw
+      * deflate), the first fetch must decode the page
+      * and write it to the cache, and the second must
+      * be answered 304 Not Modified and read from the
+      * cache. An asynchronous fetch cut short by its
+      * size limit must be truncated, not fail, and must
+      * not be cached. Prints each check, and exits with
+      * status 1 if any fails.
+      * @throws IOException if the local server cannot be started
+      */
+    private static void cache() throws IOException {
+	HttpServer server=startServer(FEED_ITEMS);
+	final byte[] page=makePage(CACHED_PAGE_LENGTH);
+	final AtomicInteger notModified = new AtomicInteger();
+	server.createContext("/cached/",new HttpHandler() {
+	    public void handle(HttpExchange exchange) throws IOException {
+		//the encoding is the second part of the path
+		String encoding=exchange.getRequestURI().getPath().split("/")[2];
+		exchange.getResponseHeaders().set("ETag",CACHED_ETAG);
+		exchange.getResponseHeaders().set("Content-Type","text/html; charset=UTF-8");
+		if(CACHED_ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+		    notModified.incrementAndGet();
+		    exchange.sendResponseHeaders(304,-1);
+		    exchange.close();
+		    return;
+		}
+		byte[] body=encode(page,encoding);
+		if(!encoding.equals("identity"))
+		    exchange.getResponseHeaders().set("Content-Encoding",
+			    encoding.equals("raw")?"deflate":encoding);
+		exchange.sendResponseHeaders(200,body.length);
+		OutputStream out=exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	    }
+	});
+	File cacheDir=Files.createTempDirectory("cache").toFile();
+	int failures=0;
+	try {
+	    String base="http://127.0.0.1:"+server.getAddress().getPort()+"/cached/";
+	    for(String mode : new String[] {"blocking","async"}) {
+		CrawlConfig config = new CrawlConfig();
+		config.SetCacheDirectory(new File(cacheDir,mode).getPath());
+		config.SetAsyncFetch(mode.equals("async"));
+		config.SetMaxRetries(0);
+		HttpFetcher fetcher = new HttpFetcher(config);
+		boolean async=config.GetAsyncFetch();
+		File[] entries;
+		for(int i=0;i<ENCODINGS.length;i++) {
+		    String encoding=ENCODINGS[i];
+		    URL url=URI.create(base+encoding+"/page").toURL();
+		    String name=mode+" "+encoding;
+		    int before=notModified.get();
+		    FetchResponse first=fetch(fetcher,async,url,page.length);
+		    failures+=check(Arrays.equals(read(first),page) && !first.IsFromCache(),
+			    name+": first fetch is decoded from the network");
+		    entries=new File(cacheDir,mode).listFiles();
+		    failures+=check(entries!=null && entries.length==i+1,
+			    name+": first fetch is written to the cache");
+		    FetchResponse second=fetch(fetcher,async,url,page.length);
+		    failures+=check(Arrays.equals(read(second),page) && second.IsFromCache()
+			    && notModified.get()==before+1,
+			    name+": second fetch is a 304 read from the cache");
+		}
+		if(async) {
+		    for(String encoding : new String[] {"identity","gzip"}) {
+			URL url=URI.create(base+encoding+"/cut").toURL();
+			byte[] cut=read(fetch(fetcher,async,url,CACHED_PAGE_LENGTH/4));
+			failures+=check(cut.length==CACHED_PAGE_LENGTH/4
+				&& Arrays.equals(cut,Arrays.copyOf(page,cut.length)),
+				mode+" "+encoding+": a body over the limit is truncated");
+			entries=new File(cacheDir,mode).listFiles();
+			failures+=check(entries!=null && entries.length==ENCODINGS.length,
+				mode+" "+encoding+": a truncated body is not cached");
+		    }
+		}
+	    }
+	}
+	finally {
+	    server.stop(0);
+	    for(File dir : cacheDir.listFiles()) {
+		for(File entry : dir.listFiles())
+		    entry.delete();
+		dir.delete();
+	    }
+	    cacheDir.delete();
+	}
+	System.out.printf("%d checks failed\n",failures);
+	if(failures>0)
+	    System.exit(1);
+    }
+
+    /**
+      * Fetches a URL with an HttpFetcher
+      * @throws IOException if the URL cannot be fetched
+      * @param fetcher The HttpFetcher
+      * @param async true to fetch asynchronously, which
+      * the HttpFetcher must have been made for
+      * @param url The URL to fetch
+      * @param maxBytes The most bytes of the body to
+      * read, for an asynchronous fetch
+      * @return The body
+      */
+    private static FetchResponse fetch(HttpFetcher fetcher, boolean async, URL url, int maxBytes)
+	    throws IOException {
+	try {
+	    return async?fetcher.OpenAsync(url,maxBytes).get():fetcher.Open(url);
+	}
+	catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new IOException("Interrupted",e);
+	}
+	catch (ExecutionException e) {
+	    throw HttpFetcher.Unwrap(e);
+	}
+    }
+
+    /**
+      * Reads the whole of a fetched body and closes it,
+      * which is when a fetched body is cached
+      * @throws IOException if the body cannot be read
+      * @param response The body
+      * @return The bytes of the body
+      */
+    private static byte[] read(FetchResponse response) throws IOException {
+	try {
+	    return response.GetStream().readAllBytes();
+	}
+	finally {
+	    response.Close();
+	}
+    }
+
+    /**
+      * Prints the result of one check
+      * @param ok true if the check passed
+      * @param name What was checked
+      * @return 0 if the check passed, or 1
+      */
+    private static int check(boolean ok, String name) {
+	System.out.printf("%-6s %s\n",ok?"ok":"FAILED",name);
+	return ok?0:1;
+    }
+
+    /**
+      * Makes the body of a synthetic page
+      * @param length The number of words
+      * @return The page, as UTF-8
+      */
+    private static byte[] makePage(int length) {
+	String[] vocabulary=makeVocabulary(1000);
+	Random random = new Random(SEED);
+	StringBuilder page = new StringBuilder("<html><body><p>");
+	for(int i=0;i<length;i++)
+	    page.append(vocabulary[random.nextInt(vocabulary.length)]).append(' ');
+	return page.append("</p></body></html>").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+      * Encodes a body as a server would send it
+      * @throws IOException if the body cannot be encoded
+      * @param body The body
+      * @param encoding identity, gzip, deflate for zlib
+      * deflate, or raw for deflate without the zlib
+      * wrapper, which some servers send as deflate
+      * @return The encoded body
+      */
+    private static byte[] encode(byte[] body, String encoding) throws IOException {
+	if(encoding.equals("identity"))
+	    return body;
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	OutputStream out;
+	if(encoding.equals("gzip"))
+	    out = new GZIPOutputStream(bytes);
+	else
+	    out = new DeflaterOutputStream(bytes,new Deflater(Deflater.DEFAULT_COMPRESSION,encoding.equals("raw")));
+	out.write(body);
+	out.close();
+	return bytes.toByteArray();
+    }
+
+    /**
+      * Compares the article throughput of the three
+      * ways of crawling: blocking fetches on a pool
+      * of platform threads, blocking fetches on
+      * virtual threads, and asynchronous fetches with
+      * HttpClient. One feed links numArticles pages,
+      * so the time is spent fetching articles.
+      * @throws IOException if the local server cannot be started
+      * @param numArticles Number of articles in the feed
+      */
+    private static void fetch(int numArticles) throws IOException {
+	System.out.printf("1 feed of %d articles, %d ms latency\n",numArticles,LATENCY_MILLIS);
+	crawl("pool",1,numArticles,numArticles);
+	crawl("virtual",1,numArticles,numArticles);
+	crawl("async",1,numArticles,numArticles);
+    }
+
+    /**
+      * Compares the feed throughput of the three
+      * ways of crawling. Every feed lists the same
+      * few articles, which are only fetched once,
+      * so the time is spent fetching feeds.
+      * @throws IOException if the local server cannot be started
+      * @param numFeeds Number of feeds to crawl
+      */
+    private static void feeds(int numFeeds) throws IOException {
+	System.out.printf("%d feeds of %d shared articles, %d ms latency\n",
+		numFeeds,FEED_ITEMS,LATENCY_MILLIS);
+	crawl("pool",numFeeds,FEED_ITEMS,numFeeds);
+	crawl("virtual",numFeeds,FEED_ITEMS,numFeeds);
+	crawl("async",numFeeds,FEED_ITEMS,numFeeds);
+    }
+
+    /**
+      * Crawls feeds from a local server in one of
+      * the three modes and prints the throughput.
+      * Politeness limits are turned off, since
+      * every page comes from the same host.
+      * @throws IOException if the local server cannot be started
+      * @param mode pool, virtual or async
+      * @param numFeeds Number of feeds to serve
+      * @param itemsPerFeed Number of articles in each feed
+      * @param units Number of feeds or articles the
+      * throughput is measured in
+      */
+    private static void crawl(String mode, int numFeeds, int itemsPerFeed, int units) throws IOException {
+	HttpServer server=startServer(itemsPerFeed);
+	File feedList=File.createTempFile("feeds",".txt");
+	try {
+	    PrintWriter out = new PrintWriter(new FileWriter(feedList));
+	    for(int i=0;i<numFeeds;i++)
+		out.printf("http://127.0.0.1:%d/feed/%d\n",server.getAddress().getPort(),i);
+	    out.close();
+
+	    CrawlConfig config = new CrawlConfig();
+	    config.SetCrawlListener(null);
+	    config.SetMaxPerHost(0);
+	    config.SetHostDelay(0);
+	    config.SetMaxRetries(0);
+	    config.SetVirtualThreads(!mode.equals("pool"));
+	    config.SetAsyncFetch(mode.equals("async"));
+	    config.SetMaxFeeds(POOL_THREADS);
+	    config.SetMaxArticles(POOL_THREADS*4);
+
+	    long start=System.nanoTime();
+	    NiftyRSS rss = new NiftyRSS(feedList.getPath(),POOL_THREADS,config);
+	    double seconds=(System.nanoTime()-start)/1e9;
+	    System.out.printf("%-8s %,6d articles in %6.2f s: %,8.0f per second\n",
+		    mode,rss.GetNumArticles(),seconds,units/seconds);
+	}
+	finally {
+	    server.stop(0);
+	    feedList.delete();
+	}
+    }
+
+    /**
+      * Load-tests a SearchServer while the index
+      * grows. One feed of numArticles pages is crawled
+      * in the background, a few pages at a time so the
+      * crawl lasts a while, and clients on virtual
+      * threads keep #LOAD_CLIENTS requests to /search
+      * in flight at once, first during the crawl and
+      * then again once it has finished. The latency
+      * of every request is measured at the client.
+      * @throws IOException if a local server cannot be started
+      * @param numArticles Number of articles in the feed
+      */
+    private static void server(int numArticles) throws IOException {
+	//the feed server is made first, and would fix
+	//the setting SearchServer depends on
+	System.setProperty(SearchServer.NODELAY_PROPERTY,"true");
+	HttpServer feeds=startServer(numArticles);
+	File feedList=File.createTempFile("feeds",".txt");
+	try {
+	    PrintWriter out = new PrintWriter(new FileWriter(feedList));
+	    out.printf("http://127.0.0.1:%d/feed/0\n",feeds.getAddress().getPort());
+	    out.close();
+
+	    CrawlConfig config = new CrawlConfig();
+	    config.SetCrawlListener(null);
+	    config.SetMaxPerHost(0);
+	    config.SetHostDelay(0);
+	    config.SetMaxRetries(0);
+	    config.SetVirtualThreads(true);
+	    config.SetMaxArticles(INGEST_THREADS);
+	    config.SetBackgroundCrawl(true);
+
+	    NiftyRSS rss = new NiftyRSS(feedList.getPath(),POOL_THREADS,config);
+	    SearchServer server = new SearchServer(rss,new InetSocketAddress("127.0.0.1",0));
+	    server.Start();
+	    try {
+		System.out.printf("1 feed of %d articles, %d at once, %d ms latency; %d clients\n",
+			numArticles,INGEST_THREADS,LATENCY_MILLIS,LOAD_CLIENTS);
+		HttpClient client=HttpClient.newBuilder()
+		    .version(HttpClient.Version.HTTP_1_1)
+		    .executor(Executors.newVirtualThreadPerTaskExecutor())
+		    .build();
+		String base="http://127.0.0.1:"+server.GetPort()+"/search";
+		String[] vocabulary=makeVocabulary(1000);
+		load("crawling",client,base,vocabulary,rss);
+		rss.AwaitCrawl();
+		load("crawled",client,base,vocabulary,rss);
+		System.out.printf("%d errors\n",server.GetNumErrors());
+	    }
+	    catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	    finally {
+		server.Stop();
+		rss.Close();
+	    }
+	}
+	finally {
+	    feeds.stop(0);
+	    feedList.delete();
+	}
+    }
+
+    /**
+      * Sends #LOAD_QUERIES queries of one or two words
+      * to /search from #LOAD_CLIENTS clients at once,
+      * and prints the throughput and the median and
+      * 99th percentile latency
+      * @throws InterruptedException if interrupted
+      * while waiting for the clients
+      * @param label What is happening to the index
+      * @param client The HttpClient to send with
+      * @param base The URL of /search
+      * @param vocabulary The words to query
+      * @param rss The NiftyRSS being searched
+      */
+    private static void load(String label, final HttpClient client, final String base,
+	    final String[] vocabulary, NiftyRSS rss) throws InterruptedException {
+	final long[] latencies = new long[LOAD_QUERIES];
+	final AtomicInteger next = new AtomicInteger();
+	final AtomicInteger failures = new AtomicInteger();
+	int before=rss.GetNumArticles();
+	long start=System.nanoTime();
+	Thread[] clients = new Thread[LOAD_CLIENTS];
+	for(int c=0;c<clients.length;c++) {
+	    final Random random = new Random(SEED+c);
+	    clients[c]=Thread.ofVirtual().start(new Runnable() {
+		public void run() {
+		    for(int i=next.getAndIncrement();i<latencies.length;i=next.getAndIncrement()) {
+			String query=vocabulary[random.nextInt(vocabulary.length)];
+			int words=random.nextInt(3);
+			if(words==1)
+			    query+=" "+vocabulary[random.nextInt(vocabulary.length)];
+			else if(words==2)
+			    query+=" OR "+vocabulary[random.nextInt(vocabulary.length)];
+			HttpRequest request=HttpRequest.newBuilder(
+				URI.create(base+"?k=10&q="+URLEncoder.encode(query,StandardCharsets.UTF_8))).build();
+			long sent=System.nanoTime();
+			try {
+			    HttpResponse<String> response=client.send(request,HttpResponse.BodyHandlers.ofString());
+			    if(response.statusCode()!=200)
+				failures.incrementAndGet();
+			}
+			catch (IOException e) {
+			    failures.incrementAndGet();
+			}
+			catch (InterruptedException e) {
+			    return;
+			}
+			latencies[i]=System.nanoTime()-sent;
+		    }
+		}
+	    });
+	}
+	for(Thread t : clients)
+	    t.join();
+	double seconds=(System.nanoTime()-start)/1e9;
+	Arrays.sort(latencies);
+	System.out.printf("%-8s %,6d queries in %6.2f s: %,6.0f per second, p50 %6.2f ms, p99 %6.2f ms; "
+		+"%d failed, %d to %d articles indexed\n",
+		label,latencies.length,seconds,latencies.length/seconds,
+		percentile(latencies,0.50)/1e6,percentile(latencies,0.99)/1e6,
+		failures.get(),before,rss.GetNumArticles());
+    }
+
+    /**
+      * Finds a percentile of sorted measurements
+      * @param sorted The measurements, in increasing order
+      * @param p The fraction of measurements which
+      * are at most the percentile
+      * @return The smallest measurement which is at
+      * least a fraction p of them
+      */
+    private static long percentile(long[] sorted, double p) {
+	return sorted[Math.max((int)Math.ceil(p*sorted.length)-1,0)];
+    }
+
+    /**
+      * Starts a local server of feeds and pages.
+      * /feed/i serves a feed of itemsPerFeed items
+      * linking /page/0 to /page/(itemsPerFeed-1),
+      * which serve short synthetic articles.
+      * @throws IOException if the server cannot be started
+      * @param itemsPerFeed Number of items in each feed
+      * @return The running server
+      */
+    private static HttpServer startServer(final int itemsPerFeed) throws IOException {
+	final HttpServer server=HttpServer.create(new InetSocketAddress("127.0.0.1",0),1024);
+	final String[] vocabulary = makeVocabulary(1000);
+	server.createContext("/feed/",new HttpHandler() {
+	    public void handle(HttpExchange exchange) throws IOException {
+		String base="http://127.0.0.1:"+server.getAddress().getPort();
+		StringBuilder feed = new StringBuilder("<rss version=\"2.0\"><channel><title>Benchmark</title>");
+		for(int i=0;i<itemsPerFeed;i++)
+		    feed.append("<item><title>Article ").append(i)
+			.append("</title><link>").append(base).append("/page/").append(i)
+			.append("</link><description>Article ").append(i)
+			.append("</description></item>");
+		feed.append("</channel></rss>");
+		respond(exchange,feed.toString(),"application/rss+xml");
+	    }
+	});
+	server.createContext("/page/",new HttpHandler() {
+	    public void handle(HttpExchange exchange) throws IOException {
+		Random random = new Random(exchange.getRequestURI().getPath().hashCode());
+		StringBuilder page = new StringBuilder("<html><body><p>");
+		for(int i=0;i<PAGE_LENGTH;i++)
+		    page.append(vocabulary[random.nextInt(vocabulary.length)]).append(' ');
+		page.append("</p></body></html>");
+		respond(exchange,page.toString(),"text/html; charset=UTF-8");
+	    }
+	});
+	server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+	server.start();
+	return server;
+    }
+
+    /**
+      * Sends a response after the simulated latency
+      * @throws IOException if the response cannot be sent
+      * @param exchange The request to respond to
+      * @param body The body of the response
+      * @param contentType The Content-Type of the body
+      */
+    private static void respond(HttpExchange exchange, String body, String contentType) throws IOException {
+	try {
+	    Thread.sleep(LATENCY_MILLIS);
+	}
+	catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+	byte[] bytes=body.getBytes(StandardCharsets.UTF_8);
+	exchange.getResponseHeaders().set("Content-Type",contentType);
+	exchange.sendResponseHeaders(200,bytes.length);
+	OutputStream out=exchange.getResponseBody();
+	out.write(bytes);
+	out.close();
+    }
+
+    /**
+      * Measures the heap used by one word count
+      * HashMap per article, as Article used to store
+      * @param vocabulary The words to draw from
+      * @param numArticles Number of articles to generate
+      * @param entries Output for the total number of
+      * map entries, in its first element
+      * @return Bytes of heap used
+      */
+    private static long heapOfHashMaps(String[] vocabulary, int numArticles, int[] entries) {
+	long before=usedHeap();
+	ArrayList<HashMap<String, Integer>> maps = new ArrayList<HashMap<String, Integer>>();
+	Random random = new Random(SEED);
+	for(int i=0;i<numArticles;i++) {
+	    HashMap<String, Integer> map = makeWordCount(vocabulary,random);
+	    entries[0]+=map.size();
+	    maps.add(map);
+	}
+	long bytes=usedHeap()-before;
+	//keep the maps reachable until they are measured
+	return maps.size()==numArticles?bytes:-1;
+    }
+
+    /**
+      * Measures the heap used by one TermFrequencies
+      * per article plus their shared TermDictionary
+      * @param vocabulary The words to draw from
+      * @param numArticles Number of articles to generate
+      * @return Bytes of heap used
+      */
+    private static long heapOfTermFrequencies(String[] vocabulary, int numArticles) {
+	long before=usedHeap();
+	TermDictionary dictionary = new TermDictionary();
+	ArrayList<TermFrequencies> compact = new ArrayList<TermFrequencies>();
+	Random random = new Random(SEED);
+	for(int i=0;i<numArticles;i++)
+	    compact.add(new TermFrequencies(makeWordCount(vocabulary,random),dictionary));
+	long bytes=usedHeap()-before;
+	return compact.size()==numArticles?bytes:-1;
+    }
+
+    /**
+      * Generates the word counts of one article.
+      * Every word is a fresh String, as the
+      * tokenizer produces for every article.
+      * @param vocabulary The words to draw from
+      * @param random The random number generator
+      * @return HashMap of each word paired with
+      * its number of occurrences
+      */
+    private static HashMap<String, Integer> makeWordCount(String[] vocabulary, Random random) {
+	HashMap<String, Integer> map = new HashMap<String, Integer>();
+	for(int j=0;j<ARTICLE_LENGTH;j++) {
+	    String word = new String(vocabulary[zipf(random)]);
+	    Integer val = map.get(word);
+	    map.put(word,val==null?1:val+1);
+	}
+	return map;
+    }
+
+    /**
+      * Makes a vocabulary of random lowercase words
+      * @param size Number of words
+      * @return Array of distinct words
+      */
+    private static String[] makeVocabulary(int size) {
+	Random random = new Random(SEED);
+	HashMap<String, Boolean> seen = new HashMap<String, Boolean>();
+	String[] words = new String[size];
+	int n=0;
+	while(n<size) {
+	    char[] word = new char[3+random.nextInt(8)];
+	    for(int i=0;i<word.length;i++)
+		word[i]=(char)('a'+random.nextInt(26));
+	    String s = new String(word);
+	    if(seen.put(s,true)==null)
+		words[n++]=s;
+	}
+	return words;
+    }
+
+    /**
+      * Picks a word index whose probability is
+      * roughly proportional to 1/rank, by
+      * inverting the continuous Zipf distribution
+      * @param random The random number generator
+      * @return Index into the vocabulary
+      */
+    private static int zipf(Random random) {
+	double x=Math.exp(random.nextDouble()*Math.log(VOCABULARY_SIZE));
+	return Math.min((int)x-1,VOCABULARY_SIZE-1);
+    }
+
+    /**
+      * Gets the heap in use after asking
+      * the JVM to collect garbage
+      * @return Bytes of heap in use
+      */
+    private static long usedHeap() {
+	Runtime runtime=Runtime.getRuntime();
+	for(int i=0;i<4;i++)
+	    System.gc();
+	return runtime.totalMemory()-runtime.freeMemory();
+    }
+
+    private static final int VOCABULARY_SIZE=50000;
+    private static final int ARTICLE_LENGTH=2000;
+    private static final long SEED=42;
+    private static final int NUM_QUERIES=1000;
+    private static final int BATCH_QUERIES=100;
+    private static final int BATCH_ROUNDS=6;
+    private static final int LATENCY_MILLIS=20;
+    private static final int POOL_THREADS=64;
+    private static final int FEED_ITEMS=5;
+    private static final int PAGE_LENGTH=300;
+    private static final int CACHED_PAGE_LENGTH=5000;
+    private static final String CACHED_ETAG="\"v1\"";
+    private static final String[] ENCODINGS = {"identity","gzip","deflate","raw"};
+    private static final int INGEST_THREADS=8;
+    private static final int LOAD_CLIENTS=16;
+    private static final int LOAD_QUERIES=2000;
+}
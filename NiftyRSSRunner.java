@@ -5,6 +5,20 @@
   * @author Eric Bakan
   */
 
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+
+import java.net.InetSocketAddress;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.LinkedList;
 
@@ -12,9 +26,10 @@ import java.util.LinkedList;
   * Demonstrates the capabilities of the
   * NiftyRSS class. First indexes a
   * list of RSS feeds, then allows for
-  * the searching of single-word queries
-  * within the articles, returning the
-  * appropriate sorted results.
+  * the searching of queries of one or more
+  * words within the articles, returning the
+  * results ranked by BM25. Requires Java 21
+  * or later, for virtual threads.
   */
 public class NiftyRSSRunner {
     /**
@@ -23,9 +38,20 @@ public class NiftyRSSRunner {
       * feed URLs as a command-line parameter
       * and then constructs a database of articles.
       * The user is then allowed to query this
-      * database with single-word queries
+      * database with queries of one or more words.
+      * Options starting with -- may be given
+      * anywhere on the command line, and are
+      * described in #parseOptions(String[] args, CrawlConfig config)
       */
     public static void main(String[] args) {
+	CrawlConfig config = new CrawlConfig();
+	args = parseOptions(args, config);
+	//in batch mode only the results go to standard
+	//output, and everything else to standard error
+	PrintStream results=System.out;
+	if(batchFile!=null)
+	    System.setOut(System.err);
+
 	//The file name should be the first
 	//command-line parameter
 	String rssFileName=null;
@@ -53,24 +79,60 @@ public class NiftyRSSRunner {
 
 	if(rssFileName==null)
 	    System.exit(1);
+	if(config.GetVirtualThreads())
+	    System.out.println("Using a virtual thread for every feed and article");
 
 	Scanner sc = new Scanner(System.in);
 
 	System.out.println("Welcome to the Nifty RSS Searcher!");
 	System.out.println("Indexing Article Database...");
 
-	NiftyRSS nifty = new NiftyRSS(rssFileName, numThreads);
+	long start=System.nanoTime();
+	NiftyRSS nifty = new NiftyRSS(rssFileName, numThreads, config);
+	double seconds=(System.nanoTime()-start)/1e9;
 
 	int numArticles=nifty.GetNumArticles();
-	if(numArticles==1)
-	    System.out.printf("Article Database Complete. Currently indexing %d article.\n",nifty.GetNumArticles());
-	else
-	    System.out.printf("Article Database Complete. Currently indexing %d articles.\n",nifty.GetNumArticles());
+	if(nifty.IsCrawling())
+	    System.out.printf("Loaded %d articles. The rest are searchable as soon as they are indexed.\n",
+		    numArticles);
+	else {
+	    if(numArticles==1)
+		System.out.printf("Article Database Complete. Currently indexing %d article.\n",numArticles);
+	    else
+		System.out.printf("Article Database Complete. Currently indexing %d articles.\n",numArticles);
+	    System.out.printf("Indexed %d distinct words in %.1f seconds (%.1f articles/second)\n",
+		    nifty.GetNumTerms(),seconds,numArticles/seconds);
+	    Map<String, Integer> failures=nifty.GetFailures();
+	    if(!failures.isEmpty())
+		System.out.printf("%d URLs failed at least once, %d failed attempts in all\n",
+			failures.size(),sum(failures.values()));
+	}
+
+	if(config.GetRefreshInterval()>0)
+	    System.out.printf("New articles are indexed as the feeds are refreshed every %d seconds or more\n",
+		    config.GetRefreshInterval()/1000);
+
+	if(batchFile!=null) {
+	    //the batch should see every article,
+	    //not just those indexed so far
+	    try {
+		nifty.AwaitCrawl();
+	    }
+	    catch (InterruptedException e) {}
+	    boolean ok=runBatch(nifty, batchFile, results);
+	    nifty.Close();
+	    System.exit(ok?0:1);
+	}
+
+	if(serveAddress!=null) {
+	    serve(nifty);
+	    return;
+	}
 
 	String query="";
 	while(true) {
 	    //get user query
-	    System.out.print("Please enter single search term (or blank to exit): ");
+	    System.out.print("Please enter search terms, with OR to match any of them, \"quotes\" for a phrase, * or ~ for similar words and #N for page N (or blank to exit): ");
 	    query=sc.nextLine();
 
 	    //if the entry is blank, exit
@@ -78,55 +140,343 @@ public class NiftyRSSRunner {
 		break;
 
 	    //sanitize the query
+	    int page=parsePage(query);
 	    query=sanitizeQuery(query);
 	    System.out.printf("Actual query: %s\n",query);
+	    if(nifty.IsCrawling())
+		System.out.printf("Still crawling, %d articles indexed so far\n",nifty.GetNumArticles());
+	    else if(nifty.IsRefreshing())
+		System.out.printf("Searching %d articles\n",nifty.GetNumArticles());
 
-	    //get the articles for the query
-	    LinkedList<Article> articles = nifty.GetArticles(query);
-
-	    int numResults=articles.size();
-	    if(numResults==1)
-		System.out.printf("Search returned %d result\n",articles.size());
-	    else
-		System.out.printf("Search returned %d results\n",articles.size());
+	    //the number of matching articles is only
+	    //cheap to find for a single word, whose
+	    //postings list is exactly its matches
+	    int numResults=-1;
+	    Query parsed=Query.Parse(query);
+	    if(parsed.GetTerms().length==1 && parsed.GetKind(0)==Query.EXACT) {
+		numResults=nifty.GetNumResults(parsed.GetTerms()[0]);
+		if(numResults==1)
+		    System.out.printf("Search returned %d result\n",numResults);
+		else
+		    System.out.printf("Search returned %d results\n",numResults);
+	    }
 
-	    //limit the number of displayed results
-	    if(articles.size()>10)
-		System.out.printf("Only the first 10 results will be displayed\n");
+	    //only fetch the articles which will be displayed
+	    int offset=(page-1)*PAGE_SIZE;
+	    LinkedList<SearchHit> hits = nifty.Search(query, offset, PAGE_SIZE);
+	    if(numResults>PAGE_SIZE || (numResults<0 && !hits.isEmpty()))
+		System.out.printf("Showing results %d to %d\n",offset+1,offset+hits.size());
+	    else if(numResults<0)
+		System.out.println("No results");
 
 	    //display results
-	    int rank=1;
-	    for(Article a : articles) {
-		System.out.printf("%d %s, %d hits\n%s\n%s\n\n",
-			rank++,a.GetTitle(),a.GetNumOccurrences(query),
+	    int rank=offset+1;
+	    for(SearchHit hit : hits) {
+		Article a=hit.GetArticle();
+		System.out.printf("%d %s, score %.2f\n%s\n%s\n\n",
+			rank++,a.GetTitle(),hit.GetScore(),
 			a.GetDescription(),
 			a.GetLink());
-		if(rank>10)
-		    break;
 	    }
 	}
+	//stop refreshing, and save what the
+	//refreshes added to the index
+	nifty.Close();
+	QueryCache cache=nifty.GetQueryCache();
+	if(cache!=null && cache.GetHits()+cache.GetMisses()>0)
+	    System.out.printf("Query cache: %d hits, %d misses, %d stale, %d evicted\n",
+		    cache.GetHits(),cache.GetMisses(),cache.GetInvalidations(),cache.GetEvictions());
 	System.out.println("Thank you for using the Nifty RSS Searcher!");
 
     }
     /**
-      * Trims whitespace and eliminates case,
-      * then attempts to find the first "word"
-      * in the query. A loop is used here in case
-      * there are invalid characters at the beginning
-      * of the query, which would result in one or more
-      * empty strings at the beginning of the array
+      * Applies the options on the command line
+      * to a CrawlConfig. The options are:
+      * --max-body=BYTES  read at most BYTES of each article
+      * --max-feed=BYTES  read at most BYTES of each feed
+      * --no-content      do not keep the raw content of articles
+      * --raw-html        index every word of the HTML, markup included
+      * --positions       keep the position of every word, for exact phrase queries
+      * --cache=DIR       cache feeds and articles in DIR between runs
+      * --index=FILE      load the index from FILE, and save it there after crawling
+      * --offline         do not crawl, only search the index loaded from --index
+      * --background      start searching at once while the crawl runs in the background
+      * --progress        print a summary of the crawl every second instead of every article
+      * --quiet           print nothing while crawling
+      * --virtual         run every feed and article on its own virtual thread
+      * --async           fetch feeds and articles asynchronously, over HTTP/2 where possible
+      * --max-feeds=N     read at most N feeds at once
+      * --max-articles=N  download at most N articles at once
+      * --per-host=N      download at most N articles at once from one host, 0 for no limit
+      * --host-delay=MS   wait at least MS milliseconds between downloads from one host
+      * --timeout=MS      give up on a connection or read after MS milliseconds
+      * --retries=N       retry a transient failure at most N times
+      * --deadline=SECS   stop crawling after SECS seconds, keeping what has been indexed
+      * --refresh=SECS    after crawling, poll each feed again at most every SECS seconds
+      * --max-refresh=SECS poll a feed which is not changing at least every SECS seconds
+      * --query-cache=N   remember the results of the last N queries, 0 for none
+      * --shards=N        split the index into N shards, searched in parallel
+      * --batch=FILE      run the queries in FILE, one per line, or - for standard
+      *                   input, printing the results as JSON lines, and exit
+      * --top=N           return the best N results of each query of a batch
+      * --serve=[HOST:]PORT answer /search?q=QUERY&amp;k=N and /stats over HTTP
+      *                   on PORT of HOST, or of localhost, instead of prompting;
+      *                   with --background, queries are answered during the crawl
+      * An unknown or malformed option exits the program.
+      * @param args The command-line parameters
+      * @param config The CrawlConfig to change
+      * @return The command-line parameters which
+      * are not options, in their original order
       */
-    public static String sanitizeQuery(String query) {
-	final String invalidChars="[^a-zA-Z0-9\\s]";
-	String[] dividedQuery=query.trim().toLowerCase().split(invalidChars);
-	for(int i=0;i<dividedQuery.length;i++) {
-	    if(dividedQuery[i].length()>0) {
-		query=dividedQuery[i];
-		break;
+    private static String[] parseOptions(String[] args, CrawlConfig config) {
+	ArrayList<String> rest = new ArrayList<String>();
+	for(String arg : args) {
+	    if(!arg.startsWith("--")) {
+		rest.add(arg);
+		continue;
+	    }
+	    int eq=arg.indexOf('=');
+	    String name=eq<0?arg:arg.substring(0,eq);
+	    String value=eq<0?null:arg.substring(eq+1);
+	    try {
+		if(name.equals("--max-body"))
+		    config.SetMaxBodySize(Integer.parseInt(value));
+		else if(name.equals("--max-feed"))
+		    config.SetMaxFeedSize(Integer.parseInt(value));
+		else if(name.equals("--no-content"))
+		    config.SetStoreContent(false);
+		else if(name.equals("--raw-html"))
+		    config.SetExtractText(false);
+		else if(name.equals("--positions"))
+		    config.SetStorePositions(true);
+		else if(name.equals("--cache") && value!=null)
+		    config.SetCacheDirectory(value);
+		else if(name.equals("--index") && value!=null)
+		    config.SetIndexFile(value);
+		else if(name.equals("--offline"))
+		    config.SetCrawl(false);
+		else if(name.equals("--background"))
+		    config.SetBackgroundCrawl(true);
+		else if(name.equals("--progress"))
+		    config.SetCrawlListener(new ProgressListener(1000));
+		else if(name.equals("--quiet"))
+		    config.SetCrawlListener(null);
+		else if(name.equals("--virtual"))
+		    config.SetVirtualThreads(true);
+		else if(name.equals("--async"))
+		    config.SetAsyncFetch(true);
+		else if(name.equals("--max-feeds"))
+		    config.SetMaxFeeds(Integer.parseInt(value));
+		else if(name.equals("--max-articles"))
+		    config.SetMaxArticles(Integer.parseInt(value));
+		else if(name.equals("--per-host"))
+		    config.SetMaxPerHost(Integer.parseInt(value));
+		else if(name.equals("--host-delay"))
+		    config.SetHostDelay(Long.parseLong(value));
+		else if(name.equals("--timeout")) {
+		    config.SetConnectTimeout(Integer.parseInt(value));
+		    config.SetReadTimeout(Integer.parseInt(value));
+		}
+		else if(name.equals("--retries"))
+		    config.SetMaxRetries(Integer.parseInt(value));
+		else if(name.equals("--deadline"))
+		    config.SetCrawlDeadline(Long.parseLong(value)*1000);
+		else if(name.equals("--refresh"))
+		    config.SetRefreshInterval(Long.parseLong(value)*1000);
+		else if(name.equals("--max-refresh"))
+		    config.SetMaxRefreshInterval(Long.parseLong(value)*1000);
+		else if(name.equals("--query-cache"))
+		    config.SetQueryCacheSize(Integer.parseInt(value));
+		else if(name.equals("--shards"))
+		    config.SetNumShards(Integer.parseInt(value));
+		else if(name.equals("--batch") && value!=null)
+		    batchFile=value;
+		else if(name.equals("--top"))
+		    batchLimit=Integer.parseInt(value);
+		else if(name.equals("--serve") && value!=null)
+		    serveAddress=parseAddress(value);
+		else {
+		    System.out.printf("Unknown option %s\n",arg);
+		    System.exit(1);
+		}
+	    }
+	    catch (NumberFormatException e) {
+		System.out.printf("Invalid value for option %s\n",arg);
+		System.exit(1);
 	    }
 	}
-	return query;
+	return rest.toArray(new String[rest.size()]);
     }
 
-}
+    /**
+      * Runs every query of a file, a batch of
+      * #BATCH_SIZE at a time, and prints one line of
+      * JSON for each with its best results:
+      * {"query": ..., "parsed": ..., "hits": [{"title": ...,
+      * "link": ..., "score": ...}, ...]}. Blank lines
+      * are skipped. The number of queries run per
+      * second is printed to standard error at the end.
+      * @param nifty The NiftyRSS to search
+      * @param file The file of queries, or - for standard input
+      * @param out Where to print the results
+      * @return true if every query was read
+      */
+    private static boolean runBatch(NiftyRSS nifty, String file, PrintStream out) {
+	long searchNanos=0;
+	long start=System.nanoTime();
+	int numQueries=0;
+	try {
+	    InputStream in=file.equals("-")?System.in:new FileInputStream(file);
+	    BufferedReader reader = new BufferedReader(new InputStreamReader(in,StandardCharsets.UTF_8));
+	    try {
+		ArrayList<String> batch = new ArrayList<String>();
+		ArrayList<String> parsed = new ArrayList<String>();
+		String line;
+		do {
+		    line=reader.readLine();
+		    if(line!=null && !line.trim().isEmpty()) {
+			batch.add(line);
+			parsed.add(sanitizeQuery(line));
+		    }
+		    if(batch.size()==BATCH_SIZE || (line==null && !batch.isEmpty())) {
+			long searchStart=System.nanoTime();
+			ArrayList<LinkedList<SearchHit>> hits=nifty.SearchBatch(parsed, 0, batchLimit);
+			searchNanos+=System.nanoTime()-searchStart;
+			for(int i=0;i<batch.size();i++)
+			    out.println(SearchServer.ToJson(batch.get(i),parsed.get(i),hits.get(i)));
+			numQueries+=batch.size();
+			batch.clear();
+			parsed.clear();
+		    }
+		} while(line!=null);
+	    }
+	    finally {
+		reader.close();
+	    }
+	}
+	catch (IOException e) {
+	    System.out.printf("Cannot read queries from %s: %s\n",file,e.getMessage());
+	    return false;
+	}
+	out.flush();
+	double seconds=(System.nanoTime()-start)/1e9;
+	System.out.printf("Ran %d queries in %.2f seconds: %.0f queries/second searching, %.0f with output\n",
+		numQueries,seconds,numQueries/Math.max(searchNanos/1e9,1e-9),numQueries/Math.max(seconds,1e-9));
+	return true;
+    }
+
+    /**
+      * Answers queries over HTTP with a SearchServer
+      * until the program is interrupted, then stops
+      * refreshing and saves the index as the prompt
+      * does when it exits
+      * @param nifty The NiftyRSS to search
+      */
+    private static void serve(final NiftyRSS nifty) {
+	final SearchServer server;
+	try {
+	    server = new SearchServer(nifty, serveAddress);
+	}
+	catch (IOException e) {
+	    System.out.printf("Cannot listen on %s: %s\n",serveAddress,e.getMessage());
+	    nifty.Close();
+	    System.exit(1);
+	    return;
+	}
+	server.Start();
+	Runtime.getRuntime().addShutdownHook(new Thread() {
+	    public void run() {
+		server.Stop();
+		nifty.Close();
+		System.out.printf("Answered %d queries, %d errors\n",
+			server.GetNumQueries(),server.GetNumErrors());
+	    }
+	});
+	System.out.printf("Answering queries at http://%s:%d/search?q=QUERY&k=N and /stats, Ctrl-C to stop\n",
+		serveAddress.getHostString(),server.GetPort());
+	try {
+	    Thread.currentThread().join();
+	}
+	catch (InterruptedException e) {}
+    }
+
+    /**
+      * Reads the address given to --serve
+      * @param value PORT or HOST:PORT
+      * @return The address, on localhost if
+      * no host is given
+      * @throws NumberFormatException If the port
+      * is not a number from 0 to 65535
+      */
+    private static InetSocketAddress parseAddress(String value) {
+	int colon=value.lastIndexOf(':');
+	String host=colon<0?"localhost":value.substring(0,colon);
+	int port=Integer.parseInt(value.substring(colon+1));
+	if(port<0 || port>65535)
+	    throw new NumberFormatException(value);
+	return new InetSocketAddress(host, port);
+    }
+
+    /**
+      * Adds up a collection of counts
+      * @param counts The counts
+      * @return The total
+      */
+    private static int sum(Collection<Integer> counts) {
+	int total=0;
+	for(int count : counts)
+	    total+=count;
+	return total;
+    }
 
+    /**
+      * Finds the page of results asked for,
+      * which is given as #N anywhere in the query
+      * @param query The query the user entered
+      * @return The page number, counting from 1,
+      * or 1 if none was given
+      */
+    private static int parsePage(String query) {
+	for(String part : query.trim().split("\\s+")) {
+	    if(!part.startsWith("#"))
+		continue;
+	    try {
+		return Math.min(Math.max(Integer.parseInt(part.substring(1)),1),Integer.MAX_VALUE/PAGE_SIZE);
+	    }
+	    catch (NumberFormatException e) {
+		return 1;
+	    }
+	}
+	return 1;
+    }
+
+    /**
+      * Finds the words of the query, using the
+      * same rules the articles were indexed with:
+      * the query is lowercased and anything which is
+      * not a letter or digit separates words. A page
+      * number given as #N is left out.
+      * @param query The query the user entered
+      * @return The words of the query joined by
+      * AND or OR, as Query#Parse(String text) reads
+      * them, or an empty String if it contains no words
+      */
+    public static String sanitizeQuery(String query) {
+	StringBuilder words = new StringBuilder();
+	for(String part : query.trim().split("\\s+"))
+	    if(!part.startsWith("#"))
+		words.append(part).append(' ');
+	return Query.Parse(words.toString()).toString();
+    }
+
+    private static final int PAGE_SIZE=10;
+    //the queries sharing their word lookups
+    private static final int BATCH_SIZE=1000;
+
+    //set by --batch and --top
+    private static String batchFile=null;
+    private static int batchLimit=PAGE_SIZE;
+    //set by --serve
+    private static InetSocketAddress serveAddress=null;
+
+}
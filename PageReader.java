@@ -0,0 +1,163 @@
+/**
+  * PageReader.java
+  * Streams the text of a web page
+  * straight from the network
+  */
+
+import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.Reader;
+
+import java.net.URL;
+
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+  * A Reader over the body of a URL. The body is
+  * decoded with the charset named by the
+  * Content-Type header, or failing that by a
+  * meta tag near the top of the page, or UTF-8.
+  * At most CrawlConfig#GetMaxBodySize() bytes are
+  * read, and the rest of the page is ignored. If
+  * the CrawlConfig asks for the content to be
+  * stored, everything read is also copied so it
+  * can be retrieved with #GetContent() once the
+  * page has been read.
+  */
+public class PageReader extends Reader {
+    /**
+      * Constructor
+      * Opens the connection to the URL
+      * @throws IOException if the URL cannot be opened
+      * @param url The page to read
+      * @param fetcher The HttpFetcher to fetch the page with
+      * @param config The settings of the crawl
+      */
+    public PageReader(URL url, HttpFetcher fetcher, CrawlConfig config) throws IOException {
+	this(fetcher.Open(url),config);
+    }
+
+    /**
+      * Constructor
+      * Reads a page which has already been fetched
+      * @throws IOException if the start of the page
+      * cannot be read
+      * @param response The fetched page
+      * @param config The settings of the crawl
+      */
+    public PageReader(FetchResponse response, CrawlConfig config) throws IOException {
+	InputStream in = new BufferedInputStream(
+		new BoundedInputStream(response.GetStream(),config.GetMaxBodySize()));
+	Charset charset = DetectCharset(response.GetContentType(),in);
+	reader = new InputStreamReader(in,charset);
+	content = config.GetStoreContent()?new StringBuilder():null;
+    }
+
+    /**
+      * Reads characters from the page,
+      * copying them if the content is stored
+      * @throws IOException if error occurs while reading
+      * @return Number of characters read, or -1
+      * at the end of the page
+      */
+    public int read(char[] buffer, int offset, int length) throws IOException {
+	int n=reader.read(buffer,offset,length);
+	if(n>0 && content!=null)
+	    content.append(buffer,offset,n);
+	return n;
+    }
+
+    /**
+      * Closes the connection to the page
+      * @throws IOException if error occurs while closing
+      */
+    public void close() throws IOException {
+	reader.close();
+    }
+
+    /**
+      * Content Getter
+      * @return Everything read from the page so far,
+      * or null if the content is not being stored
+      */
+    public String GetContent() {
+	return content==null?null:content.toString();
+    }
+
+    /**
+      * Works out the charset of a page. The charset
+      * parameter of the Content-Type header is used if
+      * there is one, otherwise the start of the page is
+      * searched for a meta tag giving the charset. The
+      * stream must support mark/reset, and is left
+      * at the start of the page.
+      * @throws IOException if error occurs while reading
+      * @param contentType The Content-Type header, or null
+      * @param in The page's stream
+      * @return The charset of the page, or UTF-8
+      * if none was given or it is not supported
+      */
+    public static Charset DetectCharset(String contentType, InputStream in) throws IOException {
+	Charset charset=null;
+	if(contentType!=null)
+	    charset=findCharset(contentType);
+	if(charset!=null)
+	    return charset;
+
+	in.mark(SNIFF_SIZE);
+	byte[] head = new byte[SNIFF_SIZE];
+	int length=0;
+	int n;
+	while(length<SNIFF_SIZE && (n=in.read(head,length,SNIFF_SIZE-length))>0)
+	    length+=n;
+	in.reset();
+	//every charset a meta tag can name is ASCII-compatible
+	//for the tag itself, so Latin-1 decodes it faithfully
+	String text = new String(head,0,length,StandardCharsets.ISO_8859_1);
+	Matcher meta=META_PATTERN.matcher(text);
+	while(meta.find()) {
+	    charset=findCharset(meta.group());
+	    if(charset!=null)
+		return charset;
+	}
+	return StandardCharsets.UTF_8;
+    }
+
+    /**
+      * Finds a charset=name parameter in a String
+      * @param s The String to search
+      * @return The named charset, or null if there
+      * is none or it is not supported
+      */
+    private static Charset findCharset(String s) {
+	Matcher m=CHARSET_PATTERN.matcher(s);
+	if(!m.find())
+	    return null;
+	try {
+	    return Charset.forName(m.group(1));
+	}
+	catch (IllegalCharsetNameException e) {
+	    return null;
+	}
+	catch (UnsupportedCharsetException e) {
+	    return null;
+	}
+    }
+
+    private static final int SNIFF_SIZE=1024;
+    private static final Pattern META_PATTERN =
+	    Pattern.compile("<meta[^>]*>",Pattern.CASE_INSENSITIVE);
+    private static final Pattern CHARSET_PATTERN =
+	    Pattern.compile("charset\\s*=\\s*[\"']?([A-Za-z0-9._:\\-]+)",Pattern.CASE_INSENSITIVE);
+
+    private Reader reader;
+    private StringBuilder content;
+}
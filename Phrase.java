@@ -0,0 +1,100 @@
+/**
+  * Phrase.java
+  * Words which must appear in order,
+  * next to or near each other
+  */
+
+/**
+  * A phrase of a Query: words which must appear in
+  * an Article in the given order. With a slop of 0
+  * they must be next to each other; a slop of n
+  * allows up to n other words in between, in all.
+  * Matching reads the positions of the words from
+  * the Article's TermPositions. An Article indexed
+  * without positions matches any phrase whose words
+  * it contains, since there is no way to tell.
+  */
+public class Phrase {
+    /**
+      * Constructor
+      * @param terms The lowercase words, in order
+      * @param slop The number of other words
+      * allowed between them
+      */
+    public Phrase(String[] terms, int slop) {
+	this.terms=terms;
+	this.slop=slop;
+    }
+
+    /**
+      * Terms Getter
+      * @return The lowercase words, in order
+      */
+    public String[] GetTerms() {
+	return terms;
+    }
+
+    /**
+      * Slop Getter
+      * @return The number of other words
+      * allowed between the words
+      */
+    public int GetSlop() {
+	return slop;
+    }
+
+    /**
+      * Checks whether an Article contains the phrase.
+      * For each occurrence of the first word, the
+      * nearest occurrence of each next word after it
+      * is found; those only move forward as the first
+      * word does, so every position list is read once.
+      * @param a The Article, which contains every word
+      * @param termIds The ids of the words, in order
+      * @return true if the words appear in order
+      * with at most #GetSlop() words between them
+      */
+    public boolean Matches(Article a, int[] termIds) {
+	TermPositions positions=a.GetTermPositions();
+	if(positions==null)
+	    return true;
+	TermFrequencies frequencies=a.GetTermFrequencies();
+	int k=termIds.length;
+	int[][] lists = new int[k][];
+	for(int j=0;j<k;j++) {
+	    int i=frequencies.IndexOf(termIds[j]);
+	    if(i<0)
+		return false;
+	    lists[j] = new int[frequencies.GetCountAt(i)];
+	    positions.Decode(i,lists[j]);
+	}
+	int[] next = new int[k];
+	for(int first : lists[0]) {
+	    int last=first;
+	    for(int j=1;j<k;j++) {
+		int[] list=lists[j];
+		while(next[j]<list.length && list[next[j]]<=last)
+		    next[j]++;
+		if(next[j]==list.length)
+		    return false;
+		last=list[next[j]];
+	    }
+	    if(last-first-(k-1)<=slop)
+		return true;
+	}
+	return false;
+    }
+
+    /**
+      * Writes the phrase as a Query reads it
+      * @return The words in quotes, followed by
+      * ~ and the slop if it is not 0
+      */
+    public String toString() {
+	String quoted="\""+String.join(" ",terms)+"\"";
+	return slop==0?quoted:quoted+"~"+slop;
+    }
+
+    private String[] terms;
+    private int slop;
+}
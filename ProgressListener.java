@@ -0,0 +1,64 @@
+/**
+  * ProgressListener.java
+  * Prints a running summary of a crawl
+  */
+
+import java.net.URL;
+
+/**
+  * A CrawlListener which prints one line of totals
+  * at a fixed interval instead of a line for every
+  * article, which stays readable however many
+  * articles are being downloaded at once.
+  */
+public class ProgressListener implements CrawlListener {
+    /**
+      * Constructor
+      * @param intervalMillis How often to print the
+      * totals, in milliseconds
+      */
+    public ProgressListener(long intervalMillis) {
+	this.intervalMillis=intervalMillis;
+	lastPrint=System.currentTimeMillis();
+    }
+
+    public void FeedStarted(URL feed) {}
+
+    public void FeedFailed(URL feed, String reason) {}
+
+    public void ArticleStarted(FeedItem item, CrawlProgress progress) {}
+
+    public void ArticleDuplicate(FeedItem item, CrawlProgress progress) {}
+
+    public void ArticleIndexed(Article a, CrawlProgress progress) {}
+
+    public void ArticleFailed(FeedItem item, String reason, CrawlProgress progress) {}
+
+    public void Progress(CrawlProgress progress) {
+	long now=System.currentTimeMillis();
+	if(now-lastPrint<intervalMillis)
+	    return;
+	lastPrint=now;
+	print(progress);
+    }
+
+    public void Finished(CrawlProgress progress) {
+	print(progress);
+    }
+
+    /**
+      * Prints the totals of a crawl
+      * @param progress The progress of the crawl
+      */
+    private static void print(CrawlProgress progress) {
+	System.out.printf("[%.0fs] %d indexed, %d pending, %d failed, %d duplicates, "
+		+"%d/%d feeds failed, %.1f articles/second\n",
+		progress.GetSeconds(),progress.GetNumIndexed(),progress.GetNumPending(),
+		progress.GetNumFailed(),progress.GetNumDuplicates(),
+		progress.GetNumFailedFeeds(),progress.GetNumFeeds(),
+		progress.GetArticlesPerSecond());
+    }
+
+    private long intervalMillis;
+    private long lastPrint;
+}
@@ -0,0 +1,326 @@
+/**
+  * Query.java
+  * A search for one or more words
+  */
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+  * The words of a search and how they combine.
+  * By default an Article must contain every word
+  * (AND); a query with OR between its words
+  * matches Articles containing any of them.
+  * Words in double quotes are a Phrase, which
+  * every matching Article must contain, AND or
+  * OR; "new york"~3 allows up to 3 other words
+  * within the phrase.
+  * A word with * or ? in it is a pattern, where
+  * * matches any run of characters and ? any one
+  * character, so econom* matches economy and
+  * economics. A word followed by ~ matches the
+  * words within a few typos of it, and ~1 or ~2
+  * sets how many. Each is expanded into the words
+  * of the index it matches, which then count as
+  * one word.
+  * Words are found with the same Tokenizer the
+  * Articles were indexed with, so punctuation
+  * separates words and case is ignored.
+  */
+public class Query {
+    /**
+      * Constructor
+      * @param terms The distinct lowercase words
+      * @param matchAll true if every word must be
+      * in an Article, false if any one will do
+      */
+    public Query(String[] terms, boolean matchAll) {
+	this(terms, matchAll, new Phrase[0]);
+    }
+
+    /**
+      * Constructor
+      * @param terms The distinct lowercase words,
+      * including the words of the phrases
+      * @param matchAll true if every word must be
+      * in an Article, false if any one will do
+      * @param phrases The phrases every Article must contain
+      */
+    public Query(String[] terms, boolean matchAll, Phrase[] phrases) {
+	this(terms, exact(terms.length), matchAll, phrases);
+    }
+
+    /**
+      * Constructor
+      * @param terms The distinct lowercase words and
+      * patterns, including the words of the phrases
+      * @param kinds How each is matched: #EXACT,
+      * #WILDCARD, or the largest number of typos allowed
+      * @param matchAll true if every word must be
+      * in an Article, false if any one will do
+      * @param phrases The phrases every Article must contain
+      */
+    public Query(String[] terms, int[] kinds, boolean matchAll, Phrase[] phrases) {
+	this.terms=terms;
+	this.kinds=kinds;
+	this.matchAll=matchAll;
+	this.phrases=phrases;
+	required = new boolean[terms.length];
+	for(int i=0;i<terms.length;i++) {
+	    required[i]=matchAll;
+	    for(Phrase phrase : phrases)
+		for(String word : phrase.GetTerms())
+		    if(word.equals(terms[i]) && kinds[i]==EXACT)
+			required[i]=true;
+	}
+    }
+
+    /**
+      * Parses a query the user entered. The words
+      * AND and OR in capitals are operators, and
+      * the query matches any of its words if OR
+      * appears anywhere in it. Text in double quotes
+      * is a phrase, optionally followed by ~ and the
+      * number of other words allowed within it.
+      * Patterns need at least one letter or digit,
+      * and a word followed by ~ alone allows 1 typo
+      * if it has 3 to 5 characters and 2 if longer.
+      * @param text The query
+      * @return The parsed Query, with no terms
+      * if the text contains no words
+      */
+    public static Query Parse(String text) {
+	//each word is kept once, by how it is written out
+	LinkedHashMap<String,Integer> terms = new LinkedHashMap<String,Integer>();
+	ArrayList<Phrase> phrases = new ArrayList<Phrase>();
+	StringBuilder loose = new StringBuilder();
+	int pos=0;
+	while(pos<text.length()) {
+	    int open=text.indexOf('"',pos);
+	    if(open<0) {
+		loose.append(text,pos,text.length());
+		break;
+	    }
+	    loose.append(text,pos,open).append(' ');
+	    int close=text.indexOf('"',open+1);
+	    if(close<0)
+		close=text.length();
+	    ArrayList<String> words=tokenize(text.substring(open+1,close));
+	    pos=Math.min(close+1,text.length());
+	    int slop=0;
+	    if(pos<text.length() && text.charAt(pos)=='~') {
+		int end=++pos;
+		while(end<text.length() && end-pos<9 && Character.isDigit(text.charAt(end)))
+		    end++;
+		if(end>pos)
+		    slop=Integer.parseInt(text.substring(pos,end));
+		pos=end;
+	    }
+	    if(words.isEmpty())
+		continue;
+	    phrases.add(new Phrase(words.toArray(new String[words.size()]),slop));
+	    for(String word : words)
+		terms.putIfAbsent(word,EXACT);
+	}
+	boolean matchAll=true;
+	for(String part : loose.toString().trim().split("\\s+")) {
+	    if(part.equals("OR")) {
+		matchAll=false;
+		continue;
+	    }
+	    if(part.equals("AND"))
+		continue;
+	    parseWord(part,terms);
+	}
+	String[] words = new String[terms.size()];
+	int[] kinds = new int[terms.size()];
+	int i=0;
+	for(Map.Entry<String,Integer> e : terms.entrySet()) {
+	    kinds[i]=e.getValue();
+	    words[i]=kinds[i]>=0?e.getKey().substring(0,e.getKey().lastIndexOf('~')):e.getKey();
+	    i++;
+	}
+	return new Query(words, kinds, matchAll, phrases.toArray(new Phrase[phrases.size()]));
+    }
+
+    /**
+      * Terms Getter
+      * @return The distinct lowercase words
+      */
+    public String[] GetTerms() {
+	return terms;
+    }
+
+    /**
+      * Gets how a word of the query is matched
+      * @param i Index into #GetTerms()
+      * @return #EXACT if the word must be in an
+      * Article as it is, #WILDCARD if it is a pattern,
+      * or else the number of typos allowed in it
+      */
+    public int GetKind(int i) {
+	return kinds[i];
+    }
+
+    /**
+      * Match All Getter
+      * @return true if every word must be
+      * in an Article, false if any one will do
+      */
+    public boolean GetMatchAll() {
+	return matchAll;
+    }
+
+    /**
+      * Phrases Getter
+      * @return The phrases every Article must contain
+      */
+    public Phrase[] GetPhrases() {
+	return phrases;
+    }
+
+    /**
+      * Checks whether a word must be in every
+      * Article, because the query matches all of
+      * its words or the word is in a phrase
+      * @param i Index into #GetTerms()
+      * @return true if the word is required
+      */
+    public boolean IsRequired(int i) {
+	return required[i];
+    }
+
+    /**
+      * Writes the query back out, in the
+      * form #Parse(String text) reads
+      * @return The phrases and the other words
+      * joined by AND or OR
+      */
+    public String toString() {
+	ArrayList<String> parts = new ArrayList<String>();
+	LinkedHashSet<String> inPhrases = new LinkedHashSet<String>();
+	for(Phrase phrase : phrases) {
+	    parts.add(phrase.toString());
+	    for(String word : phrase.GetTerms())
+		inPhrases.add(word);
+	}
+	for(int i=0;i<terms.length;i++)
+	    if(kinds[i]!=EXACT || !inPhrases.contains(terms[i]))
+		parts.add(kinds[i]>=0?terms[i]+"~"+kinds[i]:terms[i]);
+	return String.join(matchAll?" AND ":" OR ",parts);
+    }
+
+    /**
+      * Adds the words of one part of a query, between
+      * spaces, to the words of the query. Runs of
+      * letters, digits and wildcards are patterns if
+      * they have a wildcard, and a part ending in ~
+      * and an optional number is a fuzzy word if it
+      * is a single word.
+      * @param part The part of the query
+      * @param terms The words so far, by how they
+      * are written out, with how each is matched
+      */
+    private static void parseWord(String part, LinkedHashMap<String,Integer> terms) {
+	int tilde=part.lastIndexOf('~');
+	if(tilde>=0 && tilde>=part.length()-2) {
+	    String digits=part.substring(tilde+1);
+	    ArrayList<String> words=tokenize(part.substring(0,tilde));
+	    if(words.size()==1 && (digits.isEmpty() || Character.isDigit(digits.charAt(0)))) {
+		String word=words.get(0);
+		int edits;
+		if(!digits.isEmpty())
+		    edits=Math.min(digits.charAt(0)-'0',MAX_EDITS);
+		else
+		    edits=word.length()<=2?0:word.length()<=5?1:2;
+		if(edits==0)
+		    terms.putIfAbsent(word,EXACT);
+		else
+		    terms.putIfAbsent(word+"~"+edits,edits);
+		return;
+	    }
+	}
+	StringBuilder run = new StringBuilder();
+	boolean wildcard=false;
+	boolean literal=false;
+	int start=0;
+	for(int i=0;i<=part.length();i++) {
+	    char c=i<part.length()?part.charAt(i):' ';
+	    if(c=='*' || c=='?') {
+		run.append(c);
+		wildcard=true;
+		continue;
+	    }
+	    char w=Tokenizer.ToWordChar(c);
+	    if(w!=0) {
+		run.append(w);
+		literal=true;
+		continue;
+	    }
+	    if(!wildcard) {
+		for(String word : tokenize(part.substring(start,i)))
+		    terms.putIfAbsent(word,EXACT);
+	    }
+	    else if(literal)
+		terms.putIfAbsent(run.toString(),WILDCARD);
+	    run.setLength(0);
+	    wildcard=false;
+	    literal=false;
+	    start=i+1;
+	}
+    }
+
+    /**
+      * Makes the kinds of words which are all exact
+      * @param n The number of words
+      * @return An array of n #EXACT kinds
+      */
+    private static int[] exact(int n) {
+	int[] kinds = new int[n];
+	Arrays.fill(kinds,EXACT);
+	return kinds;
+    }
+
+    /**
+      * Splits text into words with a Tokenizer
+      * @param text The text to split
+      * @return The lowercase words, in order
+      */
+    private static ArrayList<String> tokenize(String text) {
+	ArrayList<String> words = new ArrayList<String>();
+	Tokenizer tokenizer = new Tokenizer(new StringReader(text));
+	try {
+	    while(tokenizer.Next())
+		words.add(tokenizer.GetToken());
+	}
+	//a StringReader never fails
+	catch (IOException e) {}
+	return words;
+    }
+
+    /**
+      * The kind of a word which must be in an Article as it is
+      */
+    public static final int EXACT=-1;
+    /**
+      * The kind of a pattern with * or ? wildcards
+      */
+    public static final int WILDCARD=-2;
+    /**
+      * The most typos a fuzzy word may allow,
+      * which keeps the number of matches sane
+      */
+    public static final int MAX_EDITS=2;
+
+    private String[] terms;
+    private int[] kinds;
+    private boolean matchAll;
+    private Phrase[] phrases;
+    private boolean[] required;
+}
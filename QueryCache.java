@@ -0,0 +1,174 @@
+/**
+  * QueryCache.java
+  * Remembers the best hits of recent
+  * queries, so repeating one is free
+  */
+
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+  * A least recently used cache of the best hits
+  * of queries, keyed by the query as
+  * Query#toString() writes it, so queries which
+  * differ only in case, punctuation or repeated
+  * words share an entry. Each entry is stamped
+  * with the version of the index it was computed
+  * at, from InvertedIndex#GetVersion(Query query),
+  * and is only used while the version is the same.
+  * The version of a query changes exactly when an
+  * Article containing one of its words is indexed,
+  * so entries survive a crawl which adds unrelated
+  * Articles and are dropped as soon as one which
+  * matters arrives. The hits keep the scores they
+  * were computed with: an unrelated Article only
+  * nudges the BM25 statistics of every word, which
+  * is not worth recomputing every query for.
+  * An entry holds the best offset+limit hits of the
+  * query which filled it, so it answers any page
+  * within them; a later page runs the query again.
+  */
+public class QueryCache {
+    /**
+      * Constructor
+      * @param capacity The number of queries to
+      * remember, least recently used first out
+      */
+    public QueryCache(final int capacity) {
+	this.capacity=capacity;
+	entries = new LinkedHashMap<String, Entry>(16,0.75f,true) {
+	    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+		if(size()<=capacity)
+		    return false;
+		evictions++;
+		return true;
+	    }
+	};
+    }
+
+    /**
+      * Looks up a page of a query's hits
+      * @param key The query, as Query#toString() writes it
+      * @param version The current version of the query
+      * @param offset The number of best hits to skip
+      * @param limit The maximum number of hits to return
+      * @return The hits, best first, or null if the
+      * query is not cached at this version, or not
+      * deep enough for the page
+      */
+    public synchronized LinkedList<SearchHit> Get(String key, long version, int offset, int limit) {
+	Entry e=entries.get(key);
+	if(e!=null && e.version!=version) {
+	    entries.remove(key);
+	    invalidations++;
+	    e=null;
+	}
+	if(e==null || ((long)offset+limit>e.depth && e.hits.length==e.depth)) {
+	    misses++;
+	    return null;
+	}
+	hits++;
+	LinkedList<SearchHit> out = new LinkedList<SearchHit>();
+	for(int i=offset;i<e.hits.length && i-offset<limit;i++)
+	    out.add(e.hits[i]);
+	return out;
+    }
+
+    /**
+      * Remembers the best hits of a query
+      * @param key The query, as Query#toString() writes it
+      * @param version The version of the query before
+      * it was run, so Articles indexed while it ran
+      * make the entry stale rather than missing
+      * @param depth The number of hits asked for
+      * @param best The best depth hits, best first; if
+      * there are fewer, they are all the query's hits
+      */
+    public synchronized void Put(String key, long version, int depth, LinkedList<SearchHit> best) {
+	if(depth>MAX_DEPTH)
+	    return;
+	entries.put(key, new Entry(version,depth,best.toArray(new SearchHit[best.size()])));
+    }
+
+    /**
+      * Capacity Getter
+      * @return The number of queries remembered
+      */
+    public int GetCapacity() {
+	return capacity;
+    }
+
+    /**
+      * Gets the number of queries cached
+      * @return Number of entries
+      */
+    public synchronized int GetSize() {
+	return entries.size();
+    }
+
+    /**
+      * Gets the number of lookups the cache answered
+      * @return Number of hits
+      */
+    public synchronized long GetHits() {
+	return hits;
+    }
+
+    /**
+      * Gets the number of lookups the cache could
+      * not answer, including stale entries
+      * @return Number of misses
+      */
+    public synchronized long GetMisses() {
+	return misses;
+    }
+
+    /**
+      * Gets the number of entries dropped because
+      * an Article containing one of their words
+      * was indexed since they were computed
+      * @return Number of stale entries dropped
+      */
+    public synchronized long GetInvalidations() {
+	return invalidations;
+    }
+
+    /**
+      * Gets the number of entries dropped to
+      * make room for newer ones
+      * @return Number of evictions
+      */
+    public synchronized long GetEvictions() {
+	return evictions;
+    }
+
+    /**
+      * The best hits of one query
+      */
+    private static class Entry {
+	Entry(long version, int depth, SearchHit[] hits) {
+	    this.version=version;
+	    this.depth=depth;
+	    this.hits=hits;
+	}
+
+	final long version;
+	final int depth;
+	final SearchHit[] hits;
+    }
+
+    /**
+      * The deepest page, in hits, which is cached.
+      * Deeper pages are rare, and would fill the
+      * cache with hits nobody looks at again.
+      */
+    public static final int MAX_DEPTH=1000;
+
+    private int capacity;
+    private LinkedHashMap<String, Entry> entries;
+    private long hits;
+    private long misses;
+    private long invalidations;
+    private long evictions;
+}
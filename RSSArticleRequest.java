@@ -0,0 +1,153 @@
+/**
+  * RSS Article Request
+  * Downloads and indexes one article
+  * without holding a thread while it waits
+  */
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.RejectedExecutionException;
+
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+  * The asynchronous counterpart of RSSArticleThread.
+  * Starting it sends the request with
+  * HttpFetcher#OpenAsync(URL url, int maxBytes) and
+  * returns at once. When the body has arrived, the
+  * page is parsed, counted and added to the index
+  * on the executor, so a thread is only used while
+  * there is work to do.
+  */
+public class RSSArticleRequest implements HostScheduler.AsyncTask, HostScheduler.Droppable {
+    public RSSArticleRequest(FeedItem item,
+	    DuplicateFilter duplicates,
+	    InvertedIndex index,
+	    Phaser articlePhaser,
+	    CrawlReporter reporter,
+	    Executor executor,
+	    HttpFetcher fetcher,
+	    CrawlConfig config) {
+	this.item=item;
+	this.duplicates=duplicates;
+	this.index=index;
+	this.articlePhaser=articlePhaser;
+	this.reporter=reporter;
+	this.executor=executor;
+	this.fetcher=fetcher;
+	this.config=config;
+    }
+
+    public CompletableFuture<?> Start() {
+	URL url;
+	try {
+	    url=URI.create(item.GetLink()).toURL();
+	}
+	catch (MalformedURLException e) {
+	    url=null;
+	}
+	//not a URI at all, or not an absolute one
+	catch (IllegalArgumentException e) {
+	    url=null;
+	}
+	if(url==null) {
+	    fail("Bad URL: "+item.GetLink());
+	    articlePhaser.arriveAndDeregister();
+	    return CompletableFuture.completedFuture(null);
+	}
+	CompletableFuture<Void> done=fetcher.OpenAsync(url, config.GetMaxBodySize()).handleAsync(
+		new BiFunction<FetchResponse, Throwable, Void>() {
+		    public Void apply(FetchResponse response, Throwable error) {
+			//the party is given back however the
+			//article ends, or the crawl never would
+			try {
+			    if(error!=null)
+				fail("Error while reading data: "+item.GetLink()
+					+" ("+HttpFetcher.Unwrap(error).getMessage()+")");
+			    else
+				index(response);
+			}
+			finally {
+			    articlePhaser.arriveAndDeregister();
+			}
+			return null;
+		    }
+		}, executor);
+	//once the crawl has stopped, the executor refuses
+	//the callback, which then never runs, so the
+	//article is dropped instead
+	done.whenComplete(new BiConsumer<Void, Throwable>() {
+	    public void accept(Void result, Throwable error) {
+		if(error instanceof CompletionException)
+		    error=error.getCause();
+		if(error instanceof RejectedExecutionException)
+		    Drop();
+	    }
+	});
+	return done;
+    }
+
+    /**
+      * Builds the Article from its fetched page
+      * and adds it to the index
+      * @param response The article's body
+      */
+    private void index(FetchResponse response) {
+	Article a;
+	try {
+	    a = new Article(item, response, index.GetDictionary(), config);
+	    //the item was claimed from the DuplicateFilter
+	    //before it was downloaded, so it is not a duplicate
+	    index.AddArticle(a);
+	}
+	catch (InvalidArticleException e) {
+	    fail(e.getMessage());
+	    return;
+	}
+	catch (RuntimeException e) {
+	    fail("Cannot be indexed: "+item.GetLink()+" ("+e+")");
+	    return;
+	}
+	reporter.ArticleIndexed(a);
+    }
+
+    /**
+      * Gives back the claim and the party of an
+      * article which the HostScheduler dropped
+      * before it was downloaded
+      */
+    public void Drop() {
+	try {
+	    fail("Not downloaded before the crawl stopped: "+item.GetLink());
+	}
+	finally {
+	    articlePhaser.arriveAndDeregister();
+	}
+    }
+
+    /**
+      * Records that the article could not be indexed
+      * @param reason Why the article failed
+      */
+    private void fail(String reason) {
+	//let a later copy of the article be tried
+	duplicates.Release(item);
+	reporter.ArticleFailed(item, reason);
+    }
+
+    private FeedItem item;
+    private DuplicateFilter duplicates;
+    private InvertedIndex index;
+    private Phaser articlePhaser;
+    private CrawlReporter reporter;
+    private Executor executor;
+    private HttpFetcher fetcher;
+    private CrawlConfig config;
+}
@@ -6,88 +6,80 @@
 
 import java.lang.Runnable;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.Phaser;
 
-import java.util.concurrent.CountDownLatch;
-
-import java.util.concurrent.locks.ReentrantLock;
-
-import java.util.LinkedList;
-
-import org.w3c.dom.Element;
-
-public class RSSArticleThread implements Runnable {
-    public RSSArticleThread(Element xmlEntry,
-	    LinkedList<Article> outList,
-	    ReentrantLock listLock,
-	    CountDownLatch articleLatch,
-	    AtomicInteger articleCount,
-	    ReentrantLock printLock) {
-	this.xmlEntry=xmlEntry;
-	this.outList=outList;
-	this.listLock=listLock;
-	this.articleLatch=articleLatch;
-	this.articleCount=articleCount;
-	this.printLock=printLock;
+public class RSSArticleThread implements Runnable, HostScheduler.Droppable {
+    public RSSArticleThread(FeedItem item,
+	    DuplicateFilter duplicates,
+	    InvertedIndex index,
+	    Phaser articlePhaser,
+	    CrawlReporter reporter,
+	    HttpFetcher fetcher,
+	    CrawlConfig config) {
+	this.item=item;
+	this.duplicates=duplicates;
+	this.index=index;
+	this.articlePhaser=articlePhaser;
+	this.reporter=reporter;
+	this.fetcher=fetcher;
+	this.config=config;
     }
 
     public void run() {
 	try {
-	    String link=xmlEntry.getElementsByTagName("title").item(0).getFirstChild().getNodeValue();
-	    //make sure all the articles print in proper order
-	    //by ensuring the article count increment and
-	    //printf happen simultaneously
-	    //NOTE: this WILL cause some slowdown at the start
-	    //of each thread (not deadlock though) but is worth
-	    //the cost to have correct output
+	    Article a;
 	    try {
-		printLock.lock();
-		int numArticles=articleCount.incrementAndGet();
-		if(numArticles==1)
-		    System.out.printf("New Article: %s\n%d Article Left\n\n",link,numArticles);
-		else
-		    System.out.printf("New Article: %s\n%d Articles Left\n\n",link,numArticles);
+		a = new Article(item, index.GetDictionary(), fetcher, config);
+		//the item was claimed from the DuplicateFilter
+		//before it was downloaded, so it is not a duplicate
+		index.AddArticle(a);
 	    }
-	    finally {
-		printLock.unlock();
+	    catch (InvalidArticleException e) {
+		fail(e.getMessage());
+		return;
 	    }
-
-	    Article a = new Article(xmlEntry);
-	    listLock.lock();
-	    if(!outList.contains(a)) {
-		outList.add(a);
-		System.out.printf("New Article Added!\n%s\n%s\n\n",a.GetTitle(),a.GetDescription());
+	    catch (RuntimeException e) {
+		fail("Cannot be indexed: "+item.GetLink()+" ("+e+")");
+		return;
 	    }
-	    else
-		System.out.printf("Duplicate Article: %s\n\n",a.GetTitle());
+	    reporter.ArticleIndexed(a);
 	}
-	catch (InvalidArticleException e) {}
 	finally {
-	    if(listLock.isHeldByCurrentThread())
-		listLock.unlock();
-	    articleLatch.countDown();
-	    try {
-		printLock.lock();
-		int numArticles=articleCount.decrementAndGet();
-		if(numArticles==1)
-		    System.out.printf("%d Article left\n\n", numArticles);
-		else
-		    System.out.printf("%d Articles left\n\n", numArticles);
-	    }
-	    finally {
-		printLock.unlock();
-	    }
+	    articlePhaser.arriveAndDeregister();
 	}
+    }
 
+    /**
+      * Gives back the claim and the party of an
+      * article which the HostScheduler dropped
+      * before it was downloaded
+      */
+    public void Drop() {
+	try {
+	    fail("Not downloaded before the crawl stopped: "+item.GetLink());
+	}
+	finally {
+	    articlePhaser.arriveAndDeregister();
+	}
     }
 
+    /**
+      * Records that the article could not be indexed
+      * @param reason Why the article failed
+      */
+    private void fail(String reason) {
+	//let a later copy of the article be tried
+	duplicates.Release(item);
+	reporter.ArticleFailed(item, reason);
+    }
 
-    private Element xmlEntry;
-    private LinkedList<Article> outList;
-    private ReentrantLock listLock;
-    private CountDownLatch articleLatch;
-    private AtomicInteger articleCount;
-    private ReentrantLock printLock;
+    private FeedItem item;
+    private DuplicateFilter duplicates;
+    private InvertedIndex index;
+    private Phaser articlePhaser;
+    private CrawlReporter reporter;
+    private HttpFetcher fetcher;
+    private CrawlConfig config;
 
 }
 
@@ -1,6 +1,6 @@
 /**
   * RSS Feed Thread
-  * Takes the URL of an RSS feed and
+  * Takes the URL of an RSS or Atom feed and
   * spawns new RSSArticleThreads to create
   * articles for each feed entry
   */
@@ -9,116 +9,177 @@ import java.io.IOException;
 
 import java.lang.Runnable;
 
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
 
-import java.net.URL;
-
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.ParserConfigurationException;
+import java.util.function.BiFunction;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
+import java.net.URL;
 
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLStreamException;
 
 public class RSSFeedThread implements Runnable {
     public RSSFeedThread(
-	    ExecutorService executor,
-	    URL feedURL,
-	    LinkedList<Article> outList,
-	    ReentrantLock listLock,
-	    CountDownLatch feedLatch,
-	    AtomicInteger articleCount,
-	    ReentrantLock printLock) {
+	    HostScheduler scheduler,
+	    Executor executor,
+	    FeedState feed,
+	    DuplicateFilter duplicates,
+	    InvertedIndex index,
+	    Phaser articlePhaser,
+	    Semaphore feedPermits,
+	    CrawlReporter reporter,
+	    HttpFetcher fetcher,
+	    CrawlConfig config) {
+	this.scheduler=scheduler;
 	this.executor=executor;
-	this.feedURL=feedURL;
-	this.outList=outList;
-	this.listLock=listLock;
-	this.feedLatch=feedLatch;
-	this.articleCount=articleCount;
-	this.printLock=printLock;
+	this.feed=feed;
+	this.feedURL=feed.GetURL();
+	this.duplicates=duplicates;
+	this.index=index;
+	this.articlePhaser=articlePhaser;
+	this.feedPermits=feedPermits;
+	this.reporter=reporter;
+	this.fetcher=fetcher;
+	this.config=config;
     }
 
     public void run() {
-	Element[] elements = getElements(feedURL);
-	//an error occurred while parsing the url
-	if(elements==null) {
-	    feedLatch.countDown();
+	//the feed thread holds one party of the phaser
+	//until it has read the whole feed, so it cannot
+	//advance before every item has been submitted.
+	//It never waits for the items: they are awaited
+	//by the crawl as a whole, so a feed does not tie
+	//up a pool thread its own articles need
+	try {
+	    if(feedPermits!=null)
+		feedPermits.acquire();
+	}
+	catch (InterruptedException e) {
+	    articlePhaser.arriveAndDeregister();
 	    return;
 	}
-	CountDownLatch articleLatch = new CountDownLatch(elements.length);
-	Runnable[] threads = new Runnable[elements.length];
-	for(int i=0;i<elements.length;i++) {
-	    threads[i]=new RSSArticleThread(
-			elements[i],
-			outList,
-			listLock,
-			articleLatch,
-			articleCount,
-			printLock);
-	    executor.execute(threads[i]);
+	reporter.FeedStarted(feedURL);
+	if(config.GetAsyncFetch()) {
+	    //no thread waits for the feed to download:
+	    //it is parsed on the executor once it has
+	    fetcher.OpenAsync(feedURL, config.GetMaxFeedSize()).handleAsync(
+		    new BiFunction<FetchResponse, Throwable, Void>() {
+			public Void apply(FetchResponse response, Throwable error) {
+			    try {
+				if(error!=null)
+				    reporter.FeedFailed(feedURL, "cannot be read");
+				else
+				    readFeed(response);
+			    }
+			    finally {
+				finish();
+			    }
+			    return null;
+			}
+		    }, executor);
+	    return;
 	}
 	try {
-	    articleLatch.await();
+	    readFeed(fetcher.Open(feedURL));
+	}
+	catch (IOException e) {
+	    reporter.FeedFailed(feedURL, "cannot be read");
 	}
-	catch (InterruptedException e) {}
-	//if we're exiting, make sure to
-	//count down the latch
 	finally {
-	    feedLatch.countDown();
+	    finish();
 	}
     }
 
-    private Element[] getElements(URL url) {
-	DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
-	DocumentBuilder docBuilder = null;
-	Document doc = null;
-	try {
-	    docBuilder = docBuilderFactory.newDocumentBuilder();
-	}
-	//if the parser is improperly configured for some reason
-	//just skip the url and return null
-	catch (ParserConfigurationException e) {
-	    System.out.printf("Parser not properly configured. Skipping url %s\n",url.toString());
-	    return null;
-	}
-
+    /**
+      * Reads a fetched feed, handing each item
+      * which is not already indexed to the
+      * HostScheduler. At most CrawlConfig#GetMaxFeedSize()
+      * bytes of the feed are read.
+      * @param response The feed's body
+      */
+    private void readFeed(FetchResponse response) {
+	FeedParser parser=null;
 	try {
-	    doc = docBuilder.parse(url.toString());
+	    parser = new FeedParser(new BoundedInputStream(response.GetStream(), config.GetMaxFeedSize()));
+	    FeedItem item;
+	    //queue each item for its host as soon as it
+	    //is read, rather than after the whole feed
+	    //has been parsed. The HostScheduler runs it
+	    //once its host can take another request
+	    while((item=parser.Next())!=null) {
+		//duplicates, including articles loaded from
+		//the index file, are never downloaded
+		if(!duplicates.Claim(item)) {
+		    //a refresh sees most items of the feed
+		    //again, which is not worth reporting
+		    if(feed.GetLastPoll()==0)
+			reporter.ArticleDuplicate(item);
+		    continue;
+		}
+		numNewItems++;
+		articlePhaser.register();
+		reporter.ArticleStarted(item);
+		if(config.GetAsyncFetch())
+		    scheduler.Submit(item.GetLink(), new RSSArticleRequest(
+				item,
+				duplicates,
+				index,
+				articlePhaser,
+				reporter,
+				executor,
+				fetcher,
+				config));
+		else
+		    scheduler.Submit(item.GetLink(), new RSSArticleThread(
+				item,
+				duplicates,
+				index,
+				articlePhaser,
+				reporter,
+				fetcher,
+				config));
+	    }
 	}
-	//if the url cannot be parsed, again just 
-	//skip the url and return null
-	catch (SAXException e) {
-	    System.out.printf("URL %s cannot be parsed. Skipping URL.\n",url.toString());
-	    return null;
-	}
-	catch (IOException e) {
-	    System.out.printf("URL %s cannot be read. Skipping URL.\n",url.toString());
-	    return null;
+	//if the url cannot be read or parsed, skip the
+	//rest of it, but keep any items already read
+	catch (XMLStreamException e) {
+	    reporter.FeedFailed(feedURL, "cannot be parsed");
 	}
-	Element rss=doc.getDocumentElement();
-	Element channel=(Element)rss.getElementsByTagName("channel").item(0);
-	NodeList items=channel.getElementsByTagName("item");
-	Element[] elements = new Element[items.getLength()];
-	for(int i=0;i<items.getLength();i++) {
-	    elements[i]=(Element)items.item(i);
+	finally {
+	    try {
+		if(parser!=null)
+		    parser.Close();
+		response.Close();
+	    }
+	    catch (XMLStreamException e) {}
+	    catch (IOException e) {}
 	}
-	return elements;
     }
 
-    private ExecutorService executor;
+    /**
+      * Records the poll in the FeedState, then
+      * gives back the feed's permit and its
+      * party of the phaser
+      */
+    private void finish() {
+	feed.Polled(numNewItems, config.GetRefreshInterval(), config.GetMaxRefreshInterval());
+	if(feedPermits!=null)
+	    feedPermits.release();
+	articlePhaser.arriveAndDeregister();
+    }
+
+    private HostScheduler scheduler;
+    private Executor executor;
+    private FeedState feed;
     private URL feedURL;
-    private LinkedList<Article> outList;
-    private ReentrantLock listLock;
-    private CountDownLatch feedLatch;
-    private AtomicInteger articleCount;
-    private ReentrantLock printLock;
+    private DuplicateFilter duplicates;
+    private InvertedIndex index;
+    private Phaser articlePhaser;
+    private Semaphore feedPermits;
+    private CrawlReporter reporter;
+    private HttpFetcher fetcher;
+    private CrawlConfig config;
+    private int numNewItems;
 
 }
-
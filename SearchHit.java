@@ -0,0 +1,41 @@
+/**
+  * SearchHit.java
+  * One Article found by a query,
+  * with its score
+  */
+
+/**
+  * An Article returned by a ranked query,
+  * paired with the score it was ranked by
+  */
+public class SearchHit {
+    /**
+      * Constructor
+      * @param article The Article found
+      * @param score The score of the Article
+      */
+    public SearchHit(Article article, float score) {
+	this.article=article;
+	this.score=score;
+    }
+
+    /**
+      * Article Getter
+      * @return The Article found
+      */
+    public Article GetArticle() {
+	return article;
+    }
+
+    /**
+      * Score Getter
+      * @return The score of the Article, higher
+      * for a better match
+      */
+    public float GetScore() {
+	return score;
+    }
+
+    private Article article;
+    private float score;
+}
@@ -0,0 +1,328 @@
+/**
+  * SearchServer.java
+  * Answers queries over HTTP while
+  * the index keeps growing
+  */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Locale;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+  * A small HTTP server for a NiftyRSS, built on the
+  * JDK's own com.sun.net.httpserver. It answers two
+  * paths, both with JSON:
+  * /search?q=QUERY&amp;k=N&amp;offset=M returns the best N
+  * hits of a query after skipping M, in the same
+  * form as a line of a batch, and /stats returns
+  * the size of the index, whether it is still
+  * growing, and the counters of the server and of
+  * the QueryCache. Every request runs on its own
+  * virtual thread, so a slow client never holds up
+  * another, and the number of queries at once is
+  * only bounded by the cores searching them.
+  * Queries read the live index, which the crawl and
+  * the FeedRefresher keep adding Articles to without
+  * waiting for them: each query reads the number of
+  * Articles indexed once, and only sees the Articles
+  * below it, so its hits are those of one consistent
+  * snapshot of the index even while it grows.
+  */
+public class SearchServer {
+    static {
+	//the JDK's server writes the headers and the body of
+	//a response separately, so with Nagle's algorithm
+	//the body waits for the client's delayed ACK of the
+	//headers, adding 40 ms to every query. The setting
+	//is read once, when the first HttpServer is made.
+	if(System.getProperty(SearchServer.NODELAY_PROPERTY)==null)
+	    System.setProperty(SearchServer.NODELAY_PROPERTY,"true");
+    }
+
+    /**
+      * Constructor
+      * Binds the server, which does not answer
+      * requests until #Start()
+      * @param nifty The NiftyRSS to search
+      * @param address The address and port to listen
+      * on; port 0 picks any free port
+      * @throws IOException If the address cannot be bound
+      */
+    public SearchServer(NiftyRSS nifty, InetSocketAddress address) throws IOException {
+	this.nifty=nifty;
+	queries = new AtomicLong();
+	errors = new AtomicLong();
+	threadPool=Executors.newVirtualThreadPerTaskExecutor();
+	server=HttpServer.create(address, 0);
+	server.setExecutor(threadPool);
+	server.createContext("/search", new HttpHandler() {
+	    public void handle(HttpExchange exchange) throws IOException {
+		try {
+		    search(exchange);
+		}
+		catch (RuntimeException e) {
+		    errors.incrementAndGet();
+		    send(exchange, 500, error(e.toString()));
+		}
+		finally {
+		    exchange.close();
+		}
+	    }
+	});
+	server.createContext("/stats", new HttpHandler() {
+	    public void handle(HttpExchange exchange) throws IOException {
+		try {
+		    send(exchange, 200, stats());
+		}
+		finally {
+		    exchange.close();
+		}
+	    }
+	});
+    }
+
+    /**
+      * Starts answering requests
+      */
+    public void Start() {
+	server.start();
+    }
+
+    /**
+      * Stops answering requests, waiting at most
+      * a second for those already being answered
+      */
+    public void Stop() {
+	server.stop(1);
+	threadPool.shutdown();
+    }
+
+    /**
+      * Gets the port the server listens on,
+      * which is useful if it was bound to port 0
+      * @return The port number
+      */
+    public int GetPort() {
+	return server.getAddress().getPort();
+    }
+
+    /**
+      * Gets the number of queries answered
+      * @return Number of queries
+      */
+    public long GetNumQueries() {
+	return queries.get();
+    }
+
+    /**
+      * Gets the number of requests which were
+      * malformed or failed
+      * @return Number of errors
+      */
+    public long GetNumErrors() {
+	return errors.get();
+    }
+
+    /**
+      * Answers /search?q=QUERY&amp;k=N&amp;offset=M
+      * @param exchange The request
+      * @throws IOException If the response cannot be sent
+      */
+    private void search(HttpExchange exchange) throws IOException {
+	if(!exchange.getRequestMethod().equals("GET")) {
+	    errors.incrementAndGet();
+	    send(exchange, 405, error("Only GET is supported"));
+	    return;
+	}
+	HashMap<String, String> params=parseParameters(exchange.getRequestURI().getRawQuery());
+	String query=params.get("q");
+	int limit=DEFAULT_K;
+	int offset=0;
+	try {
+	    if(params.containsKey("k"))
+		limit=Integer.parseInt(params.get("k"));
+	    if(params.containsKey("offset"))
+		offset=Integer.parseInt(params.get("offset"));
+	}
+	catch (NumberFormatException e) {
+	    query=null;
+	}
+	if(query==null || limit<0 || limit>MAX_K || offset<0 || offset>MAX_OFFSET) {
+	    errors.incrementAndGet();
+	    send(exchange, 400, error("Expected q, with k between 0 and "+MAX_K
+		    +" and offset between 0 and "+MAX_OFFSET));
+	    return;
+	}
+	String parsed=Query.Parse(query).toString();
+	LinkedList<SearchHit> hits=nifty.Search(parsed, offset, limit);
+	queries.incrementAndGet();
+	send(exchange, 200, ToJson(query, parsed, hits));
+    }
+
+    /**
+      * Writes the answer to /stats
+      * @return The counters, as JSON
+      */
+    private String stats() {
+	StringBuilder json = new StringBuilder();
+	json.append("{\"articles\":").append(nifty.GetNumArticles());
+	json.append(",\"terms\":").append(nifty.GetNumTerms());
+	json.append(",\"crawling\":").append(nifty.IsCrawling());
+	json.append(",\"refreshing\":").append(nifty.IsRefreshing());
+	json.append(",\"queries\":").append(queries.get());
+	json.append(",\"errors\":").append(errors.get());
+	QueryCache cache=nifty.GetQueryCache();
+	if(cache==null)
+	    json.append(",\"cache\":null");
+	else {
+	    json.append(",\"cache\":{\"size\":").append(cache.GetSize());
+	    json.append(",\"capacity\":").append(cache.GetCapacity());
+	    json.append(",\"hits\":").append(cache.GetHits());
+	    json.append(",\"misses\":").append(cache.GetMisses());
+	    json.append(",\"stale\":").append(cache.GetInvalidations());
+	    json.append(",\"evicted\":").append(cache.GetEvictions());
+	    json.append('}');
+	}
+	return json.append('}').toString();
+    }
+
+    /**
+      * Sends a response of JSON
+      * @param exchange The request
+      * @param status The HTTP status code
+      * @param json The body
+      * @throws IOException If the response cannot be sent
+      */
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+	byte[] body=json.getBytes(StandardCharsets.UTF_8);
+	exchange.getResponseHeaders().set("Content-Type","application/json; charset=utf-8");
+	exchange.sendResponseHeaders(status, body.length);
+	OutputStream out=exchange.getResponseBody();
+	out.write(body);
+	out.close();
+    }
+
+    /**
+      * Writes an error message as JSON
+      * @param message The message
+      * @return {"error": message}
+      */
+    private static String error(String message) {
+	return "{\"error\":"+JsonString(message)+"}";
+    }
+
+    /**
+      * Decodes the parameters of a URL. A parameter
+      * given more than once keeps its first value.
+      * @param rawQuery The part of the URL after the ?,
+      * still encoded, or null
+      * @return The parameters mapped to their values
+      */
+    private static HashMap<String, String> parseParameters(String rawQuery) {
+	HashMap<String, String> params = new HashMap<String, String>();
+	if(rawQuery==null)
+	    return params;
+	for(String pair : rawQuery.split("&")) {
+	    if(pair.isEmpty())
+		continue;
+	    int eq=pair.indexOf('=');
+	    String name=eq<0?pair:pair.substring(0,eq);
+	    String value=eq<0?"":pair.substring(eq+1);
+	    try {
+		name=URLDecoder.decode(name, StandardCharsets.UTF_8);
+		value=URLDecoder.decode(value, StandardCharsets.UTF_8);
+	    }
+	    catch (IllegalArgumentException e) {
+		//a malformed escape is left as it was sent
+	    }
+	    if(!params.containsKey(name))
+		params.put(name, value);
+	}
+	return params;
+    }
+
+    /**
+      * Writes the results of one query as JSON:
+      * {"query": ..., "parsed": ..., "hits": [{"title": ...,
+      * "link": ..., "score": ...}, ...]}
+      * @param query The query as it was read
+      * @param parsed The query as it was run
+      * @param hits The results, best first
+      * @return The JSON, on one line
+      */
+    public static String ToJson(String query, String parsed, LinkedList<SearchHit> hits) {
+	StringBuilder json = new StringBuilder();
+	json.append("{\"query\":").append(JsonString(query));
+	json.append(",\"parsed\":").append(JsonString(parsed));
+	json.append(",\"hits\":[");
+	boolean first=true;
+	for(SearchHit hit : hits) {
+	    if(!first)
+		json.append(',');
+	    first=false;
+	    Article a=hit.GetArticle();
+	    json.append("{\"title\":").append(JsonString(a.GetTitle()));
+	    json.append(",\"link\":").append(JsonString(a.GetLink()));
+	    json.append(",\"score\":").append(String.format(Locale.ROOT,"%.4f",hit.GetScore()));
+	    json.append('}');
+	}
+	return json.append("]}").toString();
+    }
+
+    /**
+      * Quotes a String for JSON
+      * @param s The String, or null
+      * @return s in double quotes with quotes,
+      * backslashes and control characters escaped,
+      * or null
+      */
+    public static String JsonString(String s) {
+	if(s==null)
+	    return "null";
+	StringBuilder quoted = new StringBuilder(s.length()+2);
+	quoted.append('"');
+	for(int i=0;i<s.length();i++) {
+	    char c=s.charAt(i);
+	    if(c=='"' || c=='\\')
+		quoted.append('\\').append(c);
+	    else if(c=='\n')
+		quoted.append("\\n");
+	    else if(c<0x20)
+		quoted.append(String.format("\\u%04x",(int)c));
+	    else
+		quoted.append(c);
+	}
+	return quoted.append('"').toString();
+    }
+
+    //the number of hits returned if k is not given
+    public static final int DEFAULT_K=10;
+    //the most hits one request may ask for
+    public static final int MAX_K=1000;
+    //the deepest page one request may ask for
+    public static final int MAX_OFFSET=10000;
+    //turns off Nagle's algorithm in the JDK's HttpServer
+    public static final String NODELAY_PROPERTY="sun.net.httpserver.nodelay";
+
+    private NiftyRSS nifty;
+    private HttpServer server;
+    private ExecutorService threadPool;
+    private AtomicLong queries;
+    private AtomicLong errors;
+}
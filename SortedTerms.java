@@ -0,0 +1,414 @@
+/**
+  * SortedTerms.java
+  * Finds the words of a TermDictionary by
+  * prefix, by wildcard pattern, or by
+  * similarity to a misspelled word
+  */
+
+import java.util.Arrays;
+
+/**
+  * A view of a TermDictionary in sorted order, so
+  * every word with a prefix is in one range that
+  * a binary search finds. The view shares the
+  * dictionary's Strings and adds only a reference
+  * and an id per word, about 8 bytes, so it holds
+  * millions of words. The dictionary keeps growing
+  * while Articles are indexed, so the view is a
+  * sorted base plus the words added since, which
+  * are scanned as they are. Once the tail is more
+  * than an eighth of the base, the next lookup
+  * sorts it and merges it into a new base, so each
+  * word is merged a bounded number of times.
+  * Lookups never take a lock, unless they merge.
+  * Fuzzy matching walks the sorted words like a
+  * trie: consecutive words share their prefix, and
+  * so share the rows of the edit distance table for
+  * it, and once every entry of a row exceeds the
+  * distance allowed, all words with that prefix
+  * are skipped at once.
+  */
+public class SortedTerms {
+    /**
+      * Constructor
+      * @param dictionary The TermDictionary to view
+      */
+    public SortedTerms(TermDictionary dictionary) {
+	this.dictionary=dictionary;
+	base = new Base(new String[0], new int[0]);
+    }
+
+    /**
+      * Finds the words with a prefix
+      * @param prefix The prefix
+      * @return The ids of the words starting with
+      * prefix, including prefix itself
+      */
+    public int[] Prefix(String prefix) {
+	return Wildcard(prefix+"*");
+    }
+
+    /**
+      * Finds the words matching a pattern, where *
+      * matches any run of characters and ? matches
+      * any one character. Only the words starting
+      * with the part before the first wildcard are
+      * tested, so a pattern should not start with one.
+      * @param pattern The pattern
+      * @return The ids of the matching words
+      */
+    public int[] Wildcard(String pattern) {
+	Base b=current();
+	int n=dictionary.GetNumTerms();
+	int literal=0;
+	while(literal<pattern.length() && pattern.charAt(literal)!='*' && pattern.charAt(literal)!='?')
+	    literal++;
+	String prefix=pattern.substring(0,literal);
+	//a pattern of a prefix and a * needs no matching
+	boolean prefixOnly=literal==pattern.length()-1 && pattern.charAt(literal)=='*';
+	int[] out = new int[16];
+	int size=0;
+	int from=lowerBound(b.terms,prefix,0);
+	int to=skip(b.terms,prefix,prefix.length(),from);
+	for(int i=from;i<to;i++) {
+	    if(prefixOnly || Matches(pattern,b.terms[i])) {
+		if(size==out.length)
+		    out=Arrays.copyOf(out,size*2);
+		out[size++]=b.ids[i];
+	    }
+	}
+	for(int id=b.terms.length;id<n;id++) {
+	    String term=dictionary.GetTerm(id);
+	    if(term.startsWith(prefix) && (prefixOnly || Matches(pattern,term))) {
+		if(size==out.length)
+		    out=Arrays.copyOf(out,size*2);
+		out[size++]=id;
+	    }
+	}
+	return Arrays.copyOf(out,size);
+    }
+
+    /**
+      * Finds the words within an edit distance of a
+      * word: the number of characters inserted,
+      * deleted or replaced to turn one into the other
+      * @param term The word, which may be misspelled
+      * @param maxEdits The largest distance allowed
+      * @return The matching words, each packed into a
+      * long as (distance, id), in sorted word order
+      */
+    public long[] Fuzzy(String term, int maxEdits) {
+	Base b=current();
+	int n=dictionary.GetNumTerms();
+	int m=term.length();
+	long[] out = new long[16];
+	int size=0;
+	//rows[d] is the row for the first d characters
+	//of the word being compared, and is valid up to
+	//the depth reached in the previous word
+	int[][] rows = new int[m+maxEdits+2][m+1];
+	//mins[d] is the smallest entry of rows[d]
+	int[] mins = new int[rows.length];
+	for(int j=0;j<=m;j++)
+	    rows[0][j]=j;
+	String previous="";
+	int valid=0;
+	int i=0;
+	while(i<b.terms.length) {
+	    String candidate=b.terms[i];
+	    int depth=Math.min(commonPrefix(previous,candidate),valid);
+	    int limit=Math.min(candidate.length(),m+maxEdits);
+	    boolean pruned=false;
+	    while(depth<limit && !pruned) {
+		mins[depth+1]=nextRow(rows[depth],rows[depth+1],term,candidate.charAt(depth));
+		depth++;
+		pruned=mins[depth]>maxEdits;
+	    }
+	    previous=candidate;
+	    valid=depth;
+	    if(pruned) {
+		i=seek(b.terms,candidate,depth,rows[depth-1],mins[depth-1],term,maxEdits,i+1);
+		continue;
+	    }
+	    if(candidate.length()>m+maxEdits) {
+		//every longer word with this prefix is too long
+		i=skip(b.terms,candidate,depth,i+1);
+		continue;
+	    }
+	    int distance=rows[candidate.length()][m];
+	    if(distance<=maxEdits) {
+		if(size==out.length)
+		    out=Arrays.copyOf(out,size*2);
+		out[size++]=((long)distance<<32)|b.ids[i];
+	    }
+	    i++;
+	}
+	for(int id=b.terms.length;id<n;id++) {
+	    String candidate=dictionary.GetTerm(id);
+	    if(Math.abs(candidate.length()-m)>maxEdits)
+		continue;
+	    int distance=0;
+	    for(int d=0;d<candidate.length() && distance<=maxEdits;d++)
+		distance=nextRow(rows[d],rows[d+1],term,candidate.charAt(d));
+	    if(distance<=maxEdits) {
+		distance=rows[candidate.length()][m];
+		if(distance<=maxEdits) {
+		    if(size==out.length)
+			out=Arrays.copyOf(out,size*2);
+		    out[size++]=((long)distance<<32)|id;
+		}
+	    }
+	}
+	return Arrays.copyOf(out,size);
+    }
+
+    /**
+      * Checks whether a word matches a wildcard
+      * pattern, where * matches any run of characters
+      * and ? matches any one character
+      * @param pattern The pattern
+      * @param term The word
+      * @return true if term matches pattern
+      */
+    public static boolean Matches(String pattern, String term) {
+	int p=0;
+	int t=0;
+	//where the last * was, and the character
+	//of term it is currently matched up to
+	int star=-1;
+	int mark=0;
+	while(t<term.length()) {
+	    if(p<pattern.length() && (pattern.charAt(p)=='?' || pattern.charAt(p)==term.charAt(t))) {
+		p++;
+		t++;
+	    }
+	    else if(p<pattern.length() && pattern.charAt(p)=='*') {
+		star=p++;
+		mark=t;
+	    }
+	    else if(star>=0) {
+		p=star+1;
+		t=++mark;
+	    }
+	    else
+		return false;
+	}
+	while(p<pattern.length() && pattern.charAt(p)=='*')
+	    p++;
+	return p==pattern.length();
+    }
+
+    /**
+      * Gets the number of words in the sorted
+      * base, which does not yet include the newest
+      * @return Number of sorted words
+      */
+    public int GetNumSorted() {
+	return base.terms.length;
+    }
+
+    /**
+      * Gets the sorted base, first merging in
+      * the words added since if there are enough
+      * @return The sorted base
+      */
+    private Base current() {
+	Base b=base;
+	int n=dictionary.GetNumTerms();
+	if(n-b.terms.length<=Math.max(MIN_TAIL,b.terms.length/8))
+	    return b;
+	synchronized(this) {
+	    b=base;
+	    n=dictionary.GetNumTerms();
+	    if(n-b.terms.length<=Math.max(MIN_TAIL,b.terms.length/8))
+		return b;
+	    base=merge(b,n);
+	    return base;
+	}
+    }
+
+    /**
+      * Sorts the words added since a base was
+      * made and merges them into a new one
+      * @param b The old base
+      * @param n The number of words in the dictionary
+      * @return The new base
+      */
+    private Base merge(Base b, int n) {
+	int old=b.terms.length;
+	//the words are distinct, so sorting them alone
+	//and looking their ids up again is enough, and
+	//much faster than sorting ids by their words
+	String[] added = new String[n-old];
+	for(int i=0;i<added.length;i++)
+	    added[i]=dictionary.GetTerm(old+i);
+	Arrays.sort(added);
+	String[] terms = new String[n];
+	int[] ids = new int[n];
+	int i=0;
+	int j=0;
+	for(int k=0;k<n;k++) {
+	    if(j==added.length || (i<old && b.terms[i].compareTo(added[j])<0)) {
+		terms[k]=b.terms[i];
+		ids[k]=b.ids[i++];
+	    }
+	    else {
+		terms[k]=added[j++];
+		ids[k]=dictionary.GetId(terms[k]);
+	    }
+	}
+	return new Base(terms,ids);
+    }
+
+    /**
+      * Fills in the next row of the edit distance
+      * table, for one more character of the word
+      * being compared
+      * @param row The row before
+      * @param next The row to fill in
+      * @param term The word being matched
+      * @param c The next character of the word
+      * being compared
+      * @return The smallest entry of the new row
+      */
+    private static int nextRow(int[] row, int[] next, String term, char c) {
+	next[0]=row[0]+1;
+	int min=next[0];
+	for(int j=1;j<next.length;j++) {
+	    int cost=term.charAt(j-1)==c?0:1;
+	    int d=Math.min(Math.min(next[j-1]+1,row[j]+1),row[j-1]+cost);
+	    next[j]=d;
+	    if(d<min)
+		min=d;
+	}
+	return min;
+    }
+
+    /**
+      * Finds the next word which might match a fuzzy
+      * word, after a word whose last row exceeded the
+      * distance allowed. Usually that is the word after
+      * every word with the same prefix. But if the row
+      * before it was already at the distance allowed,
+      * only a character matching the fuzzy word keeps
+      * the next row there, so the walk seeks straight
+      * to the next such character, past every other
+      * character at this depth.
+      * @param terms The sorted words
+      * @param candidate The word which failed
+      * @param depth The length of its prefix whose
+      * row exceeded the distance allowed
+      * @param parent The row before that one
+      * @param parentMin The smallest entry of parent
+      * @param term The fuzzy word
+      * @param maxEdits The largest distance allowed
+      * @param from The index after candidate
+      * @return The index of the next word to try
+      */
+    private static int seek(String[] terms, String candidate, int depth, int[] parent, int parentMin,
+	    String term, int maxEdits, int from) {
+	if(parentMin<maxEdits)
+	    return skip(terms,candidate,depth,from);
+	char failed=candidate.charAt(depth-1);
+	char next=0;
+	for(int j=0;j<term.length();j++) {
+	    char c=term.charAt(j);
+	    if(parent[j]==maxEdits && c>failed && (next==0 || c<next))
+		next=c;
+	}
+	if(next==0)
+	    return skip(terms,candidate,depth-1,from);
+	return lowerBound(terms,candidate.substring(0,depth-1)+next,from);
+    }
+
+    /**
+      * Gets the length of the common prefix of two words
+      * @param a The first word
+      * @param b The second word
+      * @return Number of leading characters they share
+      */
+    private static int commonPrefix(String a, String b) {
+	int n=Math.min(a.length(),b.length());
+	int i=0;
+	while(i<n && a.charAt(i)==b.charAt(i))
+	    i++;
+	return i;
+    }
+
+    /**
+      * Finds the first word which is not
+      * before a prefix, in sorted order
+      * @param terms The sorted words
+      * @param prefix The prefix
+      * @param from The index to search from
+      * @return Index of the first word at or after prefix
+      */
+    private static int lowerBound(String[] terms, String prefix, int from) {
+	int lo=from;
+	int hi=terms.length;
+	while(lo<hi) {
+	    int mid=(lo+hi)>>>1;
+	    if(terms[mid].compareTo(prefix)<0)
+		lo=mid+1;
+	    else
+		hi=mid;
+	}
+	return lo;
+    }
+
+    /**
+      * Finds the end of the run of words which
+      * share a prefix, by galloping ahead from
+      * its start and then searching the last step
+      * @param terms The sorted words
+      * @param word The word whose first length
+      * characters are the prefix
+      * @param length The length of the prefix
+      * @param from The index of the first word
+      * after the start of the run
+      * @return Index of the first word at or
+      * after from not starting with the prefix
+      */
+    private static int skip(String[] terms, String word, int length, int from) {
+	if(from>=terms.length || !terms[from].regionMatches(0,word,0,length))
+	    return from;
+	int lo=from;
+	int step=1;
+	int hi=from+1;
+	while(hi<terms.length && terms[hi].regionMatches(0,word,0,length)) {
+	    lo=hi;
+	    step<<=1;
+	    hi=lo+step;
+	}
+	hi=Math.min(hi,terms.length);
+	//terms[lo] has the prefix, and terms[hi] does not
+	while(lo+1<hi) {
+	    int mid=(lo+hi)>>>1;
+	    if(terms[mid].regionMatches(0,word,0,length))
+		lo=mid;
+	    else
+		hi=mid;
+	}
+	return hi;
+    }
+
+    /**
+      * The sorted words and their ids, which never
+      * change once made, so lookups can use them
+      * while a new base is being merged
+      */
+    private static class Base {
+	Base(String[] terms, int[] ids) {
+	    this.terms=terms;
+	    this.ids=ids;
+	}
+
+	final String[] terms;
+	final int[] ids;
+    }
+
+    private static final int MIN_TAIL=1024;
+
+    private TermDictionary dictionary;
+    private volatile Base base;
+}
@@ -0,0 +1,223 @@
+/**
+  * TermCounter.java
+  * Counts the words of one Article
+  * as they are read by a Tokenizer
+  */
+
+import java.io.IOException;
+
+/**
+  * An open-addressing hash table from words to
+  * their number of occurrences, keyed directly
+  * on the Tokenizer's char buffer. A String is
+  * only created the first time a word is seen,
+  * so counting a word that has been seen before
+  * allocates nothing. If asked to, it also records
+  * which word is at each position, from which a
+  * TermPositions is built.
+  */
+public class TermCounter {
+    /**
+      * Constructor
+      * Creates an empty counter
+      */
+    public TermCounter() {
+	this(false);
+    }
+
+    /**
+      * Constructor
+      * Creates an empty counter
+      * @param recordPositions true to record the
+      * word at every position, as well as the counts
+      */
+    public TermCounter(boolean recordPositions) {
+	slots = new int[INITIAL_CAPACITY];
+	terms = new String[INITIAL_CAPACITY/2];
+	hashes = new int[INITIAL_CAPACITY/2];
+	counts = new int[INITIAL_CAPACITY/2];
+	size=0;
+	sequence = recordPositions?new int[INITIAL_CAPACITY]:null;
+	numTokens=0;
+    }
+
+    /**
+      * Counts every word of a Tokenizer
+      * @throws IOException if the Tokenizer throws one
+      * @param tokenizer The Tokenizer to read until
+      * it runs out of words
+      */
+    public void AddAll(Tokenizer tokenizer) throws IOException {
+	while(tokenizer.Next())
+	    Add(tokenizer.GetBuffer(),tokenizer.GetLength());
+    }
+
+    /**
+      * Counts one occurrence of a word
+      * @param word Buffer holding the word
+      * @param length Number of characters in the word
+      */
+    public void Add(char[] word, int length) {
+	int entry=count(word,length);
+	if(sequence==null) {
+	    numTokens++;
+	    return;
+	}
+	if(numTokens==sequence.length) {
+	    int[] grown = new int[numTokens*2];
+	    System.arraycopy(sequence,0,grown,0,numTokens);
+	    sequence=grown;
+	}
+	sequence[numTokens++]=entry;
+    }
+
+    /**
+      * Gets the number of distinct words
+      * @return Number of distinct words counted
+      */
+    public int GetNumTerms() {
+	return size;
+    }
+
+    /**
+      * Gets the i-th distinct word,
+      * in the order they were first seen
+      * @param i Index between 0 and #GetNumTerms()
+      * @return The word
+      */
+    public String GetTerm(int i) {
+	return terms[i];
+    }
+
+    /**
+      * Gets the number of occurrences
+      * of the i-th distinct word
+      * @param i Index between 0 and #GetNumTerms()
+      * @return Number of occurrences of the word
+      */
+    public int GetCount(int i) {
+	return counts[i];
+    }
+
+    /**
+      * Gets the number of words counted,
+      * counting every occurrence
+      * @return Number of words
+      */
+    public int GetNumTokens() {
+	return numTokens;
+    }
+
+    /**
+      * Checks whether the word at every
+      * position has been recorded
+      * @return true if positions are recorded
+      */
+    public boolean GetRecordPositions() {
+	return sequence!=null;
+    }
+
+    /**
+      * Gets the word at a position, if
+      * positions are being recorded
+      * @param position Position between 0 and #GetNumTokens()
+      * @return The index of the word, as passed
+      * to #GetTerm(int i)
+      */
+    public int GetTermAt(int position) {
+	return sequence[position];
+    }
+
+    /**
+      * Counts one occurrence of a word
+      * @param word Buffer holding the word
+      * @param length Number of characters in the word
+      * @return The index of the word
+      */
+    private int count(char[] word, int length) {
+	int hash=0;
+	for(int i=0;i<length;i++)
+	    hash=31*hash+word[i];
+	if(size==terms.length)
+	    grow();
+	int mask=slots.length-1;
+	int slot=mix(hash)&mask;
+	while(slots[slot]!=0) {
+	    int i=slots[slot]-1;
+	    if(hashes[i]==hash && matches(terms[i],word,length)) {
+		counts[i]++;
+		return i;
+	    }
+	    slot=(slot+1)&mask;
+	}
+	terms[size] = new String(word,0,length);
+	hashes[size]=hash;
+	counts[size]=1;
+	//slots hold entry index + 1 so 0 means empty
+	slots[slot]=++size;
+	return size-1;
+    }
+
+    /**
+      * Doubles the size of the table, keeping
+      * it at most half full so probes stay short
+      */
+    private void grow() {
+	int capacity=terms.length*2;
+	String[] newTerms = new String[capacity];
+	int[] newHashes = new int[capacity];
+	int[] newCounts = new int[capacity];
+	System.arraycopy(terms,0,newTerms,0,size);
+	System.arraycopy(hashes,0,newHashes,0,size);
+	System.arraycopy(counts,0,newCounts,0,size);
+	terms=newTerms;
+	hashes=newHashes;
+	counts=newCounts;
+	slots = new int[capacity*2];
+	int mask=slots.length-1;
+	for(int i=0;i<size;i++) {
+	    int slot=mix(hashes[i])&mask;
+	    while(slots[slot]!=0)
+		slot=(slot+1)&mask;
+	    slots[slot]=i+1;
+	}
+    }
+
+    /**
+      * Spreads the bits of a String hash code,
+      * since linear probing on the low bits
+      * alone clusters badly
+      * @param hash The hash code
+      * @return The mixed hash code
+      */
+    private static int mix(int hash) {
+	hash*=0x9E3779B9;
+	return hash^(hash>>>16);
+    }
+
+    /**
+      * Checks whether a String holds a word
+      * @param term The String to compare
+      * @param word Buffer holding the word
+      * @param length Number of characters in the word
+      * @return true if they are the same word
+      */
+    private static boolean matches(String term, char[] word, int length) {
+	if(term.length()!=length)
+	    return false;
+	for(int i=0;i<length;i++)
+	    if(term.charAt(i)!=word[i])
+		return false;
+	return true;
+    }
+
+    private static final int INITIAL_CAPACITY=256;
+
+    private int[] slots;
+    private String[] terms;
+    private int[] hashes;
+    private int[] counts;
+    private int size;
+    private int[] sequence;
+    private int numTokens;
+}
@@ -0,0 +1,92 @@
+/**
+  * TermDictionary.java
+  * Gives every distinct word a small
+  * integer id, so that Articles and the
+  * index can refer to words by id
+  */
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+  * A global dictionary which interns every word
+  * seen while indexing to a dense int id. Each
+  * word String is stored only once no matter how
+  * many Articles contain it, and everything else
+  * refers to it by id. Ids are handed out in the
+  * order words are first seen, starting at 0.
+  * Lookups are lock-free so that many
+  * RSSArticleThreads can intern words at once.
+  */
+public class TermDictionary {
+    /**
+      * Constructor
+      * Creates an empty dictionary
+      */
+    public TermDictionary() {
+	ids = new ConcurrentHashMap<String, Integer>();
+	terms = new String[1024];
+	size = 0;
+    }
+
+    /**
+      * Gets the id of a word, giving it
+      * a new id if it has not been seen before
+      * @param term The word to intern
+      * @return The id of term
+      */
+    public int Intern(String term) {
+	Integer id = ids.get(term);
+	if(id!=null)
+	    return id;
+	synchronized(this) {
+	    id = ids.get(term);
+	    if(id!=null)
+		return id;
+	    if(size==terms.length) {
+		String[] newTerms = new String[size*2];
+		System.arraycopy(terms,0,newTerms,0,size);
+		terms=newTerms;
+	    }
+	    terms[size]=term;
+	    //the id is published by the put, after
+	    //the word has been stored in the array
+	    ids.put(term,size);
+	    return size++;
+	}
+    }
+
+    /**
+      * Gets the id of a word without adding it
+      * @param term The word to look up
+      * @return The id of term, or -1 if it is
+      * not in the dictionary
+      */
+    public int GetId(String term) {
+	Integer id = ids.get(term);
+	return id==null?-1:id;
+    }
+
+    /**
+      * Gets the word with a given id
+      * @param id The id to look up, as returned
+      * by #Intern(String term)
+      * @return The word with that id
+      */
+    public String GetTerm(int id) {
+	return terms[id];
+    }
+
+    /**
+      * Gets the number of distinct words. Every
+      * id below the number returned can be passed
+      * to #GetTerm(int id).
+      * @return Number of words in the dictionary
+      */
+    public synchronized int GetNumTerms() {
+	return size;
+    }
+
+    private ConcurrentHashMap<String, Integer> ids;
+    private volatile String[] terms;
+    private int size;
+}
@@ -0,0 +1,188 @@
+/**
+  * TermFrequencies.java
+  * A compact record of how many times
+  * each word appears in one Article
+  */
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+  * Stores the word counts of a single Article
+  * as two parallel primitive arrays: the sorted
+  * ids of the words (from a TermDictionary) and
+  * the number of times each appears. Compared to
+  * a HashMap&lt;String, Integer&gt; this needs no
+  * entry objects, boxed Integers or per-Article
+  * copies of the word Strings, and looking up a
+  * count is a binary search that allocates nothing.
+  */
+public class TermFrequencies {
+    /**
+      * Constructor
+      * Interns every word counted by a
+      * TermCounter and stores the counts by id
+      * @param counter The counted words
+      * @param dictionary The TermDictionary to intern
+      * the words into
+      */
+    public TermFrequencies(TermCounter counter, TermDictionary dictionary) {
+	this.dictionary=dictionary;
+	long[] pairs = new long[counter.GetNumTerms()];
+	for(int i=0;i<pairs.length;i++)
+	    pairs[i]=pack(dictionary.Intern(counter.GetTerm(i)),counter.GetCount(i));
+	unpack(pairs);
+    }
+
+    /**
+      * Constructor
+      * Interns every word of a word count
+      * map and stores the counts by id
+      * @param wordCounts The words mapped to their
+      * number of occurrences
+      * @param dictionary The TermDictionary to intern
+      * the words into
+      */
+    public TermFrequencies(Map<String, Integer> wordCounts, TermDictionary dictionary) {
+	this.dictionary=dictionary;
+	long[] pairs = new long[wordCounts.size()];
+	int i=0;
+	for(Map.Entry<String, Integer> e : wordCounts.entrySet())
+	    pairs[i++]=pack(dictionary.Intern(e.getKey()),e.getValue());
+	unpack(pairs);
+    }
+
+    /**
+      * Constructor
+      * Stores counts of words which
+      * already have ids
+      * @param termIds The distinct word ids, in any order
+      * @param counts The number of occurrences of each word
+      * @param dictionary The TermDictionary the ids are from
+      */
+    public TermFrequencies(int[] termIds, int[] counts, TermDictionary dictionary) {
+	this.dictionary=dictionary;
+	long[] pairs = new long[termIds.length];
+	for(int i=0;i<pairs.length;i++)
+	    pairs[i]=pack(termIds[i],counts[i]);
+	unpack(pairs);
+    }
+
+    /**
+      * Gets the number of occurrences of a word
+      * @param term The lowercase word to look up
+      * @return Number of occurrences of term
+      */
+    public int GetCount(String term) {
+	int id=dictionary.GetId(term);
+	return id<0?0:GetCount(id);
+    }
+
+    /**
+      * Gets the number of occurrences of a word
+      * @param termId The id of the word to look up
+      * @return Number of occurrences of the word
+      */
+    public int GetCount(int termId) {
+	int i=Arrays.binarySearch(termIds,termId);
+	return i<0?0:counts[i];
+    }
+
+    /**
+      * Finds where a word is among the distinct words
+      * @param termId The id of the word to look up
+      * @return The index of the word, as passed to
+      * #GetTermId(int i), or a negative number if
+      * the Article does not contain it
+      */
+    public int IndexOf(int termId) {
+	return Arrays.binarySearch(termIds,termId);
+    }
+
+    /**
+      * Gets the number of distinct words
+      * @return Number of distinct words
+      */
+    public int GetNumTerms() {
+	return termIds.length;
+    }
+
+    /**
+      * Gets the length of the Article,
+      * which is the total number of words
+      * @return Number of words, counting
+      * every occurrence
+      */
+    public int GetLength() {
+	return length;
+    }
+
+    /**
+      * Gets the id of the i-th distinct word,
+      * in increasing order of id
+      * @param i Index between 0 and #GetNumTerms()
+      * @return The id of the word
+      */
+    public int GetTermId(int i) {
+	return termIds[i];
+    }
+
+    /**
+      * Gets the number of occurrences
+      * of the i-th distinct word
+      * @param i Index between 0 and #GetNumTerms()
+      * @return Number of occurrences of the word
+      */
+    public int GetCountAt(int i) {
+	return counts[i];
+    }
+
+    /**
+      * Builds a HashMap of the word counts.
+      * This is built fresh on every call, so
+      * it should not be used on any hot path.
+      * @return HashMap of every word paired with
+      * its number of occurrences
+      */
+    public HashMap<String, Integer> ToHashMap() {
+	HashMap<String, Integer> map = new HashMap<String, Integer>(termIds.length*4/3+1);
+	for(int i=0;i<termIds.length;i++)
+	    map.put(dictionary.GetTerm(termIds[i]),counts[i]);
+	return map;
+    }
+
+    /**
+      * Packs an (id, count) pair into a long
+      * so that sorting the longs sorts the
+      * pairs by id and keeps them together
+      * @param termId The id of the word
+      * @param count The number of occurrences
+      * @return The packed pair
+      */
+    private static long pack(int termId, int count) {
+	return ((long)termId<<32)|count;
+    }
+
+    /**
+      * Sorts packed (id, count) pairs and
+      * stores them in the parallel arrays
+      * @param pairs The packed pairs
+      */
+    private void unpack(long[] pairs) {
+	Arrays.sort(pairs);
+	termIds = new int[pairs.length];
+	counts = new int[pairs.length];
+	length=0;
+	for(int i=0;i<pairs.length;i++) {
+	    termIds[i]=(int)(pairs[i]>>>32);
+	    counts[i]=(int)pairs[i];
+	    length+=counts[i];
+	}
+    }
+
+    private TermDictionary dictionary;
+    private int[] termIds;
+    private int[] counts;
+    private int length;
+}
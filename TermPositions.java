@@ -0,0 +1,158 @@
+/**
+  * TermPositions.java
+  * A compact record of where each
+  * word appears in one Article
+  */
+
+/**
+  * Stores the positions of every word of a single
+  * Article, for phrase and proximity queries. The
+  * words are in the same order as the Article's
+  * TermFrequencies, and the positions of each word
+  * are written in increasing order as gaps from
+  * the previous position, each a variable-length
+  * integer of 7 bits per byte. Most gaps fit in one
+  * or two bytes, so this costs little more than a
+  * byte or two per word of the Article, all in one
+  * array. Positions count words from 0.
+  */
+public class TermPositions {
+    /**
+      * Constructor
+      * Encodes the positions recorded by a TermCounter
+      * @param counter The counted words, which must
+      * have recorded positions
+      * @param terms The word counts built from counter
+      * @param dictionary The TermDictionary the
+      * words were interned into
+      */
+    public TermPositions(TermCounter counter, TermFrequencies terms, TermDictionary dictionary) {
+	int numTerms=terms.GetNumTerms();
+	//where each word of the counter is among the
+	//distinct words of the TermFrequencies
+	int[] index = new int[counter.GetNumTerms()];
+	for(int e=0;e<index.length;e++)
+	    index[e]=terms.IndexOf(dictionary.GetId(counter.GetTerm(e)));
+	//bucket the positions by word; they come out in
+	//increasing order, since positions are read in order
+	int[] start = new int[numTerms+1];
+	for(int i=0;i<numTerms;i++)
+	    start[i+1]=start[i]+terms.GetCountAt(i);
+	int[] fill = new int[numTerms];
+	int[] positions = new int[counter.GetNumTokens()];
+	for(int p=0;p<positions.length;p++) {
+	    int i=index[counter.GetTermAt(p)];
+	    positions[start[i]+fill[i]++]=p;
+	}
+
+	offsets = new int[numTerms+1];
+	byte[] out = new byte[positions.length+16];
+	int length=0;
+	for(int i=0;i<numTerms;i++) {
+	    offsets[i]=length;
+	    int previous=0;
+	    for(int j=start[i];j<start[i+1];j++) {
+		if(out.length-length<5) {
+		    byte[] grown = new byte[out.length*2];
+		    System.arraycopy(out,0,grown,0,length);
+		    out=grown;
+		}
+		length=writeVarInt(out,length,positions[j]-previous);
+		previous=positions[j];
+	    }
+	}
+	offsets[numTerms]=length;
+	data = new byte[length];
+	System.arraycopy(out,0,data,0,length);
+    }
+
+    /**
+      * Constructor
+      * Rebuilds positions from their encoded bytes,
+      * such as those saved by an IndexStore
+      * @param data The bytes returned by #GetData()
+      * @param terms The word counts of the same Article
+      */
+    public TermPositions(byte[] data, TermFrequencies terms) {
+	this.data=data;
+	int numTerms=terms.GetNumTerms();
+	offsets = new int[numTerms+1];
+	int pos=0;
+	for(int i=0;i<numTerms;i++) {
+	    offsets[i]=pos;
+	    //skip one varint per occurrence
+	    for(int n=terms.GetCountAt(i);n>0;pos++)
+		if(data[pos]>=0)
+		    n--;
+	}
+	offsets[numTerms]=pos;
+    }
+
+    /**
+      * Decodes the positions of the i-th distinct word
+      * @param i Index between 0 and
+      * TermFrequencies#GetNumTerms()
+      * @param out Array to write the positions to, which
+      * must have room for all of them
+      * @return Number of positions written, which is
+      * the number of occurrences of the word
+      */
+    public int Decode(int i, int[] out) {
+	int pos=offsets[i];
+	int end=offsets[i+1];
+	int n=0;
+	int position=0;
+	while(pos<end) {
+	    int gap=0;
+	    int shift=0;
+	    byte b;
+	    do {
+		b=data[pos++];
+		gap|=(b&0x7F)<<shift;
+		shift+=7;
+	    } while(b<0);
+	    position+=gap;
+	    out[n++]=position;
+	}
+	return n;
+    }
+
+    /**
+      * Data Getter
+      * @return The encoded positions of every word
+      */
+    public byte[] GetData() {
+	return data;
+    }
+
+    /**
+      * Gets the number of bytes the positions take
+      * @return Size of the encoded positions and
+      * the offsets into them, in bytes
+      */
+    public int GetSize() {
+	return data.length+4*offsets.length;
+    }
+
+    /**
+      * Writes a non-negative int into an array
+      * in as few bytes as possible, 7 bits per byte,
+      * with the high bit set on every byte but the last
+      * @param out The array to write to, with room
+      * for at least 5 bytes
+      * @param pos Where to write the int
+      * @param value The int to write
+      * @return The position after the int
+      */
+    private static int writeVarInt(byte[] out, int pos, int value) {
+	while((value&~0x7F)!=0) {
+	    out[pos++]=(byte)((value&0x7F)|0x80);
+	    value>>>=7;
+	}
+	out[pos++]=(byte)value;
+	return pos;
+    }
+
+    private byte[] data;
+    private int[] offsets;
+}
@@ -0,0 +1,147 @@
+/**
+  * Tokenizer.java
+  * Splits a stream of characters into
+  * the lowercase words which are indexed
+  * and searched for
+  */
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+  * Reads words one at a time from a Reader in a
+  * single pass. A word is a maximal run of ASCII
+  * letters and digits, after lowercasing; every
+  * other character separates words. This is the
+  * one definition of a word used by both indexing
+  * and queries, so the two always agree.
+  * The current word is kept in a reusable char
+  * buffer, so reading a word allocates nothing
+  * unless it is turned into a String.
+  */
+public class Tokenizer {
+    /**
+      * Constructor
+      * @param reader The Reader to read words from.
+      * It is read in blocks, so it does not need
+      * to be buffered.
+      */
+    public Tokenizer(Reader reader) {
+	this.reader=reader;
+	input = new char[BUFFER_SIZE];
+	inputPos=0;
+	inputLength=0;
+	token = new char[32];
+	tokenLength=0;
+    }
+
+    /**
+      * Advances to the next word
+      * @throws IOException if the Reader throws one
+      * @return true if there was another word,
+      * false at the end of the Reader
+      */
+    public boolean Next() throws IOException {
+	tokenLength=0;
+	while(true) {
+	    if(inputPos==inputLength) {
+		inputLength=reader.read(input,0,input.length);
+		inputPos=0;
+		if(inputLength<=0) {
+		    inputLength=0;
+		    return tokenLength>0;
+		}
+	    }
+	    char raw=input[inputPos++];
+	    char c=ToWordChar(raw);
+	    if(c!=0) {
+		if(tokenLength==token.length) {
+		    char[] newToken = new char[tokenLength*2];
+		    System.arraycopy(token,0,newToken,0,tokenLength);
+		    token=newToken;
+		}
+		token[tokenLength++]=c;
+		if(EndsWord(raw))
+		    return true;
+	    }
+	    else if(tokenLength>0)
+		return true;
+	}
+    }
+
+    /**
+      * Gets the buffer holding the current word.
+      * Only the first #GetLength() characters are
+      * the word, and the buffer is overwritten by
+      * the next call to #Next()
+      * @return The current word's buffer
+      */
+    public char[] GetBuffer() {
+	return token;
+    }
+
+    /**
+      * Gets the length of the current word
+      * @return Number of characters in the word
+      */
+    public int GetLength() {
+	return tokenLength;
+    }
+
+    /**
+      * Gets the current word as a new String
+      * @return The current word
+      */
+    public String GetToken() {
+	return new String(token,0,tokenLength);
+    }
+
+    /**
+      * Converts a character to the character it
+      * contributes to a word. This matches lowercasing
+      * the text and then keeping only [a-z0-9]: the few
+      * non-ASCII characters which lowercase to an ASCII
+      * letter, such as the Kelvin sign, count as that
+      * letter.
+      * @param c The character to convert
+      * @return The lowercase letter or digit, or 0
+      * if c separates words
+      */
+    public static char ToWordChar(char c) {
+	if(c>='a' && c<='z')
+	    return c;
+	if(c>='0' && c<='9')
+	    return c;
+	if(c>='A' && c<='Z')
+	    return (char)(c+('a'-'A'));
+	if(c<128)
+	    return 0;
+	char lower=Character.toLowerCase(c);
+	if((lower>='a' && lower<='z') || (lower>='0' && lower<='9'))
+	    return lower;
+	return 0;
+    }
+
+    /**
+      * Checks whether a character ends the word
+      * it is part of. The capital dotted I lowercases
+      * to an i followed by a combining dot, which
+      * separates words, so it is the only character
+      * that both belongs to a word and ends it.
+      * @param c The character to check
+      * @return true if c is the last character
+      * of its word
+      */
+    public static boolean EndsWord(char c) {
+	return c=='\u0130';
+    }
+
+    private static final int BUFFER_SIZE=8192;
+
+    private Reader reader;
+    private char[] input;
+    private int inputPos;
+    private int inputLength;
+    private char[] token;
+    private int tokenLength;
+}
@@ -0,0 +1,173 @@
+/**
+  * TopHits.java
+  * Keeps the best few hits of a query
+  * without sorting all of them
+  */
+
+/**
+  * A bounded min-heap of hits, each packed into a
+  * long as (score, reversed article id) so that
+  * comparing two hits is comparing two longs: the
+  * higher score wins, and of equal scores the
+  * lower id, which was added to the index first.
+  * Only the best #GetCapacity() hits are kept, so
+  * offering n hits takes O(n log k) time, and
+  * allocates nothing after the heap itself.
+  * The score must not be negative. A float score
+  * which is not negative can be packed by its bits
+  * from Float#floatToIntBits(float value), which
+  * order the same way as the floats.
+  */
+public class TopHits {
+    /**
+      * Constructor
+      * @param capacity The number of hits to keep
+      */
+    public TopHits(int capacity) {
+	heap = new long[Math.max(capacity,0)];
+	size=0;
+    }
+
+    /**
+      * Capacity Getter
+      * @return The number of hits kept
+      */
+    public int GetCapacity() {
+	return heap.length;
+    }
+
+    /**
+      * Gets the number of hits kept so far
+      * @return Number of hits, at most #GetCapacity()
+      */
+    public int GetSize() {
+	return size;
+    }
+
+    /**
+      * Checks whether the heap holds
+      * #GetCapacity() hits
+      * @return true if a new hit must beat
+      * the worst hit kept
+      */
+    public boolean IsFull() {
+	return size==heap.length;
+    }
+
+    /**
+      * Gets the worst hit kept
+      * @return The worst packed hit, which is
+      * only meaningful if #GetSize() is not 0
+      */
+    public long GetWorst() {
+	return heap[0];
+    }
+
+    /**
+      * Checks whether a hit would be kept,
+      * without adding it
+      * @param hit The packed hit
+      * @return true if hit is better than
+      * the worst hit kept, or there is room
+      */
+    public boolean Accepts(long hit) {
+	return size<heap.length || (size>0 && hit>heap[0]);
+    }
+
+    /**
+      * Offers a hit, keeping it only if it is
+      * among the best #GetCapacity() so far
+      * @param hit The packed hit
+      */
+    public void Add(long hit) {
+	if(size<heap.length) {
+	    //sift up from the new leaf
+	    int i=size++;
+	    while(i>0) {
+		int parent=(i-1)>>>1;
+		if(heap[parent]<=hit)
+		    break;
+		heap[i]=heap[parent];
+		i=parent;
+	    }
+	    heap[i]=hit;
+	}
+	else if(size>0 && hit>heap[0]) {
+	    //replace the worst hit and sift it down
+	    int i=0;
+	    while(true) {
+		int child=2*i+1;
+		if(child>=size)
+		    break;
+		if(child+1<size && heap[child+1]<heap[child])
+		    child++;
+		if(heap[child]>=hit)
+		    break;
+		heap[i]=heap[child];
+		i=child;
+	    }
+	    heap[i]=hit;
+	}
+    }
+
+    /**
+      * Empties the heap, returning the hits
+      * kept from best to worst
+      * @return The packed hits, best first
+      */
+    public long[] Drain() {
+	long[] out = new long[size];
+	//popping the minimum fills the array from the back
+	for(int n=size-1;n>=0;n--) {
+	    out[n]=heap[0];
+	    long last=heap[n];
+	    size=n;
+	    int i=0;
+	    while(true) {
+		int child=2*i+1;
+		if(child>=size)
+		    break;
+		if(child+1<size && heap[child+1]<heap[child])
+		    child++;
+		if(heap[child]>=last)
+		    break;
+		heap[i]=heap[child];
+		i=child;
+	    }
+	    if(size>0)
+		heap[i]=last;
+	}
+	return out;
+    }
+
+    /**
+      * Packs a score and an article id into a hit
+      * @param score The score, which is not negative
+      * @param id The article id
+      * @return The packed hit
+      */
+    public static long Pack(int score, int id) {
+	return ((long)score<<32)|(~id&0xFFFFFFFFL);
+    }
+
+    /**
+      * Gets the article id of a packed hit
+      * @param hit The packed hit
+      * @return The article id
+      */
+    public static int GetId(long hit) {
+	return ~(int)hit;
+    }
+
+    /**
+      * Gets the score of a packed hit
+      * @param hit The packed hit
+      * @return The score
+      */
+    public static int GetScore(long hit) {
+	return (int)(hit>>>32);
+    }
+
+    private long[] heap;
+    private int size;
+}